@@ -0,0 +1,156 @@
+package de.intranda.goobi.plugins;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jdom2.Document;
+
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
+import ugh.dl.DocStruct;
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+
+/**
+ * The state of a single search: the retrieved marc records, the created fileformat and the values derived from them. A new result is created for
+ * each search, so that one {@link SruOpacImport} can run several searches at the same time
+ */
+public class SearchResult {
+
+    private final ConfigOpacCatalogue catalogue;
+    private final Prefs prefs;
+    private Document record;
+    private Document volumeRecord;
+    private DocStruct originalAnchor;
+    private Fileformat fileformat;
+    private int hitcount;
+    private String gattung = "Aa";
+    private String docType;
+    private String atstsl;
+    private final List<Path> recordPaths = new ArrayList<>();
+    private Exception error;
+
+    /**
+     * @param catalogue the catalogue which is searched
+     * @param prefs the ruleset used to create the fileformat
+     */
+    public SearchResult(ConfigOpacCatalogue catalogue, Prefs prefs) {
+        this.catalogue = catalogue;
+        this.prefs = prefs;
+    }
+
+    public ConfigOpacCatalogue getCatalogue() {
+        return catalogue;
+    }
+
+    public Prefs getPrefs() {
+        return prefs;
+    }
+
+    /**
+     * @return the marc record the fileformat was created from. If the record belongs to an anchor, this is the anchor record
+     */
+    public Document getRecord() {
+        return record;
+    }
+
+    public void setRecord(Document record) {
+        this.record = record;
+    }
+
+    /**
+     * @return the marc record of the volume if the found record belongs to an anchor, otherwise null
+     */
+    public Document getVolumeRecord() {
+        return volumeRecord;
+    }
+
+    public void setVolumeRecord(Document volumeRecord) {
+        this.volumeRecord = volumeRecord;
+    }
+
+    /**
+     * @return the logical docstruct of the volume while its anchor record is parsed
+     */
+    public DocStruct getOriginalAnchor() {
+        return originalAnchor;
+    }
+
+    public void setOriginalAnchor(DocStruct originalAnchor) {
+        this.originalAnchor = originalAnchor;
+    }
+
+    public Fileformat getFileformat() {
+        return fileformat;
+    }
+
+    public void setFileformat(Fileformat fileformat) {
+        this.fileformat = fileformat;
+    }
+
+    public int getHitcount() {
+        return hitcount;
+    }
+
+    public void setHitcount(int hitcount) {
+        this.hitcount = hitcount;
+    }
+
+    public String getGattung() {
+        return gattung;
+    }
+
+    public void setGattung(String gattung) {
+        this.gattung = gattung;
+    }
+
+    public String getDocType() {
+        return docType;
+    }
+
+    public void setDocType(String docType) {
+        this.docType = docType;
+    }
+
+    public String getAtstsl() {
+        return atstsl;
+    }
+
+    public void setAtstsl(String atstsl) {
+        this.atstsl = atstsl;
+    }
+
+    /**
+     * @return the exception which ended the search, or null if the search was successful
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    public void setError(Exception error) {
+        this.error = error;
+    }
+
+    /**
+     * @return true if a fileformat was created for the search
+     */
+    public boolean isSuccessful() {
+        return error == null && fileformat != null;
+    }
+
+    /**
+     * @return the files the original marc records were stored in
+     */
+    public List<Path> getRecordPaths() {
+        return recordPaths;
+    }
+
+    /**
+     * Remember a file an original marc record was stored in
+     */
+    public void addRecordPath(Path path) {
+        if (!recordPaths.contains(path)) {
+            recordPaths.add(path);
+        }
+    }
+}
@@ -22,19 +22,33 @@ package de.intranda.goobi.plugins;
 
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.Normalizer;
 import java.text.Normalizer.Form;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.commons.configuration.SubnodeConfiguration;
@@ -51,16 +65,38 @@ import org.jdom2.filter.Filters;
 import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
 import org.jdom2.xpath.XPathExpression;
-import org.jdom2.xpath.XPathFactory;
 
-import de.intranda.goobi.plugins.beautify.BeautifyerExecutor;
+import de.intranda.goobi.plugins.beautify.BeautifierRegistry;
+import de.intranda.goobi.plugins.cache.AnchorCache;
+import de.intranda.goobi.plugins.cache.CacheSettings;
+import de.intranda.goobi.plugins.cache.NegativeCache;
+import de.intranda.goobi.plugins.cache.PersistentRecordStore;
+import de.intranda.goobi.plugins.cache.PersistentRecordStore.StoredRecord;
+import de.intranda.goobi.plugins.cache.RecordCache;
+import de.intranda.goobi.plugins.utils.CircuitBreaker;
+import de.intranda.goobi.plugins.utils.CircuitBreaker.BreakerSettings;
+import de.intranda.goobi.plugins.utils.CompiledRegex;
+import de.intranda.goobi.plugins.utils.HedgePolicy;
+import de.intranda.goobi.plugins.utils.HedgePolicy.HedgeSettings;
+import de.intranda.goobi.plugins.utils.MarcFileReader;
 import de.intranda.goobi.plugins.utils.MarcXmlParser;
+import de.intranda.goobi.plugins.utils.MarcXmlParser.ParserException;
 import de.intranda.goobi.plugins.utils.MarcXmlParser.RecordInformation;
 import de.intranda.goobi.plugins.utils.MarcXmlParserFU;
 import de.intranda.goobi.plugins.utils.MarcXmlParserHU;
 import de.intranda.goobi.plugins.utils.MarcXmlParserUGH;
+import de.intranda.goobi.plugins.utils.OrderedParallelIterator;
+import de.intranda.goobi.plugins.utils.RequestLimiter;
+import de.intranda.goobi.plugins.utils.RequestLimiter.LimitSettings;
+import de.intranda.goobi.plugins.utils.RetryPolicy;
 import de.intranda.goobi.plugins.utils.SRUClient;
+import de.intranda.goobi.plugins.utils.SRUClient.NoRecordsException;
 import de.intranda.goobi.plugins.utils.SRUClient.SRUException;
+import de.intranda.goobi.plugins.utils.SRUHarvester;
+import de.intranda.goobi.plugins.utils.SRUHttpTransport;
+import de.intranda.goobi.plugins.utils.SRUHttpTransport.HttpSettings;
+import de.intranda.goobi.plugins.utils.SearchExecutor;
+import de.intranda.goobi.plugins.utils.XPathCache;
 import de.sub.goobi.config.ConfigPlugins;
 import de.sub.goobi.config.ConfigurationHelper;
 import de.sub.goobi.helper.exceptions.ImportPluginException;
@@ -89,31 +125,26 @@ public class SruOpacImport implements IOpacPluginVersion2 {
     private static final String PLUGIN_NAME = "intranda_opac_sru";
     private static final String PLUGIN_NAME_DEPRECATED = "SruOpacImport";
 
+    private static final CompiledRegex WHITESPACE = CompiledRegex.get("\\s");
+    private static final CompiledRegex NON_WORD_CHARACTERS = CompiledRegex.get("[\\W]");
+    private static final CompiledRegex PATH_STEP = CompiledRegex.get("\\/(\\w)");
+
     
     private XMLConfiguration config;
-    private int hitcount;
-    private String gattung = "Aa";
-    private String docType = null;
-    private String atstsl;
-    private ConfigOpacCatalogue coc;
-    private Prefs prefs;
     //    private String inputEncoding;
-    protected Document marcXmlDoc;
-    protected Document marcXmlDocVolume;
     //    private File marcMappingFile = new File(ConfigurationHelper.getInstance().getXsltFolder() + "marc_map.xml");
     //    private String marcXmlParserType = null;
 
     private Map<String, Map<String, String>> searchFieldMap;
 
-    private DocStruct originalAnchor = null;
-
     private boolean saveOriginalMetadata = false;
     private String originalMetadataFolder;
 
-    private List<Path> pathToMarcRecord = new ArrayList<>();
-
     private ConfigOpac configOpac = null;
 
+    /** the result of the last search, read by the getters of {@link IOpacPluginVersion2} */
+    private volatile SearchResult lastResult = new SearchResult(null, null);
+
     /**
      * Constructor using the default plugin configuration profived by Goobi
      *
@@ -183,7 +214,7 @@ public class SruOpacImport implements IOpacPluginVersion2 {
                 for (HierarchicalConfiguration searchFieldConfig : searchFields) {
                     String value = searchFieldConfig.getString("");
                     String catalogue = searchFieldConfig.getString("@catalogue");
-                    catalogFieldMap.put(catalogue.replaceAll("\\s", "").toLowerCase(), value);
+                    catalogFieldMap.put(WHITESPACE.replaceAll(catalogue, "").toLowerCase(), value);
                 }
                 searchFieldMap.put(key, catalogFieldMap);
             }
@@ -210,7 +241,7 @@ public class SruOpacImport implements IOpacPluginVersion2 {
         }
         String fieldName = catalogueFieldMap.values().iterator().next();
         if (catalogue != null) {
-            fieldName = catalogueFieldMap.get(catalogue.replaceAll("\\s", "").toLowerCase());
+            fieldName = catalogueFieldMap.get(WHITESPACE.replaceAll(catalogue, "").toLowerCase());
         }
         if (fieldName != null) {
             return fieldName;
@@ -221,15 +252,151 @@ public class SruOpacImport implements IOpacPluginVersion2 {
 
     /**
      * Called from Goobi. Gets the search field to use from configuration, performs the query and if possible creates a new Goobi fileformat
-     * representing the result
+     * representing the result. The result is also kept for the getters of {@link IOpacPluginVersion2}
      *
      */
     @Override
     public Fileformat search(String inSuchfeld, String inSuchbegriff, ConfigOpacCatalogue catalogue, Prefs inPrefs) throws Exception {
+        SearchResult result = searchRecord(inSuchfeld, inSuchbegriff, catalogue, inPrefs);
+        lastResult = result;
+        return result.getFileformat();
+    }
+
+    /**
+     * Gets the search field to use from configuration, performs the query and if possible creates a new Goobi fileformat representing the
+     * result. Unlike {@link #search(String, String, ConfigOpacCatalogue, Prefs)} this does not change the state of the plugin, so it may be
+     * called by several threads at the same time
+     *
+     * @return the result of the search, containing the fileformat and the values derived from the record
+     * @throws Exception If no unique query result could be found and parsed successfully
+     */
+    public SearchResult searchRecord(String inSuchfeld, String inSuchbegriff, ConfigOpacCatalogue catalogue, Prefs inPrefs) throws Exception {
         //        initSearchFieldMap();
-        this.originalAnchor = null;
-        pathToMarcRecord.clear();
         inSuchfeld = getMappedSearchField(inSuchfeld, catalogue.getTitle());
+        MarcXmlParser parser = createParser(catalogue, inPrefs);
+
+        SearchResult result = new SearchResult(catalogue, inPrefs);
+        result.setFileformat(search(inSuchfeld, inSuchbegriff, catalogue, inPrefs, parser, null, result, null));
+        return result;
+    }
+
+    /**
+     * Search asynchronously on the thread pool of the catalogue, see {@link #searchAsync(String, String, ConfigOpacCatalogue, Prefs, Executor)}
+     */
+    public CompletableFuture<SearchResult> searchAsync(String inSuchfeld, String inSuchbegriff, ConfigOpacCatalogue catalogue, Prefs inPrefs) {
+        return searchAsync(inSuchfeld, inSuchbegriff, catalogue, inPrefs, getSearchExecutor(catalogue));
+    }
+
+    /**
+     * Search asynchronously. Retrieving the record and creating the fileformat from it run as separate stages on the given executor, so the
+     * calling thread is never blocked. The state of the plugin is not changed
+     *
+     * @param inSuchfeld the field code selected in goobi
+     * @param inSuchbegriff the search term
+     * @param catalogue the catalogue to search
+     * @param inPrefs the ruleset used to create the fileformat
+     * @param executor runs the stages of the search
+     * @return the result of the search. If no record was found or it could not be mapped, the future completes exceptionally
+     */
+    public CompletableFuture<SearchResult> searchAsync(String inSuchfeld, String inSuchbegriff, ConfigOpacCatalogue catalogue, Prefs inPrefs,
+            Executor executor) {
+        String searchField = getMappedSearchField(inSuchfeld, catalogue.getTitle());
+        return CompletableFuture
+                .supplyAsync(() -> unchecked(() -> retrieveRecord(createClient(catalogue), catalogue, searchField, inSuchbegriff, "marcxml")),
+                        executor)
+                .thenApplyAsync(record -> unchecked(() -> {
+                    if (record == null) {
+                        throw new SRUException("Unable to find record");
+                    }
+                    SearchResult result = new SearchResult(catalogue, inPrefs);
+                    result.setFileformat(
+                            convertRecord(record, searchField, inSuchbegriff, catalogue, inPrefs, createParser(catalogue, inPrefs), null, result));
+                    return result;
+                }), executor);
+    }
+
+    /**
+     * Run a stage of an asynchronous search, wrapping checked exceptions into a {@link CompletionException}
+     */
+    private static <T> T unchecked(Callable<T> stage) {
+        try {
+            return stage.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Import all records matching a query, for example a collection code or a shelfmark prefix. The records are requested page by page while
+     * the stream is consumed, see {@link SRUHarvester}, and each record is beautified and mapped like a searched record. The page size is read
+     * from <code>harvest[@catalogue]/pageSize</code>
+     *
+     * @param query the CQL query, not url encoded
+     * @param catalogue the catalogue to harvest
+     * @param inPrefs the ruleset used to create the fileformats
+     * @param checkpoint a file storing the position of the current record, so an interrupted harvest can be resumed. May be null
+     * @return a sequential stream of the results. If a record could not be mapped, its result contains the exception
+     * @throws IOException if an existing checkpoint file could not be read
+     */
+    public Stream<SearchResult> harvest(String query, ConfigOpacCatalogue catalogue, Prefs inPrefs, Path checkpoint) throws IOException {
+        String title = catalogue.getTitle();
+        SRUHarvester harvester =
+                new SRUHarvester(createClient(catalogue), catalogue, query, "marcxml", getConfigInt("harvest", title, "pageSize", 50), checkpoint);
+        //anchor records are searched by identifier
+        String searchField = getMappedSearchField("12", title);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(harvester, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .map(record -> convertImportedRecord(record, searchField, catalogue, inPrefs));
+    }
+
+    /**
+     * Import all records of a local MARCXML or ISO 2709 file, like an export of the catalogue, without querying the catalogue for them. The
+     * file is read while the stream is consumed, see {@link MarcFileReader}, and each record is beautified and mapped like a searched record.
+     * The records are mapped in parallel on a thread pool whose size is read from <code>fileImport[@catalogue]/threads</code>, and the results
+     * are handed out in the order of the file. Anchor records are still searched in the catalogue
+     *
+     * @param file the marc file
+     * @param catalogue the catalogue whose configuration is used for the records
+     * @param inPrefs the ruleset used to create the fileformats
+     * @return a sequential stream of the results. If a record could not be mapped, its result contains the exception. The file is closed when
+     *         all records have been read or the stream is closed
+     * @throws IOException if the file could not be opened
+     */
+    public Stream<SearchResult> importFile(Path file, ConfigOpacCatalogue catalogue, Prefs inPrefs) throws IOException {
+        String title = catalogue.getTitle();
+        int threads = getConfigInt("fileImport", title, "threads", Runtime.getRuntime().availableProcessors());
+        MarcFileReader reader = MarcFileReader.open(file, getMarcNamespace(catalogue));
+        //anchor records are searched by identifier
+        String searchField = getMappedSearchField("12", title);
+        OrderedParallelIterator<Document, SearchResult> results = new OrderedParallelIterator<>(reader,
+                record -> convertImportedRecord(record, searchField, catalogue, inPrefs), getImportExecutor(catalogue, threads), threads * 2);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(results, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(() -> {
+            results.cancel();
+            try {
+                reader.close();
+            } catch (IOException e) {
+                myLogger.warn("Cannot close " + file + ": " + e.getMessage());
+            }
+        });
+    }
+
+    private SearchResult convertImportedRecord(Document record, String searchField, ConfigOpacCatalogue catalogue, Prefs inPrefs) {
+        SearchResult result = new SearchResult(catalogue, inPrefs);
+        String identifier = SRUClient.getMatchValues(record, "001").stream().findFirst().orElse("");
+        try {
+            result.setFileformat(convertRecord(record, searchField, identifier, catalogue, inPrefs, createParser(catalogue, inPrefs), null, result));
+        } catch (Exception e) {
+            myLogger.warn("Cannot import record " + identifier + " from " + catalogue.getTitle() + ": " + e.getMessage());
+            result.setError(e);
+        }
+        return result;
+    }
+
+    /**
+     * Create the parser configured in <code>marcXmlParserType[@catalogue]</code>
+     */
+    private MarcXmlParser createParser(ConfigOpacCatalogue catalogue, Prefs inPrefs) throws ParserException {
         String marcParserType = getConfigString("marcXmlParserType", catalogue.getTitle(), null, "");
         MarcXmlParser parser;
         if ("HU".equalsIgnoreCase(marcParserType)) {
@@ -248,13 +415,127 @@ public class SruOpacImport implements IOpacPluginVersion2 {
 
                 @Override
                 protected String createCurrentNoSort(String value) {
-                    value = value.replaceAll("\\D", "");
+                    value = NON_DIGITS.replaceAll(value, "");
                     return value;
                 }
             };
         }
+        return parser;
+    }
+
+    /**
+     * Search the catalogue for many identifiers at once. See {@link #searchAll(String, Collection, ConfigOpacCatalogue, Prefs)}
+     */
+    public Map<String, SearchResult> searchAll(Collection<String> terms, ConfigOpacCatalogue catalogue, Prefs inPrefs) {
+        return searchAll("12", terms, catalogue, inPrefs);
+    }
 
-        return search(inSuchfeld, inSuchbegriff, catalogue, inPrefs, parser, null);
+    /**
+     * Search the catalogue for many terms at once. The searches run in parallel on the thread pool of the catalogue, whose size is read from
+     * <code>batch[@catalogue]/threads</code>. All searches share the http connection pool, the caches and the parsed mapping, and volumes of the
+     * same anchor retrieve the anchor record only once. The state of the plugin is not changed.
+     *
+     * If <code>batch[@catalogue]/size</code> is greater than 1, the records are first requested in batches of that size and put into the record
+     * cache, see {@link #prefetchRecords(String, Collection, ConfigOpacCatalogue, ExecutorService)}
+     *
+     * @param inSuchfeld the field code selected in goobi
+     * @param terms the search terms. Duplicates are only searched once
+     * @param catalogue the catalogue to search
+     * @param inPrefs the ruleset used to create the fileformats
+     * @return the results by search term, in the order of the terms. If a search failed, its result contains the exception
+     */
+    public Map<String, SearchResult> searchAll(String inSuchfeld, Collection<String> terms, ConfigOpacCatalogue catalogue, Prefs inPrefs) {
+        ExecutorService executor = getSearchExecutor(catalogue);
+        prefetchRecords(getMappedSearchField(inSuchfeld, catalogue.getTitle()), terms, catalogue, executor);
+        Map<String, Future<SearchResult>> searches = new LinkedHashMap<>();
+        for (String term : terms) {
+            if (!searches.containsKey(term)) {
+                searches.put(term, executor.submit(() -> searchOrFail(inSuchfeld, term, catalogue, inPrefs)));
+            }
+        }
+        Map<String, SearchResult> results = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<SearchResult>> search : searches.entrySet()) {
+            SearchResult result;
+            try {
+                result = search.getValue().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                searches.values().forEach(f -> f.cancel(true));
+                result = new SearchResult(catalogue, inPrefs);
+                result.setError(e);
+            } catch (ExecutionException | CancellationException e) {
+                result = new SearchResult(catalogue, inPrefs);
+                result.setError(e);
+            }
+            results.put(search.getKey(), result);
+        }
+        return results;
+    }
+
+    /**
+     * Request the records of many search terms with as few requests as possible and put them into the record cache, where the following single
+     * searches find them. Each request combines up to <code>batch[@catalogue]/size</code> terms with CQL <code>or</code>, as long as the url
+     * stays below <code>batch[@catalogue]/maxUrlLength</code>. The records in the response are assigned to the terms by the marc field
+     * configured in <code>batch[@catalogue]/matchField</code>. Terms without a matching record are searched singly as usual
+     *
+     * @param searchField the search field used in the catalogue
+     */
+    private void prefetchRecords(String searchField, Collection<String> terms, ConfigOpacCatalogue catalogue, ExecutorService executor) {
+        String title = catalogue.getTitle();
+        int batchSize = getConfigInt("batch", title, "size", 1);
+        RecordCache cache = getRecordCache(catalogue);
+        if (batchSize <= 1 || !cache.isEnabled()) {
+            return;
+        }
+        List<String> missing = terms.stream().distinct().filter(term -> cache.get(searchField, term) == null).collect(Collectors.toList());
+        SRUClient client = createClient(catalogue);
+        String recordSchema = "marcxml";
+        String matchField = getConfigString("batch", title, "matchField", "001");
+        PersistentRecordStore store = getRecordStore(catalogue);
+        List<List<String>> batches =
+                client.createBatches(catalogue, searchField, missing, recordSchema, batchSize, getConfigInt("batch", title, "maxUrlLength", 2000));
+        myLogger.debug("Requesting " + missing.size() + " records from " + title + " in " + batches.size() + " batches");
+        List<Future<Map<String, Document>>> requests = new ArrayList<>();
+        for (List<String> batch : batches) {
+            requests.add(executor.submit(() -> client.searchRetrieveBatch(catalogue, searchField, batch, recordSchema, matchField)));
+        }
+        for (Future<Map<String, Document>> request : requests) {
+            try {
+                for (Map.Entry<String, Document> found : request.get().entrySet()) {
+                    cache.put(searchField, found.getKey(), found.getValue());
+                    if (store != null) {
+                        store.put(title, searchField, found.getKey(), found.getValue());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                //the records of this batch are searched singly
+                myLogger.warn("Batch request to " + title + " failed: " + e.getCause().getMessage());
+            }
+        }
+    }
+
+    private SearchResult searchOrFail(String inSuchfeld, String term, ConfigOpacCatalogue catalogue, Prefs inPrefs) {
+        try {
+            return searchRecord(inSuchfeld, term, catalogue, inPrefs);
+        } catch (Exception e) {
+            myLogger.warn("Search for " + term + " in " + catalogue.getTitle() + " failed: " + e.getMessage());
+            SearchResult result = new SearchResult(catalogue, inPrefs);
+            result.setError(e);
+            return result;
+        }
+    }
+
+    /**
+     * Get the thread pool for parallel searches in the given catalogue. Its size is read from <code>batch[@catalogue]/threads</code>
+     *
+     * @param catalogue the catalogue
+     * @return the thread pool shared by all plugin instances
+     */
+    public ExecutorService getSearchExecutor(ConfigOpacCatalogue catalogue) {
+        return SearchExecutor.getInstance(catalogue.getTitle(), () -> getConfigInt("batch", catalogue.getTitle(), "threads", 4));
     }
 
     private File initMappingFile(ConfigOpacCatalogue catalogue, Document marcDoc, Namespace namespace) throws ImportPluginException {
@@ -332,6 +613,56 @@ public class SruOpacImport implements IOpacPluginVersion2 {
         return config.getString(queryBuilder.toString(), config.getString(defaultQueryBuilder.toString(), defaultValue));
     }
 
+    private long getConfigLong(String query, String catalogue, String subQuery, long defaultValue) {
+        String value = getConfigString(query, catalogue, subQuery, null);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            myLogger.warn("Invalid numeric value '" + value + "' configured for " + query + "/" + subQuery + ". Using default " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private double getConfigDouble(String query, String catalogue, String subQuery, double defaultValue) {
+        String value = getConfigString(query, catalogue, subQuery, null);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            myLogger.warn("Invalid numeric value '" + value + "' configured for " + query + "/" + subQuery + ". Using default " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private int getConfigInt(String query, String catalogue, String subQuery, int defaultValue) {
+        return (int) getConfigLong(query, catalogue, subQuery, defaultValue);
+    }
+
+    /**
+     * Reads the connection settings for the given catalogue from the &lt;http&gt; section of the plugin configuration
+     *
+     * @param cat the catalogue
+     * @return the http settings. Missing values are filled with defaults, the proxy is taken from the goobi configuration
+     */
+    private HttpSettings getHttpSettings(ConfigOpacCatalogue cat) {
+        String catalogue = cat.getTitle();
+        HttpSettings settings = new HttpSettings();
+        settings.setGoobiProxy(cat);
+        settings.setMaxConnectionsPerRoute(getConfigInt("http", catalogue, "maxConnectionsPerRoute", settings.getMaxConnectionsPerRoute()));
+        settings.setMaxConnectionsTotal(getConfigInt("http", catalogue, "maxConnectionsTotal", settings.getMaxConnectionsTotal()));
+        settings.setConnectTimeout(getConfigInt("http", catalogue, "connectTimeout", settings.getConnectTimeout()));
+        settings.setReadTimeout(getConfigInt("http", catalogue, "readTimeout", settings.getReadTimeout()));
+        settings.setConnectionRequestTimeout(
+                getConfigInt("http", catalogue, "connectionRequestTimeout", settings.getConnectionRequestTimeout()));
+        settings.setKeepAlive(getConfigLong("http", catalogue, "keepAlive", settings.getKeepAlive()));
+        return settings;
+    }
+
     /**
      * Performs the sru search and creates a Goobi fileformat representing the result Also used internally to create an anchor fileformat for a part
      * of a work
@@ -346,110 +677,142 @@ public class SruOpacImport implements IOpacPluginVersion2 {
      */
     public Fileformat search(String inSuchfeld, String inSuchbegriff, ConfigOpacCatalogue catalogue, Prefs inPrefs, MarcXmlParser parser,
             RecordInformation info) throws Exception {
-        this.coc = catalogue;
-        this.prefs = inPrefs;
-
-        SRUClient client = new SRUClient();
-        String version = this.config.getString("sru[@catalogue='" + catalogue.getTitle() + "']/version",
-                this.config.getString("sru[not(@catalogue)]/version", client.getSruVersion()));
-        client.setSruVersion(version);
+        SearchResult result = new SearchResult(catalogue, inPrefs);
+        result.setFileformat(search(inSuchfeld, inSuchbegriff, catalogue, inPrefs, parser, info, result, null));
+        lastResult = result;
+        return result.getFileformat();
+    }
 
-        //create a new empty fileformat
-        Fileformat ff = new MetsMods(inPrefs);
+    /**
+     * Performs the sru search and creates a Goobi fileformat representing the result
+     *
+     * @param result the state of the current search. It is filled with the retrieved records and the values derived from them
+     * @param prefetchedAnchor the anchor record if it has already been requested, otherwise null
+     */
+    private Fileformat search(String inSuchfeld, String inSuchbegriff, ConfigOpacCatalogue catalogue, Prefs inPrefs, MarcXmlParser parser,
+            RecordInformation info, SearchResult result, Future<Document> prefetchedAnchor) throws Exception {
+        SRUClient client = createClient(catalogue);
 
         //query the catalogue, first without using a search field. recordSchema is always marcxml
         String recordSchema = "marcxml";
-        String answer = client.querySRU(catalogue, inSuchfeld + "=" + inSuchbegriff, recordSchema);
-        if(StringUtils.isBlank(answer)) {
-            throw new Exception("Empty response from opac " + catalogue.getDescription() + " for " + inSuchfeld + "=" + inSuchbegriff);
-        }
-        //retrieve the marcXml document from the answer
-        try {
-            marcXmlDoc = SRUClient.retrieveMarcRecord(answer);
-        } catch (SRUException e) {
-            //If no record was found, search again using the search field
-            answer = client.querySRU(catalogue, inSuchbegriff, recordSchema);
-            marcXmlDoc = SRUClient.retrieveMarcRecord(answer);
+        Namespace marcNamespace = getMarcNamespace(catalogue);
+
+        Document marcXmlDoc;
+        if (prefetchedAnchor != null) {
+            marcXmlDoc = getPrefetchedAnchor(prefetchedAnchor);
+        } else if (info != null) {
+            marcXmlDoc = loadAnchorRecord(client, catalogue, inSuchfeld, inSuchbegriff, marcNamespace);
+        } else {
+            marcXmlDoc = retrieveRecord(client, catalogue, inSuchfeld, inSuchbegriff, recordSchema);
         }
 
         //throw exception if not exactly one record was found
-        if (marcXmlDoc != null) {
-            hitcount = 1;
-        } else {
+        if (marcXmlDoc == null) {
             throw new Exception("Unable to find record");
         }
+        return convertRecord(marcXmlDoc, inSuchfeld, inSuchbegriff, catalogue, inPrefs, parser, info, result);
+    }
+
+    /**
+     * Beautifies and parses a marc record and creates a Goobi fileformat from it. If the record belongs to an anchor, the anchor record is
+     * searched and the fileformat contains both
+     *
+     * @param marcXmlDoc the marc record
+     * @param inSuchfeld the search field used for the anchor record
+     * @param inSuchbegriff the identifier of the record
+     * @param info Only used when retrieving anchor info. Contains information about the type of resource used
+     * @param result the state of the current search
+     * @return the fileformat
+     * @throws Exception If the record could not be parsed
+     */
+    private Fileformat convertRecord(Document marcXmlDoc, String inSuchfeld, String inSuchbegriff, ConfigOpacCatalogue catalogue, Prefs inPrefs,
+            MarcXmlParser parser, RecordInformation info, SearchResult result) throws Exception {
+        //create a new empty fileformat
+        Fileformat ff = new MetsMods(inPrefs);
+        Namespace marcNamespace = getMarcNamespace(catalogue);
+
+        result.setRecord(marcXmlDoc);
+        result.setHitcount(1);
         if (saveOriginalMetadata) {
             // save marcXmlDoc into file, overwrite existing
             XMLOutputter xmlOutput = new XMLOutputter();
             xmlOutput.setFormat(Format.getPrettyFormat());
 
-            Path destination = Paths.get(originalMetadataFolder, inSuchbegriff.replaceAll("\\W", "") + "_marc.xml");
+            Path destination = Paths.get(originalMetadataFolder, NON_WORD_CHARACTERS.replaceAll(inSuchbegriff, "") + "_marc.xml");
             xmlOutput.output(marcXmlDoc, new FileWriter(destination.toString()));
-            if (!pathToMarcRecord.contains(destination)) {
-                pathToMarcRecord.add(destination);
-            }
+            result.addRecordPath(destination);
         }
-        
-        String prefix = this.config.getString("namespace[@catalogue='" + catalogue.getTitle() + "']/prefix",
-                this.config.getString("namespace[not(@catalogue)]/prefix", MarcXmlParser.NS_DEFAULT.getPrefix()));
-        String uri = this.config.getString("namespace[@catalogue='" + catalogue.getTitle() + "']/uri",
-                this.config.getString("namespace[not(@catalogue)]/uri", MarcXmlParser.NS_DEFAULT.getURI()));
-        
-        Namespace marcNamespace = Namespace.getNamespace(prefix, uri);
-        
-        //apply beautyfier
-        List<ConfigOpacCatalogueBeautifier> beautifier = catalogue.getBeautifySetList();
-        if(beautifier != null && !beautifier.isEmpty()) {
-            BeautifyerExecutor executor = new BeautifyerExecutor(marcNamespace);
-            executor.executeBeautifier(beautifier, marcXmlDoc.getRootElement());
+
+        //apply beautyfier. Anchor records have already been beautified when they were loaded
+        if (info == null) {
+            beautify(marcXmlDoc, catalogue, marcNamespace);
         }
         
-        parser.setNamespace(prefix, uri);
+        parser.setNamespace(marcNamespace.getPrefix(), marcNamespace.getURI());
         parser.setInfo(info); //Pass record type if this is an anchor
         parser.setIndividualIdentifier(inSuchbegriff.trim()); //not used
         File marcMappingFile = initMappingFile(catalogue, marcXmlDoc, parser.getNamespace());
         myLogger.debug("Using mapping file " + marcMappingFile);
         parser.setMapFile(marcMappingFile);
 
-        String dsType =  getMappedDocStructType(getDocTypeXPaths(), marcXmlDoc, parser.getNamespace());
-        DocStruct mappedDocStruct = createDocStruct(dsType);
-         //parse the marcXml record
-        DigitalDocument dd = parser.parseMarcXml(marcXmlDoc, this.originalAnchor, mappedDocStruct);
-        //Set the gattung from the parsed result. Used to assign a Document type for the new Goobi process
-        gattung = parser.getInfo().getGattung();
-        docType = parser.getInfo().getDocStructType();
+        //request the anchor record while the record is mapped
+        String predictedAnchorId = info == null ? parser.predictAnchorId(marcXmlDoc) : null;
+        Future<Document> anchorRecord = null;
+        if (predictedAnchorId != null) {
+            myLogger.debug("Prefetching anchor record " + predictedAnchorId);
+            SRUClient client = createClient(catalogue);
+            anchorRecord = getAnchorExecutor(catalogue)
+                    .submit(() -> loadAnchorRecord(client, catalogue, inSuchfeld, predictedAnchorId, marcNamespace));
+        }
 
-        myLogger.debug("Parsed marc-xml to docStructType " + dd.getLogicalDocStruct().getDocstructType());
-        myLogger.debug("");
+        DigitalDocument dd;
+        try {
+            String dsType =  getMappedDocStructType(getDocTypeXPaths(), marcXmlDoc, parser.getNamespace());
+            DocStruct mappedDocStruct = createDocStruct(dsType, inPrefs);
+             //parse the marcXml record
+            dd = parser.parseMarcXml(marcXmlDoc, result.getOriginalAnchor(), mappedDocStruct);
+            //Set the gattung from the parsed result. Used to assign a Document type for the new Goobi process
+            result.setGattung(parser.getInfo().getGattung());
+            result.setDocType(parser.getInfo().getDocStructType());
+
+            myLogger.debug("Parsed marc-xml to docStructType " + dd.getLogicalDocStruct().getDocstructType());
+            myLogger.debug("");
         
-        //If the record contains a reference to an anchor, retrieve the anchor record
-        String anchorId = parser.getAchorID();
-        if (!parser.isTreatAsPeriodical() && anchorId == null && info == null) {
-            if (dd.getLogicalDocStruct().getType().isAnchor()) {
-                MetadataType catalogId = prefs.getMetadataTypeByName("CatalogIDDigital");
-                if (catalogId != null) {
-                    List<? extends Metadata> mds = dd.getLogicalDocStruct().getAllMetadataByType(catalogId);
-                    if (!mds.isEmpty()) {
-                        anchorId = mds.get(0).getValue();
+            //If the record contains a reference to an anchor, retrieve the anchor record
+            String anchorId = parser.getAchorID();
+            if (!parser.isTreatAsPeriodical() && anchorId == null && info == null) {
+                if (dd.getLogicalDocStruct().getType().isAnchor()) {
+                    MetadataType catalogId = inPrefs.getMetadataTypeByName("CatalogIDDigital");
+                    if (catalogId != null) {
+                        List<? extends Metadata> mds = dd.getLogicalDocStruct().getAllMetadataByType(catalogId);
+                        if (!mds.isEmpty()) {
+                            anchorId = mds.get(0).getValue();
+                        }
                     }
                 }
             }
-        }
-        if (anchorId != null) {
-            myLogger.debug("Evaluate anchor id " + anchorId);
-            RecordInformation anchorInfo = new RecordInformation(parser.getInfo());
-            this.marcXmlDocVolume = this.marcXmlDoc;
-            this.originalAnchor = dd.getLogicalDocStruct();
-            try {
-                ff = search(inSuchfeld, anchorId, catalogue, inPrefs, parser, anchorInfo);
-                dd = ff.getDigitalDocument();
-                //            attachToAnchor(dd, af);
-            } catch (SRUException e) {
-                myLogger.warn("No anchor entry found for identifier " + anchorId);
+            if (anchorId != null) {
+                myLogger.debug("Evaluate anchor id " + anchorId);
+                RecordInformation anchorInfo = new RecordInformation(parser.getInfo());
+                result.setVolumeRecord(marcXmlDoc);
+                result.setOriginalAnchor(dd.getLogicalDocStruct());
+                try {
+                    ff = search(inSuchfeld, anchorId, catalogue, inPrefs, parser, anchorInfo, result,
+                            usePrefetchedAnchor(anchorId, predictedAnchorId, anchorRecord));
+                    dd = ff.getDigitalDocument();
+                    //            attachToAnchor(dd, af);
+                } catch (SRUException e) {
+                    myLogger.warn("No anchor entry found for identifier " + anchorId);
+                }
+            }
+        } finally {
+            //the prefetched anchor is not needed if the prediction was wrong or the mapping failed. A no-op if the anchor search used it
+            if (anchorRecord != null) {
+                anchorRecord.cancel(true);
             }
         }
 
-        createAtstsl(dd);
+        createAtstsl(dd, result);
         ff.setDigitalDocument(dd);
 
         if(ff.getDigitalDocument() == null) {
@@ -462,29 +825,327 @@ public class SruOpacImport implements IOpacPluginVersion2 {
         return ff;
     }
 
+    /**
+     * @return the namespace of the marc records configured in <code>namespace[@catalogue]</code>
+     */
+    private Namespace getMarcNamespace(ConfigOpacCatalogue catalogue) {
+        String prefix = this.config.getString("namespace[@catalogue='" + catalogue.getTitle() + "']/prefix",
+                this.config.getString("namespace[not(@catalogue)]/prefix", MarcXmlParser.NS_DEFAULT.getPrefix()));
+        String uri = this.config.getString("namespace[@catalogue='" + catalogue.getTitle() + "']/uri",
+                this.config.getString("namespace[not(@catalogue)]/uri", MarcXmlParser.NS_DEFAULT.getURI()));
+        return Namespace.getNamespace(prefix, uri);
+    }
+
+    /**
+     * @return a client using the shared transport of the catalogue and the configured sru version
+     */
+    private SRUClient createClient(ConfigOpacCatalogue catalogue) {
+        SRUClient client = new SRUClient(SRUHttpTransport.getInstance(catalogue, () -> getHttpSettings(catalogue)));
+        String version = this.config.getString("sru[@catalogue='" + catalogue.getTitle() + "']/version",
+                this.config.getString("sru[not(@catalogue)]/version", client.getSruVersion()));
+        client.setSruVersion(version);
+        client.setLimiter(getRequestLimiter(catalogue));
+        client.setRetryPolicy(getRetryPolicy(catalogue.getTitle()));
+        client.setCircuitBreaker(getCircuitBreaker(catalogue));
+        client.setHedgePolicy(getHedgePolicy(catalogue));
+        return client;
+    }
+
+    /**
+     * Get the hedge policy for the given catalogue. The settings are read from the &lt;hedging&gt; section of the plugin configuration
+     *
+     * @param catalogue the catalogue
+     * @return the policy shared by all plugin instances, or null if lookups in the catalogue are not hedged
+     */
+    public HedgePolicy getHedgePolicy(ConfigOpacCatalogue catalogue) {
+        String title = catalogue.getTitle();
+        HedgePolicy policy = HedgePolicy.getInstance(title, () -> {
+            HedgeSettings settings = new HedgeSettings();
+            settings.setPercentile(getConfigDouble("hedging", title, "percentile", settings.getPercentile()));
+            settings.setMinDelay(getConfigLong("hedging", title, "minDelay", settings.getMinDelay()));
+            settings.setWindow(getConfigInt("hedging", title, "window", settings.getWindow()));
+            settings.setMinSamples(getConfigInt("hedging", title, "minSamples", settings.getMinSamples()));
+            return settings;
+        }, () -> getHedgeExecutor(catalogue));
+        return policy.getSettings().isDisabled() ? null : policy;
+    }
+
+    /**
+     * Get the circuit breaker for the endpoint of the given catalogue. The settings are read from the &lt;circuitBreaker&gt; section of the plugin
+     * configuration. Batch imports may check its state and pause while the catalogue is unavailable
+     *
+     * @param catalogue the catalogue
+     * @return the breaker shared by all catalogues with the same address and database, or null if the breaker is disabled
+     */
+    public CircuitBreaker getCircuitBreaker(ConfigOpacCatalogue catalogue) {
+        String title = catalogue.getTitle();
+        CircuitBreaker breaker = CircuitBreaker.getInstance(catalogue, () -> {
+            BreakerSettings settings = new BreakerSettings();
+            settings.setFailureThreshold(getConfigInt("circuitBreaker", title, "failureThreshold", settings.getFailureThreshold()));
+            settings.setOpenDuration(getConfigLong("circuitBreaker", title, "openDuration", settings.getOpenDuration()));
+            settings.setHalfOpenProbes(getConfigInt("circuitBreaker", title, "halfOpenProbes", settings.getHalfOpenProbes()));
+            return settings;
+        });
+        return breaker.getSettings().isDisabled() ? null : breaker;
+    }
+
+    /**
+     * Reads the retry policy for the given catalogue from the &lt;retry&gt; section of the plugin configuration
+     *
+     * @param catalogue the catalogue title
+     * @return the retry policy. Missing values are filled with defaults
+     */
+    private RetryPolicy getRetryPolicy(String catalogue) {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxAttempts(getConfigInt("retry", catalogue, "maxAttempts", policy.getMaxAttempts()));
+        policy.setInitialDelay(getConfigLong("retry", catalogue, "initialDelay", policy.getInitialDelay()));
+        policy.setMaxDelay(getConfigLong("retry", catalogue, "maxDelay", policy.getMaxDelay()));
+        return policy;
+    }
+
+    /**
+     * Get the request limiter for the given catalogue. The limits are read from the &lt;sru&gt; section of the plugin configuration
+     *
+     * @param catalogue the catalogue
+     * @return the limiter shared by all plugin instances, or null if requests to the catalogue are not limited
+     */
+    public RequestLimiter getRequestLimiter(ConfigOpacCatalogue catalogue) {
+        String title = catalogue.getTitle();
+        RequestLimiter limiter = RequestLimiter.getInstance(title, () -> {
+            LimitSettings settings = new LimitSettings();
+            settings.setRequestsPerSecond(getConfigDouble("sru", title, "requestsPerSecond", settings.getRequestsPerSecond()));
+            settings.setBurst(getConfigInt("sru", title, "burst", settings.getBurst()));
+            settings.setMaxInFlight(getConfigInt("sru", title, "maxInFlight", settings.getMaxInFlight()));
+            settings.setTimeout(getConfigLong("sru", title, "limitTimeout", settings.getTimeout()));
+            return settings;
+        });
+        return limiter.getSettings().isUnlimited() ? null : limiter;
+    }
+
+    /**
+     * Get the beautified anchor record from the anchor cache or the catalogue. Anchor records are requested and beautified only once for all
+     * volumes, even if several volumes are searched at the same time
+     */
+    private Document loadAnchorRecord(SRUClient client, ConfigOpacCatalogue catalogue, String searchField, String anchorId, Namespace marcNamespace)
+            throws Exception {
+        return getAnchorCache(catalogue).get(anchorId,
+                () -> beautify(retrieveRecord(client, catalogue, searchField, anchorId, "marcxml"), catalogue, marcNamespace));
+    }
+
+    /**
+     * Wait for an anchor record requested in advance
+     *
+     * @throws Exception the exception thrown while requesting the record
+     */
+    /**
+     * @return the prefetched anchor record if it was requested for the given anchor identifier, otherwise null, so that the anchor is searched
+     *         normally. A prefetch for a wrongly predicted identifier is cancelled
+     */
+    static Future<Document> usePrefetchedAnchor(String anchorId, String predictedAnchorId, Future<Document> anchorRecord) {
+        if (anchorRecord == null || anchorId.equals(predictedAnchorId)) {
+            return anchorRecord;
+        }
+        anchorRecord.cancel(true);
+        return null;
+    }
+
+    private static Document getPrefetchedAnchor(Future<Document> anchorRecord) throws Exception {
+        try {
+            return anchorRecord.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Get the thread pool for requesting anchor records in advance. It is separate from the pool of {@link #getSearchExecutor(ConfigOpacCatalogue)},
+     * because searches running in that pool wait for the anchor records
+     */
+    private ExecutorService getAnchorExecutor(ConfigOpacCatalogue catalogue) {
+        return SearchExecutor.getInstance("anchors of " + catalogue.getTitle(), () -> getConfigInt("batch", catalogue.getTitle(), "threads", 4));
+    }
+
+    /**
+     * Get the thread pool mapping the records of imported files. It is separate from the pool of {@link #getSearchExecutor(ConfigOpacCatalogue)},
+     * so an import does not delay searches
+     */
+    private ExecutorService getImportExecutor(ConfigOpacCatalogue catalogue, int threads) {
+        return SearchExecutor.getInstance("file import of " + catalogue.getTitle(), () -> threads);
+    }
+
+    /**
+     * Get the thread pool sending the second request of hedged lookups. It is separate from the other pools, because their searches wait for
+     * the lookups
+     */
+    private ExecutorService getHedgeExecutor(ConfigOpacCatalogue catalogue) {
+        return SearchExecutor.getInstance("hedged requests to " + catalogue.getTitle(),
+                () -> getConfigInt("batch", catalogue.getTitle(), "threads", 4));
+    }
+
+    /**
+     * Apply the beautifiers configured for the catalogue to the record. The rules are compiled once per catalogue and recompiled when the opac
+     * configuration changes
+     *
+     * @return the beautified record
+     */
+    private Document beautify(Document marcXmlDoc, ConfigOpacCatalogue catalogue, Namespace marcNamespace) {
+        List<ConfigOpacCatalogueBeautifier> beautifier = catalogue.getBeautifySetList();
+        if (marcXmlDoc != null && beautifier != null && !beautifier.isEmpty()) {
+            BeautifierRegistry.getBeautifier(catalogue, marcNamespace).execute(marcXmlDoc.getRootElement());
+        }
+        return marcXmlDoc;
+    }
+
+    /**
+     * Get the marc record for the given search from the record cache, the persistent record store or, if it is stored in neither, from the
+     * catalogue. The catalogue is first queried using the search field, and if that yields no result, with the search term alone
+     *
+     * @return the marc record
+     * @throws SRUException if the catalogue returned no record for either query
+     * @throws IOException if the catalogue could not be queried
+     */
+    private Document retrieveRecord(SRUClient client, ConfigOpacCatalogue catalogue, String searchField, String searchTerm, String recordSchema)
+            throws IOException, SRUException {
+        RecordCache cache = getRecordCache(catalogue);
+        Document record = cache.get(searchField, searchTerm);
+        if (record != null) {
+            myLogger.debug("Found record for " + searchField + "=" + searchTerm + " in cache");
+            return record;
+        }
+        PersistentRecordStore store = getRecordStore(catalogue);
+        if (store != null) {
+            StoredRecord stored = store.get(catalogue.getTitle(), searchField, searchTerm);
+            if (stored != null) {
+                if (stored.isFresh(getConfigLong("recordStore", catalogue.getTitle(), "maxAge", 86400))) {
+                    myLogger.debug("Found record for " + searchField + "=" + searchTerm + " in record store");
+                    cache.put(searchField, searchTerm, stored.getRecord());
+                    return stored.getRecord();
+                } else if (Boolean.parseBoolean(getConfigString("recordStore", catalogue.getTitle(), "revalidate", "false"))) {
+                    //use the stale record for now and replace it with the current version from the catalogue in the background
+                    myLogger.debug("Found stale record for " + searchField + "=" + searchTerm + " in record store. Revalidating");
+                    store.revalidate(catalogue.getTitle(), searchField, searchTerm,
+                            () -> queryRecord(client, catalogue, searchField, searchTerm, recordSchema),
+                            current -> cache.put(searchField, searchTerm, current));
+                    return stored.getRecord();
+                }
+            }
+        }
+        record = queryRecord(client, catalogue, searchField, searchTerm, recordSchema);
+        cache.put(searchField, searchTerm, record);
+        if (store != null) {
+            store.put(catalogue.getTitle(), searchField, searchTerm, record);
+        }
+        return record;
+    }
+
+    /**
+     * Query the catalogue for the record, first using the search field and if that yields no result, with the search term alone
+     */
+    private Document queryRecord(SRUClient client, ConfigOpacCatalogue catalogue, String searchField, String searchTerm, String recordSchema)
+            throws IOException, SRUException {
+        NegativeCache misses = getNegativeCache(catalogue);
+        try {
+            return queryCatalogue(client, catalogue, misses, searchField, searchTerm, recordSchema);
+        } catch (SRUException e) {
+            //If no record was found, search again using the search field
+            return queryCatalogue(client, catalogue, misses, null, searchTerm, recordSchema);
+        }
+    }
+
+    /**
+     * Query the catalogue for a single record, unless the same query is known to have yielded no record recently. Only answers with zero hits
+     * and no diagnostic are remembered as misses. Diagnostics like syntax errors or an unavailable system say nothing about the record
+     *
+     * @param searchField the search field to use. If null, only the search term is used as query
+     * @throws NoRecordsException if the catalogue reported zero hits, now or in a cached earlier request
+     * @throws SRUException if the catalogue returned no record for another reason
+     */
+    private Document queryCatalogue(SRUClient client, ConfigOpacCatalogue catalogue, NegativeCache misses, String searchField, String searchTerm,
+            String recordSchema) throws IOException, SRUException {
+        String knownMiss = misses.get(searchField, searchTerm);
+        if (knownMiss != null) {
+            throw new NoRecordsException(knownMiss);
+        }
+        String query = searchField == null ? searchTerm : searchField + "=" + searchTerm;
+        //the response is parsed while it is read, only the marcXml record is kept as document
+        try {
+            return client.searchRetrieve(catalogue, query, recordSchema).getFirstRecord();
+        } catch (NoRecordsException e) {
+            misses.put(searchField, searchTerm, e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Get the cache of raw marc records for the given catalogue. The cache limits are read from
+     * <code>cache[@catalogue]/records</code>
+     *
+     * @param catalogue the catalogue
+     * @return the record cache shared by all plugin instances
+     */
+    public RecordCache getRecordCache(ConfigOpacCatalogue catalogue) {
+        return RecordCache.getInstance(catalogue.getTitle(), () -> getCacheSettings(catalogue.getTitle(), "records", 1000, 600));
+    }
+
+    /**
+     * Get the cache of beautified anchor records for the given catalogue. The cache limits are read from
+     * <code>cache[@catalogue]/anchors</code>
+     *
+     * @param catalogue the catalogue
+     * @return the anchor cache shared by all plugin instances
+     */
+    public AnchorCache getAnchorCache(ConfigOpacCatalogue catalogue) {
+        return AnchorCache.getInstance(catalogue.getTitle(), () -> getCacheSettings(catalogue.getTitle(), "anchors", 500, 600));
+    }
+
+    /**
+     * Get the cache of queries which yielded no record for the given catalogue. The cache limits are read from
+     * <code>cache[@catalogue]/misses</code>
+     *
+     * @param catalogue the catalogue
+     * @return the negative result cache shared by all plugin instances
+     */
+    public NegativeCache getNegativeCache(ConfigOpacCatalogue catalogue) {
+        return NegativeCache.getInstance(catalogue.getTitle(), () -> getCacheSettings(catalogue.getTitle(), "misses", 1000, 60));
+    }
+
+    /**
+     * Get the persistent record store configured in <code>recordStore[@catalogue]/directory</code>
+     *
+     * @param catalogue the catalogue
+     * @return the record store, or null if no directory is configured or the store cannot be opened
+     */
+    public PersistentRecordStore getRecordStore(ConfigOpacCatalogue catalogue) {
+        String directory = getConfigString("recordStore", catalogue.getTitle(), "directory", "");
+        if (StringUtils.isBlank(directory)) {
+            return null;
+        }
+        return PersistentRecordStore.getInstance(Paths.get(directory), getConfigInt("recordStore", catalogue.getTitle(), "indexSize", 65536));
+    }
+
+    private CacheSettings getCacheSettings(String catalogue, String cacheName, int defaultMaxEntries, long defaultTimeToLive) {
+        return new CacheSettings(getConfigInt("cache", catalogue, cacheName + "/maxEntries", defaultMaxEntries),
+                getConfigLong("cache", catalogue, cacheName + "/timeToLive", defaultTimeToLive));
+    }
+
     /**
      * @return the catalog type found under the given query. Or null if the query yields no results
      */
     public String getCatalogType(Document doc, String query, Namespace namespace) {
         query = getStringQuery(query, namespace);
-        XPathExpression<String> xpath = createXPath(query, namespace);
-        String catalogType = xpath.evaluateFirst(marcXmlDoc);
-        return catalogType;
+        return XPathCache.evaluateFirst(query, Filters.fstring(), doc, namespace);
     }
 
     /**
      * @param query
      * @param namespace
-     * @return
+     * @return a copy of the cached compiled expression
      */
     public XPathExpression<String> createXPath(String query, Namespace namespace) {
-        XPathExpression<String> xpath;
-        if (namespace != null) {
-            xpath = XPathFactory.instance().compile(query, Filters.fstring(), null, namespace);
-        } else {
-            xpath = XPathFactory.instance().compile(query, Filters.fstring(), null);
-        }
-        return xpath;
+        return XPathCache.getExpression(query, Filters.fstring(), namespace).clone();
     }
 
     /**
@@ -493,7 +1154,7 @@ public class SruOpacImport implements IOpacPluginVersion2 {
      */
     public String getStringQuery(String query, Namespace namespace) {
         if (namespace != null && StringUtils.isNotBlank(namespace.getPrefix())) {
-            query = query.replaceAll("\\/(\\w)", "/" + namespace.getPrefix() + ":" + "$1");
+            query = PATH_STEP.replaceAll(query, "/" + namespace.getPrefix() + ":" + "$1");
         }
         if (query.endsWith("/")) {
             query = query.substring(0, query.length() - 1);
@@ -529,8 +1190,10 @@ public class SruOpacImport implements IOpacPluginVersion2 {
      * Create a shorthand string from title and author of the record to create an identifier string
      *
      * @param dd
+     * @param result the current search, which receives the shorthand string
      */
-    private void createAtstsl(DigitalDocument dd) {
+    private void createAtstsl(DigitalDocument dd, SearchResult result) {
+        Prefs prefs = result.getPrefs();
         DocStruct logStruct = dd.getLogicalDocStruct();
         if (logStruct.getType().isAnchor() && logStruct.getAllChildren() != null && !logStruct.getAllChildren().isEmpty()) {
             logStruct = logStruct.getAllChildren().get(0);
@@ -552,7 +1215,7 @@ public class SruOpacImport implements IOpacPluginVersion2 {
                 title = titleList.get(0).getValue();
             }
         }
-        this.atstsl = createAtstsl(title, author).toLowerCase();
+        result.setAtstsl(createAtstsl(title, author).toLowerCase());
     }
 
     /**
@@ -616,7 +1279,7 @@ public class SruOpacImport implements IOpacPluginVersion2 {
         }
         /* im ATS-TSL die Umlaute ersetzen */
 
-        myAtsTsl = myAtsTsl.replaceAll("[\\W]", "");
+        myAtsTsl = NON_WORD_CHARACTERS.replaceAll(myAtsTsl, "");
         return myAtsTsl;
     }
 
@@ -625,7 +1288,7 @@ public class SruOpacImport implements IOpacPluginVersion2 {
      */
     @Override
     public int getHitcount() {
-        return this.hitcount;
+        return lastResult.getHitcount();
     }
 
     /* (non-Javadoc)
@@ -633,7 +1296,7 @@ public class SruOpacImport implements IOpacPluginVersion2 {
      */
     @Override
     public String getAtstsl() {
-        return this.atstsl;
+        return lastResult.getAtstsl();
     }
 
     @Override
@@ -663,18 +1326,19 @@ public class SruOpacImport implements IOpacPluginVersion2 {
             myLogger.error(e.getMessage(), e);
             return null;
         }
+        SearchResult result = lastResult;
         ConfigOpacDoctype cod = null;
-        if (this.gattung != null) {
-            cod = co.getDoctypeByMapping(this.gattung.substring(0, 2), this.coc.getTitle());
+        if (result.getGattung() != null) {
+            cod = co.getDoctypeByMapping(result.getGattung().substring(0, 2), result.getCatalogue().getTitle());
         } else {
-            cod = co.getDoctypeByName(this.docType);
+            cod = co.getDoctypeByName(result.getDocType());
             if (cod == null) {
-                cod = co.getDoctypeByName(this.docType.toLowerCase());
+                cod = co.getDoctypeByName(result.getDocType().toLowerCase());
             }
         }
         if (cod == null) {
             cod = co.getAllDoctypes().get(0);
-            this.gattung = cod.getMappings().get(0);
+            result.setGattung(cod.getMappings().get(0));
 
         }
         return cod;
@@ -682,12 +1346,12 @@ public class SruOpacImport implements IOpacPluginVersion2 {
 
     @Override
     public void setAtstsl(String createAtstsl) {
-        atstsl = createAtstsl;
+        lastResult.setAtstsl(createAtstsl);
     }
 
     @Override
     public String getGattung() {
-        return gattung;
+        return lastResult.getGattung();
     }
 
     @Override
@@ -697,7 +1361,14 @@ public class SruOpacImport implements IOpacPluginVersion2 {
 
     @Override
     public List<Path> getRecordPathList() {
-        return pathToMarcRecord;
+        return lastResult.getRecordPaths();
+    }
+
+    /**
+     * @return the result of the last call to {@link #search(String, String, ConfigOpacCatalogue, Prefs)}
+     */
+    public SearchResult getLastResult() {
+        return lastResult;
     }
 
     public ConfigOpac getConfigOpac() {
@@ -719,21 +1390,16 @@ public class SruOpacImport implements IOpacPluginVersion2 {
     }
 
     protected String getMappedDocStructType(Map<String, String> mappings, Document document, Namespace ns) {
+        Namespace xpathNamespace = ns;
+        if (ns != null && StringUtils.isBlank(ns.getPrefix())) {
+            //always provide a namespace with prefix. A namespace with no prefix is not allowed by jdom2 xpath
+            //and no namespace declaration does not match any nodes which have a namespace, even in that namespace does not have a prefix
+            xpathNamespace = Namespace.getNamespace("marc", ns.getURI());
+        }
         for (String xpath : mappings.keySet()) {
-            
-            XPathExpression<Element> expr;
-            if(ns != null && StringUtils.isBlank(ns.getPrefix())) {        
-                //always provide a namespace with prefix. A namespace with no prefix is not allowed by jdom2 xpath
-                //and no namespace declaration does not match any nodes which have a namespace, even in that namespace does not have a prefix
-                Namespace ns2 = Namespace.getNamespace("marc", ns.getURI());
-                expr = XPathFactory.instance().compile(xpath, Filters.element(), null, ns2);
-            } else {
-                expr = XPathFactory.instance().compile(xpath, Filters.element(), null, ns);
-            }
-            
-            expr.evaluateFirst(document);
-            
-            String found = Optional.ofNullable(expr.evaluateFirst(document)).map(e -> e.getText()).orElse(null);
+            String found = Optional.ofNullable(XPathCache.evaluateFirst(xpath, Filters.element(), document, xpathNamespace))
+                    .map(e -> e.getText())
+                    .orElse(null);
             if (StringUtils.isNotBlank(found)) {
                 return mappings.get(xpath);
             }
@@ -741,7 +1407,7 @@ public class SruOpacImport implements IOpacPluginVersion2 {
         return null;
     }
 
-    private DocStruct createDocStruct(String docTypeName) throws PreferencesException, TypeNotAllowedForParentException {
+    private DocStruct createDocStruct(String docTypeName, Prefs prefs) throws PreferencesException, TypeNotAllowedForParentException {
         DocStructType dsType = prefs.getDocStrctTypeByName(docTypeName);
         if(dsType != null) {            
             MetsMods mm = new MetsMods(prefs);
@@ -0,0 +1,92 @@
+package de.intranda.goobi.plugins.beautify;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+import org.jdom2.Namespace;
+
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogueBeautifier;
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogueBeautifierElement;
+
+/**
+ * Process-wide registry of compiled beautifier rules. The rules of each catalogue are compiled once and shared between all searches until they
+ * change. Goobi creates new rule objects when it reloads the opac configuration, so the rules are considered changed if they are not the same
+ * list as the compiled version and differ from it in any tag, subtag or value
+ */
+public class BeautifierRegistry {
+
+    private static final Logger logger = Logger.getLogger(BeautifierRegistry.class);
+
+    private static final Map<String, Entry> beautifiers = new ConcurrentHashMap<>();
+
+    private BeautifierRegistry() {
+    }
+
+    /**
+     * Get the compiled beautifier rules of the given catalogue, compiling them if they are not yet registered or have changed since they were
+     * compiled
+     *
+     * @param catalogue the catalogue
+     * @param marcNamespace the namespace of newly created fields
+     * @return the shared compiled beautifier
+     */
+    public static CompiledBeautifier getBeautifier(ConfigOpacCatalogue catalogue, Namespace marcNamespace) {
+        String key = catalogue.getTitle() + "|" + marcNamespace.getURI();
+        List<ConfigOpacCatalogueBeautifier> rules = catalogue.getBeautifySetList();
+        Entry entry = beautifiers.get(key);
+        if (entry != null && entry.rules == rules) {
+            return entry.beautifier;
+        }
+        String signature = getSignature(rules);
+        if (entry == null || !entry.signature.equals(signature)) {
+            logger.debug("Compiling beautifier rules of " + catalogue.getTitle());
+            entry = new Entry(rules, signature, CompiledBeautifier.compile(rules, marcNamespace));
+        } else {
+            //same rules in a reloaded configuration, remember the new list to skip the comparison next time
+            entry = new Entry(rules, signature, entry.beautifier);
+        }
+        beautifiers.put(key, entry);
+        return entry.beautifier;
+    }
+
+    /**
+     * Remove all registered beautifiers. They are compiled again on the next request
+     */
+    public static void clear() {
+        beautifiers.clear();
+    }
+
+    private static String getSignature(List<ConfigOpacCatalogueBeautifier> rules) {
+        StringBuilder signature = new StringBuilder();
+        if (rules != null) {
+            for (ConfigOpacCatalogueBeautifier rule : rules) {
+                appendElement(signature, rule.getTagElementToChange());
+                for (ConfigOpacCatalogueBeautifierElement condition : rule.getTagElementsToProof()) {
+                    signature.append('?');
+                    appendElement(signature, condition);
+                }
+                signature.append('\n');
+            }
+        }
+        return signature.toString();
+    }
+
+    private static void appendElement(StringBuilder signature, ConfigOpacCatalogueBeautifierElement element) {
+        signature.append(element.getTag()).append('\u0000').append(element.getSubtag()).append('\u0000').append(element.getValue()).append('\u0000');
+    }
+
+    private static class Entry {
+        private final List<ConfigOpacCatalogueBeautifier> rules;
+        private final String signature;
+        private final CompiledBeautifier beautifier;
+
+        private Entry(List<ConfigOpacCatalogueBeautifier> rules, String signature, CompiledBeautifier beautifier) {
+            this.rules = rules;
+            this.signature = signature;
+            this.beautifier = beautifier;
+        }
+    }
+}
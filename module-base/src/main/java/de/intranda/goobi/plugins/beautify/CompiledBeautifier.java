@@ -0,0 +1,320 @@
+package de.intranda.goobi.plugins.beautify;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.commons.lang.StringUtils;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogueBeautifier;
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogueBeautifierElement;
+
+/**
+ * Applies beautifier rules like {@link BeautifyerExecutor}, but parses the rules only once: leader positions are parsed and the regular
+ * expressions compiled when the beautifier is created. The fields of a record are indexed by tag once, so each condition only looks at the
+ * fields with its tag instead of all fields of the record.
+ *
+ * The results are the same as those of {@link BeautifyerExecutor}, including the order in which rules are applied and which value is used if
+ * several fields match. A compiled beautifier is immutable and may be used by several threads at the same time
+ */
+public class CompiledBeautifier {
+
+    private static final String LEADER = "leader";
+
+    private final List<Rule> rules;
+    private final Namespace marcNamespace;
+
+    private CompiledBeautifier(List<Rule> rules, Namespace marcNamespace) {
+        this.rules = rules;
+        this.marcNamespace = marcNamespace;
+    }
+
+    /**
+     * Parse the given beautifier rules
+     *
+     * @param beautifySetList the rules of the catalogue. May be null or empty
+     * @param marcNamespace the namespace of newly created fields
+     * @return the compiled beautifier
+     */
+    public static CompiledBeautifier compile(List<ConfigOpacCatalogueBeautifier> beautifySetList, Namespace marcNamespace) {
+        List<Rule> rules = new ArrayList<>();
+        if (beautifySetList != null) {
+            for (ConfigOpacCatalogueBeautifier beautifier : beautifySetList) {
+                rules.add(new Rule(beautifier));
+            }
+        }
+        return new CompiledBeautifier(Collections.unmodifiableList(rules), marcNamespace);
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * Apply all rules to the record, in the configured order
+     *
+     * @param record the marc record element
+     */
+    public void execute(Element record) {
+        if (rules.isEmpty()) {
+            return;
+        }
+        FieldIndex index = new FieldIndex(record);
+        for (Rule rule : rules) {
+            rule.apply(record, index, marcNamespace);
+        }
+    }
+
+    /**
+     * The leader, control and data fields of a record. Fields created by a rule are added, so later rules see them
+     */
+    private static class FieldIndex {
+
+        private final List<IndexedField> leaders = new ArrayList<>();
+        private final Map<String, List<IndexedField>> fieldsByTag = new HashMap<>();
+        private int count = 0;
+
+        private FieldIndex(Element record) {
+            for (Element field : record.getChildren()) {
+                add(field);
+            }
+        }
+
+        private void add(Element field) {
+            String name = field.getName();
+            if (name.equalsIgnoreCase(LEADER)) {
+                leaders.add(new IndexedField(field, count++, false));
+            } else if (name.equalsIgnoreCase("controlfield") || name.equalsIgnoreCase("datafield")) {
+                String tag = field.getAttributeValue("tag");
+                if (tag != null) {
+                    boolean datafield = name.equalsIgnoreCase("datafield");
+                    fieldsByTag.computeIfAbsent(tag, t -> new ArrayList<>()).add(new IndexedField(field, count++, datafield));
+                } else {
+                    count++;
+                }
+            }
+        }
+
+        private List<IndexedField> getFields(String tag) {
+            List<IndexedField> fields = tag == null ? null : fieldsByTag.get(tag);
+            return fields == null ? Collections.emptyList() : fields;
+        }
+    }
+
+    private static class IndexedField {
+        private final Element element;
+        /** the position of the field in the record, to restore the document order of leaders and tagged fields */
+        private final int position;
+        private final boolean datafield;
+
+        private IndexedField(Element element, int position, boolean datafield) {
+            this.element = element;
+            this.position = position;
+            this.datafield = datafield;
+        }
+    }
+
+    /**
+     * A condition or the field to change of a rule
+     */
+    private static class FieldSpec {
+
+        private final String tag;
+        private final String subtag;
+        private final String value;
+        private final boolean leader;
+        /** the leader position, or -1 if the tag does not end with a valid number */
+        private final int leaderPosition;
+        private final boolean matchesAll;
+        private final Pattern pattern;
+        private final PatternSyntaxException patternError;
+
+        private FieldSpec(ConfigOpacCatalogueBeautifierElement element) {
+            this.tag = element.getTag();
+            this.subtag = element.getSubtag();
+            this.value = element.getValue();
+            this.leader = tag != null && tag.startsWith(LEADER);
+            this.leaderPosition = leader ? parsePosition(tag.replace(LEADER, "")) : -1;
+            this.matchesAll = "*".equals(value);
+            Pattern compiled = null;
+            PatternSyntaxException error = null;
+            if (value != null && !matchesAll) {
+                try {
+                    compiled = Pattern.compile(value);
+                } catch (PatternSyntaxException e) {
+                    //String.matches would fail only when a field is compared, so fail at the same time
+                    error = e;
+                }
+            }
+            this.pattern = compiled;
+            this.patternError = error;
+        }
+
+        private static int parsePosition(String position) {
+            try {
+                return Integer.parseInt(position);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        private int getLeaderPosition() {
+            if (leaderPosition < 0) {
+                //fail like the uncompiled beautifier
+                return Integer.parseInt(tag.replace(LEADER, ""));
+            }
+            return leaderPosition;
+        }
+
+        private boolean matches(String fieldValue) {
+            if (matchesAll) {
+                return true;
+            }
+            if (patternError != null) {
+                throw patternError;
+            }
+            return pattern.matcher(fieldValue).matches();
+        }
+
+        private boolean matchesLeader(String leaderValue) {
+            if (leaderValue.length() < 24) {
+                leaderValue = "00000" + leaderValue;
+            }
+            char c = leaderValue.charAt(getLeaderPosition());
+            return matchesAll || value.equals(Character.toString(c));
+        }
+    }
+
+    private static class Rule {
+
+        private final List<FieldSpec> conditions = new ArrayList<>();
+        private final FieldSpec change;
+        /** the configured value with escaped blanks replaced */
+        private final String changeValue;
+
+        private Rule(ConfigOpacCatalogueBeautifier beautifier) {
+            for (ConfigOpacCatalogueBeautifierElement condition : beautifier.getTagElementsToProof()) {
+                conditions.add(new FieldSpec(condition));
+            }
+            this.change = new FieldSpec(beautifier.getTagElementToChange());
+            this.changeValue = change.value == null ? null : change.value.replace("\\u0020", " ");
+        }
+
+        private void apply(Element record, FieldIndex index, Namespace marcNamespace) {
+            String newValue = null;
+            boolean fulfilled = true;
+            // check all conditions. The value of the last matching field is used as new value
+            for (FieldSpec condition : conditions) {
+                boolean found = false;
+                if (condition.leader) {
+                    for (IndexedField leader : index.leaders) {
+                        if (condition.matchesLeader(leader.element.getValue())) {
+                            found = true;
+                        }
+                    }
+                }
+                for (IndexedField field : index.getFields(condition.tag)) {
+                    if (!field.datafield) {
+                        String value = field.element.getValue();
+                        if (condition.matches(value)) {
+                            found = true;
+                            newValue = value;
+                        }
+                    } else {
+                        for (Element subfield : field.element.getChildren()) {
+                            if (condition.subtag.equals(subfield.getAttributeValue("code")) && condition.matches(subfield.getText())) {
+                                found = true;
+                                newValue = subfield.getText();
+                            }
+                        }
+                    }
+                }
+                fulfilled &= found;
+            }
+
+            Element mainField = null;
+            Element subField = null;
+            // if conditions are fulfilled, search for field to change
+            if (fulfilled) {
+                for (IndexedField field : getFieldsToChange(index)) {
+                    if (field.position < 0) {
+                        // leader, replace position with configured value
+                        int pos = change.getLeaderPosition();
+                        String value = field.element.getText();
+                        newValue = value.substring(0, pos) + changeValue + value.substring(pos + 1);
+                        mainField = field.element;
+                    } else if (!field.datafield) {
+                        mainField = field.element;
+                    } else {
+                        mainField = field.element;
+                        for (Element subfield : field.element.getChildren()) {
+                            if (change.subtag.equals(subfield.getAttributeValue("code"))) {
+                                subField = subfield;
+                            }
+                        }
+                    }
+                }
+            }
+
+            // replace existing field or create a new field
+            if (change.leader && mainField != null) {
+                mainField.setText(newValue);
+            } else if (newValue != null) {
+                // if '*' was used, replace current value with value from condition, otherwise use value from configuration
+                if (!change.matchesAll) {
+                    newValue = changeValue;
+                }
+                if (StringUtils.isNotBlank(change.tag) && StringUtils.isBlank(change.subtag)) {
+                    if (mainField == null) {
+                        mainField = new Element("controlfield", marcNamespace);
+                        mainField.setAttribute("tag", change.tag);
+                        record.addContent(mainField);
+                        index.add(mainField);
+                    }
+                    mainField.setText(newValue);
+                } else {
+                    if (mainField == null) {
+                        mainField = new Element("datafield", marcNamespace);
+                        mainField.setAttribute("tag", change.tag);
+                        mainField.setAttribute("ind1", " ");
+                        mainField.setAttribute("ind2", " ");
+                        record.addContent(mainField);
+                        index.add(mainField);
+                    }
+                    if (subField == null) {
+                        subField = new Element("subfield", marcNamespace);
+                        subField.setAttribute("code", change.subtag);
+                        mainField.addContent(subField);
+                    }
+                    subField.setText(newValue);
+                }
+            }
+        }
+
+        /**
+         * @return the fields which may be changed by the rule in document order. Leaders are marked by a negative position
+         */
+        private List<IndexedField> getFieldsToChange(FieldIndex index) {
+            List<IndexedField> tagged = index.getFields(change.tag);
+            if (!change.leader || index.leaders.isEmpty()) {
+                return tagged;
+            }
+            List<IndexedField> fields = new ArrayList<>(tagged.size() + index.leaders.size());
+            int t = 0;
+            for (IndexedField leader : index.leaders) {
+                while (t < tagged.size() && tagged.get(t).position < leader.position) {
+                    fields.add(tagged.get(t++));
+                }
+                fields.add(new IndexedField(leader.element, -1, false));
+            }
+            fields.addAll(tagged.subList(t, tagged.size()));
+            return fields;
+        }
+    }
+}
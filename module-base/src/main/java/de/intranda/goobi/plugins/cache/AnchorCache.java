@@ -0,0 +1,124 @@
+package de.intranda.goobi.plugins.cache;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+import org.jdom2.Document;
+
+/**
+ * Caches beautified anchor records (multi-volume works, periodicals) per catalogue, keyed by the anchor identifier found in the volume
+ * records. When many volumes of the same anchor are imported, the anchor record is only requested and beautified once. Volumes imported at the
+ * same time wait for the anchor record which is already being loaded instead of loading it again.
+ *
+ * Records are copied when they are stored and when they are returned
+ */
+public class AnchorCache {
+
+    private static final Logger logger = Logger.getLogger(AnchorCache.class);
+
+    private static final Map<String, AnchorCache> caches = new ConcurrentHashMap<>();
+
+    private final String catalogue;
+    private final ExpiringCache<String, Document> cache;
+    /** anchor records currently being loaded, by normalized anchor identifier */
+    private final Map<String, CompletableFuture<Document>> loading = new ConcurrentHashMap<>();
+
+    private AnchorCache(String catalogue, CacheSettings settings) {
+        this.catalogue = catalogue;
+        this.cache = settings.createCache();
+    }
+
+    /**
+     * Get the anchor cache of the given catalogue, creating it if necessary
+     *
+     * @param catalogue the catalogue title
+     * @param settings provides the cache limits. Only called if no cache exists yet for the catalogue
+     * @return the cache
+     */
+    public static AnchorCache getInstance(String catalogue, Supplier<CacheSettings> settings) {
+        return caches.computeIfAbsent(catalogue, c -> {
+            CacheSettings cacheSettings = settings.get();
+            logger.debug("Creating anchor cache for " + c + ": " + cacheSettings);
+            return new AnchorCache(c, cacheSettings);
+        });
+    }
+
+    /**
+     * Removes the caches of all catalogues
+     */
+    public static void reset() {
+        caches.clear();
+    }
+
+    /**
+     * @return a copy of the beautified anchor record or null if the anchor is not cached
+     */
+    public Document get(String anchorId) {
+        Document record = cache.get(RecordCache.normalize(anchorId));
+        return record == null ? null : record.clone();
+    }
+
+    /**
+     * Get the anchor record from the cache or load it. If the record is already being loaded by another thread, wait for that thread instead
+     *
+     * @param anchorId the anchor identifier
+     * @param loader loads and beautifies the anchor record
+     * @return the beautified anchor record. The caller may modify it
+     * @throws Exception the exception thrown by the loader, also if the record was loaded by another thread
+     */
+    public Document get(String anchorId, Callable<Document> loader) throws Exception {
+        Document record = get(anchorId);
+        if (record != null) {
+            logger.debug("Using cached anchor record " + anchorId);
+            return record;
+        }
+        String key = RecordCache.normalize(anchorId);
+        CompletableFuture<Document> own = new CompletableFuture<>();
+        CompletableFuture<Document> pending = loading.putIfAbsent(key, own);
+        if (pending != null) {
+            logger.debug("Waiting for anchor record " + anchorId);
+            try {
+                record = pending.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+            return record == null ? null : record.clone();
+        }
+        try {
+            record = loader.call();
+            put(anchorId, record);
+            own.complete(record == null ? null : record.clone());
+            return record;
+        } catch (Exception | Error e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, own);
+        }
+    }
+
+    /**
+     * Store a beautified anchor record
+     */
+    public void put(String anchorId, Document record) {
+        if (cache.isEnabled() && record != null) {
+            cache.put(RecordCache.normalize(anchorId), record.clone());
+        }
+    }
+
+    public CacheStatistics getStatistics() {
+        return cache.getStatistics();
+    }
+
+    public String getCatalogue() {
+        return catalogue;
+    }
+}
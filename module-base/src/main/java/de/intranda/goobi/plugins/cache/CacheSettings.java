@@ -0,0 +1,42 @@
+package de.intranda.goobi.plugins.cache;
+
+/**
+ * Size and age limits of a cache, as configured in the &lt;cache&gt; section of the plugin configuration
+ */
+public class CacheSettings {
+
+    private final int maxEntries;
+    private final long timeToLive;
+
+    /**
+     * @param maxEntries the maximum number of cached entries. 0 disables the cache
+     * @param timeToLive the maximum age of an entry in seconds. 0 lets entries live until they are evicted
+     */
+    public CacheSettings(int maxEntries, long timeToLive) {
+        this.maxEntries = maxEntries;
+        this.timeToLive = timeToLive;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return the maximum age of an entry in seconds
+     */
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * @return a new empty cache with these limits
+     */
+    public <K, V> ExpiringCache<K, V> createCache() {
+        return new ExpiringCache<>(maxEntries, timeToLive * 1000);
+    }
+
+    @Override
+    public String toString() {
+        return "maxEntries=" + maxEntries + ", timeToLive=" + timeToLive + "s";
+    }
+}
@@ -0,0 +1,117 @@
+package de.intranda.goobi.plugins.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread safe in-memory cache with a maximum number of entries and a maximum age per entry. If the cache is full, the least recently used
+ * entry is evicted. Expired entries are removed when they are requested.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class ExpiringCache<K, V> {
+
+    private final int maxEntries;
+    private final long timeToLive;
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * @param maxEntries the maximum number of entries. If 0 or less, the cache stores nothing
+     * @param timeToLive the maximum age of an entry in milliseconds. If 0 or less, entries never expire
+     */
+    public ExpiringCache(int maxEntries, long timeToLive) {
+        this.maxEntries = maxEntries;
+        this.timeToLive = timeToLive;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * @return the value for the given key or null if the cache contains no value or the value has expired
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && isExpired(entry, System.currentTimeMillis())) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Store a value. If the cache is full afterwards, the least recently used entry is removed
+     */
+    public synchronized void put(K key, V value) {
+        if (maxEntries <= 0 || value == null) {
+            return;
+        }
+        entries.put(key, new Entry<>(value, System.currentTimeMillis()));
+        if (entries.size() > maxEntries) {
+            removeExpired();
+        }
+        Iterator<K> keys = entries.keySet().iterator();
+        while (entries.size() > maxEntries && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    private void removeExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (isExpired(iterator.next().getValue(), now)) {
+                iterator.remove();
+                evictions++;
+            }
+        }
+    }
+
+    private boolean isExpired(Entry<V> entry, long now) {
+        return timeToLive > 0 && now - entry.created > timeToLive;
+    }
+
+    /**
+     * @return a snapshot of the hit, miss and eviction counters of this cache
+     */
+    public synchronized CacheStatistics getStatistics() {
+        return new CacheStatistics(hits, misses, evictions, entries.size(), maxEntries);
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long created;
+
+        private Entry(V value, long created) {
+            this.value = value;
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package de.intranda.goobi.plugins.cache;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+
+/**
+ * A parsed mapping file as registered in the {@link MappingRegistry}. Instances are shared between all parsers using the same mapping file, so
+ * neither the definition nor the elements it contains may be modified
+ */
+public class MappingDefinition {
+
+    private final String path;
+    private final Document document;
+    private final long lastModified;
+    private final long length;
+    private final List<Element> metadataElements;
+    private final List<Element> personElements;
+    private final List<Element> corporateElements;
+
+    MappingDefinition(String path, Document document, long lastModified, long length) {
+        this.path = path;
+        this.document = document;
+        this.lastModified = lastModified;
+        this.length = length;
+        this.metadataElements = getChildren(document, "metadata");
+        this.personElements = getChildren(document, "person");
+        this.corporateElements = getChildren(document, "corporate");
+    }
+
+    private static List<Element> getChildren(Document document, String name) {
+        if (document == null || !document.hasRootElement()) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(document.getRootElement().getChildren(name));
+    }
+
+    boolean isCurrent(long lastModified, long length) {
+        return this.lastModified == lastModified && this.length == length;
+    }
+
+    /**
+     * @return the canonical path of the mapping file
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the parsed mapping document. It is shared and must not be modified
+     */
+    public Document getDocument() {
+        return document;
+    }
+
+    /**
+     * @return true if the mapping document has a root element &lt;map&gt; with at least one &lt;metadata&gt; mapping
+     */
+    public boolean isValid() {
+        return document != null && document.hasRootElement() && "map".equals(document.getRootElement().getName()) && !metadataElements.isEmpty();
+    }
+
+    public List<Element> getMetadataElements() {
+        return metadataElements;
+    }
+
+    public List<Element> getPersonElements() {
+        return personElements;
+    }
+
+    public List<Element> getCorporateElements() {
+        return corporateElements;
+    }
+}
@@ -0,0 +1,60 @@
+package de.intranda.goobi.plugins.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+import org.jdom2.JDOMException;
+
+import de.intranda.utils.DocumentUtils;
+
+/**
+ * Process-wide registry of parsed mapping files. Each file is parsed once and shared between all parser instances until it changes on disk.
+ * Files are identified by their canonical path, and a file is considered changed if its modification time or size differ from the parsed
+ * version
+ */
+public class MappingRegistry {
+
+    private static final Logger logger = Logger.getLogger(MappingRegistry.class);
+
+    private static final Map<String, MappingDefinition> mappings = new ConcurrentHashMap<>();
+
+    private MappingRegistry() {
+    }
+
+    /**
+     * Get the parsed mapping of the given file, parsing it if it is not yet registered or has changed since it was parsed
+     *
+     * @param mapFile the mapping file
+     * @return the shared mapping definition. It must not be modified
+     * @throws IOException if the file cannot be read
+     * @throws JDOMException if the file is no well-formed xml
+     */
+    public static MappingDefinition getMapping(File mapFile) throws IOException, JDOMException {
+        String path = mapFile.getCanonicalPath();
+        long lastModified = mapFile.lastModified();
+        long length = mapFile.length();
+        MappingDefinition mapping = mappings.get(path);
+        if (mapping != null && mapping.isCurrent(lastModified, length)) {
+            return mapping;
+        }
+        synchronized (mappings) {
+            mapping = mappings.get(path);
+            if (mapping == null || !mapping.isCurrent(lastModified, length)) {
+                logger.debug("Reading mapping file " + path);
+                mapping = new MappingDefinition(path, DocumentUtils.getDocumentFromFile(mapFile), lastModified, length);
+                mappings.put(path, mapping);
+            }
+        }
+        return mapping;
+    }
+
+    /**
+     * Remove all registered mappings. They are parsed again on the next request
+     */
+    public static void clear() {
+        mappings.clear();
+    }
+}
@@ -0,0 +1,83 @@
+package de.intranda.goobi.plugins.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Remembers queries for which a catalogue returned no record, together with the message returned by the catalogue. Repeated searches for
+ * unknown or mistyped identifiers can then be answered without querying the catalogue again. There is one cache per catalogue, shared by all
+ * plugin instances.
+ *
+ * Entries should only live for a short time, since a record may be added to the catalogue at any time
+ */
+public class NegativeCache {
+
+    private static final Logger logger = Logger.getLogger(NegativeCache.class);
+
+    private static final Map<String, NegativeCache> caches = new ConcurrentHashMap<>();
+
+    private final String catalogue;
+    private final ExpiringCache<String, String> cache;
+
+    private NegativeCache(String catalogue, CacheSettings settings) {
+        this.catalogue = catalogue;
+        this.cache = settings.createCache();
+    }
+
+    /**
+     * Get the negative cache of the given catalogue, creating it if necessary
+     *
+     * @param catalogue the catalogue title
+     * @param settings provides the cache limits. Only called if no cache exists yet for the catalogue
+     * @return the cache
+     */
+    public static NegativeCache getInstance(String catalogue, Supplier<CacheSettings> settings) {
+        return caches.computeIfAbsent(catalogue, c -> {
+            CacheSettings cacheSettings = settings.get();
+            logger.debug("Creating negative result cache for " + c + ": " + cacheSettings);
+            return new NegativeCache(c, cacheSettings);
+        });
+    }
+
+    /**
+     * Removes the caches of all catalogues
+     */
+    public static void reset() {
+        caches.clear();
+    }
+
+    /**
+     * @param searchField the search field of the query, or null for a query without search field
+     * @param term the search term
+     * @return the message of the cached miss, or null if the query is not known to yield no result
+     */
+    public String get(String searchField, String term) {
+        return cache.get(RecordCache.createKey(searchField, term));
+    }
+
+    /**
+     * Record that the query yielded no result
+     *
+     * @param searchField the search field of the query, or null for a query without search field
+     * @param term the search term
+     * @param message the message returned by the catalogue
+     */
+    public void put(String searchField, String term, String message) {
+        cache.put(RecordCache.createKey(searchField, term), message == null ? "" : message);
+    }
+
+    public void invalidate(String searchField, String term) {
+        cache.invalidate(RecordCache.createKey(searchField, term));
+    }
+
+    public CacheStatistics getStatistics() {
+        return cache.getStatistics();
+    }
+
+    public String getCatalogue() {
+        return catalogue;
+    }
+}
@@ -0,0 +1,598 @@
+package de.intranda.goobi.plugins.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.log4j.Logger;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+
+/**
+ * Stores raw marc records on disk so they survive a restart of the application. There is one store per directory, shared by all catalogues and
+ * plugin instances.
+ *
+ * The store consists of two files:
+ * <ul>
+ * <li><code>records.dat</code>, an append-only segment file. Each entry contains the key, the time it was stored, the date of the record from
+ * controlfield 005 and the deflated record. Entries are never overwritten, a new version of a record is appended</li>
+ * <li><code>records.idx</code>, a memory-mapped hash index with open addressing which maps the hash of each key to the position of its latest
+ * entry in the segment file, together with the record date and a hash of the deflated record of that entry</li>
+ * </ul>
+ * The segment file is the authoritative copy. If the index is missing, damaged or behind the segment file after a crash, it is rebuilt from the
+ * segment file when the store is opened. Superseded entries are not reclaimed; the segment file may be deleted together with the index at any
+ * time while the application is stopped to start with an empty store
+ */
+public class PersistentRecordStore {
+
+    private static final Logger logger = Logger.getLogger(PersistentRecordStore.class);
+
+    private static final Map<Path, PersistentRecordStore> stores = new ConcurrentHashMap<>();
+    /** the time until which no new attempt is made to open a store, per directory which could not be opened */
+    private static final Map<Path, Long> failedUntil = new ConcurrentHashMap<>();
+    private static final long RETRY_INTERVAL = 60000;
+
+    private static final int INDEX_MAGIC = 0x53525549;
+    private static final int ENTRY_MAGIC = 0x53525545;
+    private static final int INDEX_VERSION = 2;
+    /** magic, version, capacity, size, committed segment length */
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8;
+    /** key hash, entry position, stored at, record date, content hash */
+    private static final int SLOT_SIZE = 8 + 8 + 8 + 8 + 8;
+    /** magic, stored at, record date, key length, data length */
+    private static final int ENTRY_HEADER_SIZE = 4 + 8 + 8 + 4 + 4;
+    private static final double MAX_LOAD = 0.7;
+    private static final DateTimeFormatter RECORD_DATE_FORMAT = DateTimeFormatter.ofPattern("uuuuMMddHHmmss").withResolverStyle(ResolverStyle.STRICT);
+
+    private final Path segmentFile;
+    private final Path indexFile;
+    private final FileChannel segment;
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int capacity;
+    private int size;
+    private long segmentLength;
+
+    private final ExecutorService revalidator;
+    private final Set<String> revalidating = Collections.synchronizedSet(new HashSet<>());
+
+    private PersistentRecordStore(Path directory, int initialCapacity) throws IOException {
+        Files.createDirectories(directory);
+        this.segmentFile = directory.resolve("records.dat");
+        this.indexFile = directory.resolve("records.idx");
+        this.segment = FileChannel.open(segmentFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.revalidator = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "sru-record-store-revalidation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        openIndex(Integer.highestOneBit(Math.max(16, initialCapacity - 1)) << 1);
+    }
+
+    /**
+     * Get the store in the given directory, opening it if necessary
+     *
+     * @param directory the directory containing the store files. It is created if it does not exist
+     * @param initialCapacity the number of index slots to create if there is no index yet. The index grows automatically
+     * @return the store, or null if it could not be opened. After a failure, no new attempt to open the store is made for a minute
+     */
+    public static PersistentRecordStore getInstance(Path directory, int initialCapacity) {
+        Path key = directory.toAbsolutePath().normalize();
+        PersistentRecordStore store = stores.get(key);
+        if (store == null && !isFailed(key)) {
+            synchronized (stores) {
+                store = stores.get(key);
+                if (store == null && !isFailed(key)) {
+                    try {
+                        store = new PersistentRecordStore(key, initialCapacity);
+                        stores.put(key, store);
+                        failedUntil.remove(key);
+                        logger.info("Opened record store in " + key + " with " + store.size + " records");
+                    } catch (IOException e) {
+                        failedUntil.put(key, System.currentTimeMillis() + RETRY_INTERVAL);
+                        logger.error("Unable to open record store in " + key + ". Retrying in " + RETRY_INTERVAL / 1000 + " seconds: "
+                                + e.getMessage(), e);
+                    }
+                }
+            }
+        }
+        return store;
+    }
+
+    private static boolean isFailed(Path directory) {
+        Long until = failedUntil.get(directory);
+        return until != null && System.currentTimeMillis() < until;
+    }
+
+    /**
+     * Closes all open stores and forgets all directories which could not be opened
+     */
+    public static void shutdown() {
+        synchronized (stores) {
+            for (PersistentRecordStore store : stores.values()) {
+                store.close();
+            }
+            stores.clear();
+            failedUntil.clear();
+        }
+    }
+
+    /**
+     * Get a record from the store
+     *
+     * @param catalogue the catalogue title
+     * @param searchField the search field used to retrieve the record
+     * @param term the search term used to retrieve the record
+     * @return the stored record, or null if the store contains no record for the key
+     */
+    public synchronized StoredRecord get(String catalogue, String searchField, String term) {
+        String key = createKey(catalogue, searchField, term);
+        try {
+            int slot = findSlot(key, hash(key.getBytes(StandardCharsets.UTF_8)));
+            if (slot < 0 || isEmpty(slot)) {
+                return null;
+            }
+            Entry entry = readEntry(index.getLong(slotOffset(slot) + 8));
+            return new StoredRecord(inflate(entry.data), index.getLong(slotOffset(slot) + 16), entry.recordDate);
+        } catch (IOException | JDOMException e) {
+            logger.error("Unable to read record " + key + " from record store: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Add a record to the store. If the store already contains the same version of the record, only the time it was stored is updated. Versions
+     * are compared by controlfield 005, or by the content of the record if it has no valid 005
+     *
+     * @param catalogue the catalogue title
+     * @param searchField the search field used to retrieve the record
+     * @param term the search term used to retrieve the record
+     * @param record the marc record
+     */
+    public synchronized void put(String catalogue, String searchField, String term, Document record) {
+        if (record == null || !record.hasRootElement()) {
+            return;
+        }
+        String key = createKey(catalogue, searchField, term);
+        long hash = hash(key.getBytes(StandardCharsets.UTF_8));
+        long now = System.currentTimeMillis();
+        long recordDate = getRecordDate(record);
+        try {
+            int slot = findSlot(key, hash);
+            boolean stored = slot >= 0 && !isEmpty(slot);
+            if (stored && recordDate > 0 && index.getLong(slotOffset(slot) + 24) == recordDate) {
+                index.putLong(slotOffset(slot) + 16, now);
+                return;
+            }
+            byte[] data = deflate(record);
+            long contentHash = hash(data);
+            if (stored && index.getLong(slotOffset(slot) + 32) == contentHash) {
+                index.putLong(slotOffset(slot) + 16, now);
+                return;
+            }
+            long position = appendEntry(key, now, recordDate, data);
+            if (slot < 0 || isEmpty(slot)) {
+                if (size + 1 > capacity * MAX_LOAD) {
+                    resizeIndex(capacity * 2);
+                }
+                slot = findSlot(key, hash);
+                size++;
+                index.putInt(12, size);
+            }
+            writeSlot(slot, hash, position, now, recordDate, contentHash);
+            index.putLong(16, segmentLength);
+        } catch (IOException e) {
+            logger.error("Unable to write record " + key + " to record store: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Retrieve a record again in the background and store the result. Only one revalidation per key is performed at a time
+     *
+     * @param catalogue the catalogue title
+     * @param searchField the search field used to retrieve the record
+     * @param term the search term used to retrieve the record
+     * @param loader retrieves the current version of the record from the catalogue
+     * @param onSuccess called with the retrieved record after it has been stored. May be null
+     */
+    public void revalidate(String catalogue, String searchField, String term, Callable<Document> loader, Consumer<Document> onSuccess) {
+        String key = createKey(catalogue, searchField, term);
+        if (!revalidating.add(key)) {
+            return;
+        }
+        try {
+            revalidator.execute(() -> {
+                try {
+                    Document record = loader.call();
+                    put(catalogue, searchField, term, record);
+                    if (onSuccess != null && record != null) {
+                        onSuccess.accept(record);
+                    }
+                } catch (Exception e) {
+                    logger.warn("Unable to revalidate record " + key + ": " + e.getMessage());
+                } finally {
+                    revalidating.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            revalidating.remove(key);
+        }
+    }
+
+    /**
+     * @return the number of records in the store
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Writes all changes of the index to disk and closes the store files
+     */
+    public synchronized void close() {
+        revalidator.shutdownNow();
+        try {
+            if (index != null) {
+                index.force();
+            }
+            segment.force(true);
+            segment.close();
+            if (indexChannel != null) {
+                indexChannel.close();
+            }
+        } catch (IOException e) {
+            logger.error("Error closing record store " + segmentFile.getParent() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Maps the index file into memory. If the index does not match the segment file, it is recreated
+     */
+    private void openIndex(int initialCapacity) throws IOException {
+        long segmentSize = segment.size();
+        if (Files.isRegularFile(indexFile) && Files.size(indexFile) >= HEADER_SIZE) {
+            mapIndex(indexFile, 0);
+            capacity = index.getInt(8);
+            size = index.getInt(12);
+            segmentLength = index.getLong(16);
+            boolean valid = index.getInt(0) == INDEX_MAGIC && index.getInt(4) == INDEX_VERSION && capacity > 0 && Integer.bitCount(capacity) == 1
+                    && indexChannel.size() == HEADER_SIZE + (long) capacity * SLOT_SIZE && segmentLength <= segmentSize;
+            if (valid) {
+                if (segmentLength < segmentSize) {
+                    logger.info("Record store index is behind the segment file. Indexing remaining entries");
+                    indexSegment(segmentLength, segmentSize);
+                }
+                return;
+            }
+            logger.warn("Record store index " + indexFile + " does not match the segment file. Rebuilding index");
+            indexChannel.close();
+        }
+        createIndex(indexFile, initialCapacity, 0);
+        segmentLength = 0;
+        indexSegment(0, segmentSize);
+    }
+
+    /**
+     * Creates and maps a new empty index file
+     *
+     * @param committedLength the length of the segment file covered by the index
+     */
+    private void createIndex(Path file, int newCapacity, long committedLength) throws IOException {
+        Files.deleteIfExists(file);
+        mapIndex(file, HEADER_SIZE + (long) newCapacity * SLOT_SIZE);
+        capacity = newCapacity;
+        size = 0;
+        index.putInt(0, INDEX_MAGIC);
+        index.putInt(4, INDEX_VERSION);
+        index.putInt(8, capacity);
+        index.putInt(12, size);
+        index.putLong(16, committedLength);
+    }
+
+    /**
+     * @param length the length to map. If 0, the whole existing file is mapped
+     */
+    private void mapIndex(Path file, long length) throws IOException {
+        indexChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, length > 0 ? length : indexChannel.size());
+    }
+
+    /**
+     * Adds all entries of the segment file between the given positions to the index. A damaged entry ends the scan and the segment file is
+     * truncated to the last complete entry
+     */
+    private void indexSegment(long from, long to) throws IOException {
+        long position = from;
+        while (position < to) {
+            Entry entry;
+            try {
+                entry = readEntry(position);
+            } catch (IOException e) {
+                logger.warn("Damaged entry at position " + position + " of record store " + segmentFile + ". Discarding the remaining "
+                        + (to - position) + " bytes");
+                segment.truncate(position);
+                break;
+            }
+            long hash = hash(entry.key.getBytes(StandardCharsets.UTF_8));
+            int slot = findSlot(entry.key, hash);
+            if (slot < 0 || isEmpty(slot)) {
+                if (size + 1 > capacity * MAX_LOAD) {
+                    resizeIndex(capacity * 2);
+                }
+                slot = findSlot(entry.key, hash);
+                size++;
+            }
+            writeSlot(slot, hash, position, entry.storedAt, entry.recordDate, hash(entry.data));
+            position += entry.length();
+        }
+        segmentLength = position;
+        index.putInt(12, size);
+        index.putLong(16, segmentLength);
+    }
+
+    /**
+     * Copies all slots into a new index with the given capacity, which then replaces the current index file
+     */
+    private void resizeIndex(int newCapacity) throws IOException {
+        logger.debug("Growing record store index to " + newCapacity + " slots");
+        MappedByteBuffer oldIndex = index;
+        FileChannel oldChannel = indexChannel;
+        int oldCapacity = capacity;
+        Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        createIndex(tempFile, newCapacity, oldIndex.getLong(16));
+        for (int i = 0; i < oldCapacity; i++) {
+            int offset = HEADER_SIZE + i * SLOT_SIZE;
+            long hash = oldIndex.getLong(offset);
+            if (hash != 0) {
+                int slot = findFreeSlot(hash);
+                writeSlot(slot, hash, oldIndex.getLong(offset + 8), oldIndex.getLong(offset + 16), oldIndex.getLong(offset + 24),
+                        oldIndex.getLong(offset + 32));
+                size++;
+            }
+        }
+        index.putInt(12, size);
+        index.force();
+        oldChannel.close();
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the slot containing the key, the first empty slot in its probe sequence if the key is not in the index, or -1 if the index is
+     *         full
+     */
+    private int findSlot(String key, long hash) throws IOException {
+        int mask = capacity - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        for (int i = 0; i < capacity; i++) {
+            long slotHash = index.getLong(slotOffset(slot));
+            if (slotHash == 0) {
+                return slot;
+            }
+            if (slotHash == hash && key.equals(readKey(index.getLong(slotOffset(slot) + 8)))) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int findFreeSlot(long hash) {
+        int mask = capacity - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (index.getLong(slotOffset(slot)) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean isEmpty(int slot) {
+        return index.getLong(slotOffset(slot)) == 0;
+    }
+
+    private void writeSlot(int slot, long hash, long position, long storedAt, long recordDate, long contentHash) {
+        int offset = slotOffset(slot);
+        index.putLong(offset + 8, position);
+        index.putLong(offset + 16, storedAt);
+        index.putLong(offset + 24, recordDate);
+        index.putLong(offset + 32, contentHash);
+        index.putLong(offset, hash);
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private long appendEntry(String key, long storedAt, long recordDate, byte[] data) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_HEADER_SIZE + keyBytes.length + data.length);
+        buffer.putInt(ENTRY_MAGIC).putLong(storedAt).putLong(recordDate).putInt(keyBytes.length).putInt(data.length).put(keyBytes).put(data);
+        buffer.flip();
+        long position = segmentLength;
+        writeFully(buffer, position);
+        segmentLength += buffer.limit();
+        return position;
+    }
+
+    private String readKey(long position) throws IOException {
+        ByteBuffer header = readFully(position, ENTRY_HEADER_SIZE);
+        if (header.getInt(0) != ENTRY_MAGIC) {
+            throw new IOException("No record store entry at position " + position);
+        }
+        ByteBuffer key = readFully(position + ENTRY_HEADER_SIZE, header.getInt(20));
+        return new String(key.array(), StandardCharsets.UTF_8);
+    }
+
+    private Entry readEntry(long position) throws IOException {
+        ByteBuffer header = readFully(position, ENTRY_HEADER_SIZE);
+        int keyLength = header.getInt(20);
+        int dataLength = header.getInt(24);
+        if (header.getInt(0) != ENTRY_MAGIC || keyLength < 0 || dataLength < 0
+                || position + ENTRY_HEADER_SIZE + keyLength + dataLength > segment.size()) {
+            throw new IOException("No valid record store entry at position " + position);
+        }
+        ByteBuffer body = readFully(position + ENTRY_HEADER_SIZE, keyLength + dataLength);
+        Entry entry = new Entry();
+        entry.storedAt = header.getLong(4);
+        entry.recordDate = header.getLong(12);
+        entry.key = new String(body.array(), 0, keyLength, StandardCharsets.UTF_8);
+        entry.data = new byte[dataLength];
+        System.arraycopy(body.array(), keyLength, entry.data, 0, dataLength);
+        return entry;
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (segment.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of record store at position " + position);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            segment.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static byte[] deflate(Document record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_SPEED))) {
+            new XMLOutputter(Format.getCompactFormat().setEncoding("UTF-8")).output(record, out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Document inflate(byte[] data) throws IOException, JDOMException {
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(data))) {
+            SAXBuilder builder = new SAXBuilder();
+            builder.setExpandEntities(false);
+            return builder.build(in);
+        }
+    }
+
+    /**
+     * @return the date of the record from controlfield 005, or 0 if the record contains no controlfield 005 or its value is not a valid
+     *         <code>yyyyMMddHHmmss.f</code> date
+     */
+    static long getRecordDate(Document record) {
+        for (Element controlfield : record.getRootElement().getChildren("controlfield", record.getRootElement().getNamespace())) {
+            if ("005".equals(controlfield.getAttributeValue("tag"))) {
+                String value = controlfield.getTextTrim();
+                if (value.length() < 14) {
+                    return 0;
+                }
+                try {
+                    return LocalDateTime.parse(value.substring(0, 14), RECORD_DATE_FORMAT).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                } catch (DateTimeParseException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    static String createKey(String catalogue, String searchField, String term) {
+        return catalogue + "\n" + RecordCache.createKey(searchField, term);
+    }
+
+    /**
+     * 64 bit FNV-1a hash of a key or a deflated record. 0 marks an empty slot and is never returned
+     */
+    private static long hash(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static class Entry {
+        private long storedAt;
+        private long recordDate;
+        private String key;
+        private byte[] data;
+
+        private long length() {
+            return ENTRY_HEADER_SIZE + key.getBytes(StandardCharsets.UTF_8).length + data.length;
+        }
+    }
+
+    /**
+     * A record read from the store together with the time it was stored
+     */
+    public static class StoredRecord {
+        private final Document record;
+        private final long storedAt;
+        private final long recordDate;
+
+        StoredRecord(Document record, long storedAt, long recordDate) {
+            this.record = record;
+            this.storedAt = storedAt;
+            this.recordDate = recordDate;
+        }
+
+        public Document getRecord() {
+            return record;
+        }
+
+        /**
+         * @return the time the record was last retrieved from the catalogue in milliseconds
+         */
+        public long getStoredAt() {
+            return storedAt;
+        }
+
+        /**
+         * @return the date of the record from controlfield 005, or null if the record has none
+         */
+        public Date getRecordDate() {
+            return recordDate > 0 ? new Date(recordDate) : null;
+        }
+
+        /**
+         * @param maxAge the maximum age in seconds. 0 or less means records never become stale
+         * @return true if the record has been retrieved from the catalogue within the given time
+         */
+        public boolean isFresh(long maxAge) {
+            return maxAge <= 0 || System.currentTimeMillis() - storedAt <= maxAge * 1000;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package de.intranda.goobi.plugins.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+import org.jdom2.Document;
+
+import de.intranda.goobi.plugins.utils.CompiledRegex;
+
+/**
+ * Caches the raw marc records retrieved from a catalogue, keyed by the search field and the search term. There is one cache per catalogue,
+ * shared by all plugin instances.
+ *
+ * Records are copied when they are stored and when they are returned, so callers may modify the returned record (e.g. by applying the
+ * beautifier) without affecting the cached copy
+ */
+public class RecordCache {
+
+    private static final Logger logger = Logger.getLogger(RecordCache.class);
+
+    private static final Map<String, RecordCache> caches = new ConcurrentHashMap<>();
+
+    private static final CompiledRegex WHITESPACE = CompiledRegex.get("\\s+");
+
+    private final String catalogue;
+    private final ExpiringCache<String, Document> cache;
+
+    private RecordCache(String catalogue, CacheSettings settings) {
+        this.catalogue = catalogue;
+        this.cache = settings.createCache();
+    }
+
+    /**
+     * Get the record cache of the given catalogue, creating it if necessary
+     *
+     * @param catalogue the catalogue title
+     * @param settings provides the cache limits. Only called if no cache exists yet for the catalogue
+     * @return the cache
+     */
+    public static RecordCache getInstance(String catalogue, Supplier<CacheSettings> settings) {
+        return caches.computeIfAbsent(catalogue, c -> {
+            CacheSettings cacheSettings = settings.get();
+            logger.debug("Creating record cache for " + c + ": " + cacheSettings);
+            return new RecordCache(c, cacheSettings);
+        });
+    }
+
+    /**
+     * Removes the caches of all catalogues. New caches are created with the then current configuration on the next request
+     */
+    public static void reset() {
+        caches.clear();
+    }
+
+    /**
+     * @return a copy of the cached record or null if no record is cached for search field and term
+     */
+    public Document get(String searchField, String term) {
+        Document record = cache.get(createKey(searchField, term));
+        return record == null ? null : record.clone();
+    }
+
+    public void put(String searchField, String term, Document record) {
+        if (cache.isEnabled() && record != null) {
+            cache.put(createKey(searchField, term), record.clone());
+        }
+    }
+
+    /**
+     * @return false if the cache is configured to store no records
+     */
+    public boolean isEnabled() {
+        return cache.isEnabled();
+    }
+
+    public void invalidate(String searchField, String term) {
+        cache.invalidate(createKey(searchField, term));
+    }
+
+    public CacheStatistics getStatistics() {
+        return cache.getStatistics();
+    }
+
+    public String getCatalogue() {
+        return catalogue;
+    }
+
+    /**
+     * Search terms are compared ignoring surrounding or repeated whitespace. Case is significant, identifiers and shelfmarks may differ only in
+     * case
+     */
+    static String createKey(String searchField, String term) {
+        return (searchField == null ? "" : searchField) + "=" + normalize(term);
+    }
+
+    public static String normalize(String term) {
+        if (term == null) {
+            return "";
+        }
+        return WHITESPACE.replaceAll(term.trim(), " ");
+    }
+}
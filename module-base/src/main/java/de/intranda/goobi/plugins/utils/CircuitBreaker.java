@@ -0,0 +1,294 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+
+import de.intranda.goobi.plugins.utils.SRUHttpTransport.HttpStatusException;
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
+
+/**
+ * Stops sending requests to a catalogue endpoint which is not available. After a number of consecutive failures the circuit opens, and all
+ * requests fail immediately with a {@link CircuitOpenException} instead of waiting for the http timeout. Once the open duration has passed, the
+ * circuit is half open: a limited number of probe requests is sent, and if one of them succeeds, the circuit closes again. A failed probe opens
+ * the circuit for another period.
+ *
+ * Only failures indicating that the endpoint is unavailable are counted: timeouts, refused or dropped connections and server errors. Breakers are
+ * shared by all catalogues with the same address and database, the settings of the catalogue requesting the endpoint first are used
+ */
+public class CircuitBreaker {
+
+    private static final Logger logger = Logger.getLogger(CircuitBreaker.class);
+
+    private static final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String endpoint;
+    private final BreakerSettings settings;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private int runningProbes;
+    private long openedAt;
+    private long successCount;
+    private long failureCount;
+    private long rejectedCount;
+    private long openCount;
+
+    private CircuitBreaker(String endpoint, BreakerSettings settings) {
+        this.endpoint = endpoint;
+        this.settings = settings;
+    }
+
+    /**
+     * Get the breaker of the endpoint of the given catalogue, creating it if necessary
+     *
+     * @param cat the catalogue
+     * @param settings provides the breaker settings. Only called if no breaker exists yet for the endpoint
+     * @return the breaker
+     */
+    public static CircuitBreaker getInstance(ConfigOpacCatalogue cat, Supplier<BreakerSettings> settings) {
+        return breakers.computeIfAbsent(getEndpoint(cat), e -> {
+            BreakerSettings breakerSettings = settings.get();
+            logger.debug("Creating circuit breaker for " + e + ": " + breakerSettings);
+            return new CircuitBreaker(e, breakerSettings);
+        });
+    }
+
+    /**
+     * Removes the breakers of all endpoints. New breakers are created with the then current configuration on the next request
+     */
+    public static void reset() {
+        breakers.clear();
+    }
+
+    /**
+     * @return the statistics of all breakers, by endpoint
+     */
+    public static Map<String, CircuitStatistics> getAllStatistics() {
+        Map<String, CircuitStatistics> statistics = new LinkedHashMap<>();
+        for (CircuitBreaker breaker : breakers.values()) {
+            statistics.put(breaker.endpoint, breaker.getStatistics());
+        }
+        return statistics;
+    }
+
+    /**
+     * @return the address and database of the catalogue, identifying the breaker
+     */
+    public static String getEndpoint(ConfigOpacCatalogue cat) {
+        return cat.getAddress() + "/" + cat.getDatabase();
+    }
+
+    /**
+     * Send the request unless the circuit is open
+     *
+     * @param description describes the request in log messages
+     * @param request sends the request
+     * @return the result of the request
+     * @throws CircuitOpenException if the circuit is open, or half open and the allowed number of probes is running already
+     * @throws IOException the failure of the request
+     */
+    public <T> T execute(String description, RetryPolicy.Request<T> request) throws IOException {
+        boolean probe = acquire(description);
+        boolean finished = false;
+        try {
+            T result = request.execute();
+            onSuccess(probe);
+            finished = true;
+            return result;
+        } catch (IOException e) {
+            if (isFailure(e)) {
+                onFailure(probe, e);
+                finished = true;
+            }
+            throw e;
+        } finally {
+            if (!finished) {
+                release(probe);
+            }
+        }
+    }
+
+    /**
+     * @return true if the failure indicates that the endpoint is unavailable
+     */
+    public static boolean isFailure(IOException failure) {
+        if (failure instanceof HttpStatusException) {
+            int status = ((HttpStatusException) failure).getStatus();
+            return status >= 500 || status == 429;
+        }
+        return RetryPolicy.isRetryable(failure);
+    }
+
+    /**
+     * @return true if the request is sent as probe of a half open circuit
+     */
+    private synchronized boolean acquire(String description) throws CircuitOpenException {
+        if (state == State.OPEN) {
+            long remaining = getRemainingOpenTime();
+            if (remaining > 0) {
+                rejectedCount++;
+                throw new CircuitOpenException("Catalogue " + endpoint + " is unavailable, not sending " + description + ". Next attempt in "
+                        + remaining + " ms", remaining);
+            }
+            logger.info("Circuit of " + endpoint + " is half open, sending probe requests");
+            state = State.HALF_OPEN;
+        }
+        if (state == State.HALF_OPEN) {
+            if (runningProbes >= settings.getHalfOpenProbes()) {
+                rejectedCount++;
+                throw new CircuitOpenException("Catalogue " + endpoint + " is unavailable, not sending " + description
+                        + ". Waiting for the result of a probe request", 0);
+            }
+            runningProbes++;
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized void onSuccess(boolean probe) {
+        successCount++;
+        if (probe) {
+            runningProbes--;
+            if (state == State.HALF_OPEN) {
+                logger.info("Probe request to " + endpoint + " succeeded, closing circuit");
+                state = State.CLOSED;
+            }
+        }
+        if (state == State.CLOSED) {
+            consecutiveFailures = 0;
+        }
+    }
+
+    private synchronized void onFailure(boolean probe, IOException e) {
+        failureCount++;
+        if (probe) {
+            runningProbes--;
+            if (state == State.HALF_OPEN) {
+                open("Probe request failed: " + e.getMessage());
+            }
+        } else if (state == State.CLOSED && ++consecutiveFailures >= settings.getFailureThreshold()) {
+            open(consecutiveFailures + " consecutive requests failed, the last one with: " + e.getMessage());
+        }
+    }
+
+    private synchronized void release(boolean probe) {
+        if (probe) {
+            runningProbes--;
+        }
+    }
+
+    private void open(String reason) {
+        logger.warn("Opening circuit of " + endpoint + " for " + settings.getOpenDuration() + " ms. " + reason);
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        consecutiveFailures = 0;
+        openCount++;
+    }
+
+    private long getRemainingOpenTime() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, settings.getOpenDuration() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - openedAt));
+    }
+
+    /**
+     * @return the current state. An open circuit whose open duration has passed is reported as half open
+     */
+    public synchronized State getState() {
+        return state == State.OPEN && getRemainingOpenTime() == 0 ? State.HALF_OPEN : state;
+    }
+
+    public synchronized CircuitStatistics getStatistics() {
+        return new CircuitStatistics(getState(), consecutiveFailures, successCount, failureCount, rejectedCount, openCount, getRemainingOpenTime());
+    }
+
+    public BreakerSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Thrown instead of sending a request while the circuit is open
+     */
+    public static class CircuitOpenException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long retryAfter;
+
+        public CircuitOpenException(String message, long retryAfter) {
+            super(message);
+            this.retryAfter = retryAfter;
+        }
+
+        /**
+         * @return the time in milliseconds until the circuit becomes half open
+         */
+        public long getRetryAfter() {
+            return retryAfter;
+        }
+    }
+
+    /**
+     * Circuit breaker settings for a catalogue, as configured in the &lt;circuitBreaker&gt; section of the plugin configuration
+     */
+    public static class BreakerSettings {
+        private int failureThreshold = 5;
+        private long openDuration = 30000;
+        private int halfOpenProbes = 1;
+
+        /**
+         * @return the number of consecutive failures opening the circuit. 0 disables the breaker
+         */
+        public int getFailureThreshold() {
+            return failureThreshold;
+        }
+
+        public void setFailureThreshold(int failureThreshold) {
+            this.failureThreshold = Math.max(0, failureThreshold);
+        }
+
+        /**
+         * @return the time in milliseconds the circuit stays open before probe requests are sent
+         */
+        public long getOpenDuration() {
+            return openDuration;
+        }
+
+        public void setOpenDuration(long openDuration) {
+            this.openDuration = Math.max(0, openDuration);
+        }
+
+        /**
+         * @return the number of probe requests which may run at the same time while the circuit is half open
+         */
+        public int getHalfOpenProbes() {
+            return halfOpenProbes;
+        }
+
+        public void setHalfOpenProbes(int halfOpenProbes) {
+            this.halfOpenProbes = Math.max(1, halfOpenProbes);
+        }
+
+        public boolean isDisabled() {
+            return failureThreshold <= 0;
+        }
+
+        @Override
+        public String toString() {
+            return "failureThreshold=" + failureThreshold + ", openDuration=" + openDuration + ", halfOpenProbes=" + halfOpenProbes;
+        }
+    }
+}
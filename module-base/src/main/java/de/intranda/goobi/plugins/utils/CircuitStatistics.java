@@ -0,0 +1,71 @@
+package de.intranda.goobi.plugins.utils;
+
+import de.intranda.goobi.plugins.utils.CircuitBreaker.State;
+
+/**
+ * Snapshot of the state and counters of a circuit breaker
+ */
+public class CircuitStatistics {
+
+    private final State state;
+    private final int consecutiveFailures;
+    private final long successCount;
+    private final long failureCount;
+    private final long rejectedCount;
+    private final long openCount;
+    private final long remainingOpenTime;
+
+    public CircuitStatistics(State state, int consecutiveFailures, long successCount, long failureCount, long rejectedCount, long openCount,
+            long remainingOpenTime) {
+        this.state = state;
+        this.consecutiveFailures = consecutiveFailures;
+        this.successCount = successCount;
+        this.failureCount = failureCount;
+        this.rejectedCount = rejectedCount;
+        this.openCount = openCount;
+        this.remainingOpenTime = remainingOpenTime;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public long getSuccessCount() {
+        return successCount;
+    }
+
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * @return the number of requests which were not sent because the circuit was open
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return how often the circuit was opened
+     */
+    public long getOpenCount() {
+        return openCount;
+    }
+
+    /**
+     * @return the time in milliseconds until the circuit becomes half open, or 0 if it is not open
+     */
+    public long getRemainingOpenTime() {
+        return remainingOpenTime;
+    }
+
+    @Override
+    public String toString() {
+        return "state=" + state + ", consecutiveFailures=" + consecutiveFailures + ", successes=" + successCount + ", failures=" + failureCount
+                + ", rejected=" + rejectedCount + ", opened=" + openCount + ", remainingOpenTime=" + remainingOpenTime;
+    }
+}
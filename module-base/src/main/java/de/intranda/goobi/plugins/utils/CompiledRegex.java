@@ -0,0 +1,125 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import de.intranda.goobi.plugins.cache.ExpiringCache;
+
+/**
+ * A regular expression from the mapping or the code, compiled once and shared process-wide. Expressions without metacharacters are matched as
+ * plain strings, without a {@link Matcher}. For the others, a new matcher is created for every input, so no input is retained after the call.
+ *
+ * Instances are thread safe
+ */
+public class CompiledRegex {
+
+    private static final int MAX_EXPRESSIONS = 2000;
+
+    private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+
+    private static final ExpiringCache<String, CompiledRegex> expressions = new ExpiringCache<>(MAX_EXPRESSIONS, 0);
+
+    private final String regex;
+    private final Pattern pattern;
+    /** the expression itself if it contains no metacharacters, otherwise null */
+    private final String literal;
+
+    private CompiledRegex(String regex) {
+        this.regex = regex;
+        this.pattern = Pattern.compile(regex);
+        this.literal = isLiteral(regex) ? regex : null;
+    }
+
+    /**
+     * Get the compiled expression from the cache, compiling it if necessary
+     *
+     * @param regex the regular expression
+     * @return the shared compiled expression
+     * @throws PatternSyntaxException if the expression is invalid. Invalid expressions are not cached
+     */
+    public static CompiledRegex get(String regex) {
+        CompiledRegex compiled = expressions.get(regex);
+        if (compiled == null) {
+            compiled = new CompiledRegex(regex);
+            expressions.put(regex, compiled);
+        }
+        return compiled;
+    }
+
+    private static boolean isLiteral(String regex) {
+        if (regex.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < regex.length(); i++) {
+            if (METACHARACTERS.indexOf(regex.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the whole input matches the expression, like {@link String#matches(String)}
+     */
+    public boolean matches(CharSequence input) {
+        if (literal != null) {
+            return literal.contentEquals(input);
+        }
+        return pattern.matcher(input).matches();
+    }
+
+    /**
+     * @return true if the expression matches a part of the input
+     */
+    public boolean find(CharSequence input) {
+        if (literal != null) {
+            return input.toString().contains(literal);
+        }
+        return pattern.matcher(input).find();
+    }
+
+    /**
+     * Replace all matches of the expression, like {@link String#replaceAll(String, String)}
+     */
+    public String replaceAll(String input, String replacement) {
+        if (literal != null && replacement.indexOf('$') < 0 && replacement.indexOf('\\') < 0) {
+            return input.replace(literal, replacement);
+        }
+        return pattern.matcher(input).replaceAll(replacement);
+    }
+
+    /**
+     * Split the input around matches of the expression, like {@link String#split(String)}
+     */
+    public String[] split(String input) {
+        return pattern.split(input);
+    }
+
+    public String getRegex() {
+        return regex;
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @return true if the expression contains no metacharacters and is matched as plain string
+     */
+    public boolean isLiteral() {
+        return literal != null;
+    }
+
+    /**
+     * Remove all compiled expressions from the cache
+     */
+    public static void clear() {
+        expressions.clear();
+    }
+
+    @Override
+    public String toString() {
+        return regex;
+    }
+}
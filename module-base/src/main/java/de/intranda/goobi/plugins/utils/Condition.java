@@ -1,6 +1,7 @@
 package de.intranda.goobi.plugins.utils;
 
 import java.util.List;
+import java.util.regex.PatternSyntaxException;
 
 import org.apache.commons.lang.StringUtils;
 import org.jdom2.Element;
@@ -9,15 +10,30 @@ public class Condition {
 
     private final String subfield;
     private final String match;
+    private final CompiledRegex pattern;
 
     public Condition(Element ele) {
-        this.subfield = ele.getAttributeValue("subfield");
-        this.match = ele.getAttributeValue("matches");
+        this(ele.getAttributeValue("subfield"), ele.getAttributeValue("matches"));
     }
 
     public Condition(String subfield, String match) {
         this.subfield = subfield;
         this.match = match;
+        this.pattern = compile(match);
+    }
+
+    /**
+     * @return the compiled pattern, or null if there is no pattern or it is invalid. Invalid patterns are left to fail when they are matched
+     */
+    private static CompiledRegex compile(String match) {
+        if (StringUtils.isEmpty(match)) {
+            return null;
+        }
+        try {
+            return CompiledRegex.get(match);
+        } catch (PatternSyntaxException e) {
+            return null;
+        }
     }
 
     /**
@@ -50,7 +66,7 @@ public class Condition {
                 for (Element element : subfields) {
                     String code = element.getAttributeValue("code");
                     String value = element.getText() == null ? "" : element.getText();
-                    if (getSubfield().contains(code) && value.matches(getMatch())) {
+                    if (getSubfield().contains(code) && (pattern != null ? pattern.matches(value) : value.matches(getMatch()))) {
                         return true;
                     }
                 }
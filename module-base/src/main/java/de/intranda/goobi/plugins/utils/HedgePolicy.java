@@ -0,0 +1,320 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+
+import de.intranda.goobi.plugins.utils.SRUHttpTransport.Cancellation;
+
+/**
+ * Sends a second request for lookups which take unusually long. The latencies of recent requests to a catalogue are recorded, and if a request
+ * has not been answered within the configured percentile of them, the same request is sent again. The first answer is used and the other
+ * request is aborted.
+ *
+ * The first request is sent by the calling thread, the second one on the given executor. A second request is only sent if the request limiter
+ * of the catalogue allows it right away, so hedging never exceeds the configured limits. Only idempotent searchRetrieve lookups may be hedged.
+ *
+ * Policies are created lazily on first use and shared by all plugin instances, so the latencies of all lookups against a catalogue are recorded
+ */
+public class HedgePolicy {
+
+    private static final Logger logger = Logger.getLogger(HedgePolicy.class);
+
+    private static final Map<String, HedgePolicy> policies = new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sru-hedge-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String catalogue;
+    private final HedgeSettings settings;
+    private final Supplier<Executor> executor;
+
+    private final long[] latencies;
+    private int latencyCount;
+    private int nextLatency;
+
+    private final AtomicLong hedgedCount = new AtomicLong();
+    private final AtomicLong hedgeWinCount = new AtomicLong();
+
+    private HedgePolicy(String catalogue, HedgeSettings settings, Supplier<Executor> executor) {
+        this.catalogue = catalogue;
+        this.settings = settings;
+        this.executor = executor;
+        this.latencies = new long[settings.getWindow()];
+    }
+
+    /**
+     * Get the policy of the given catalogue, creating it if necessary
+     *
+     * @param catalogue the catalogue title
+     * @param settings provides the hedging settings. Only called if no policy exists yet for the catalogue
+     * @param executor provides the executor running the second requests. Only called if no policy exists yet for the catalogue
+     * @return the policy
+     */
+    public static HedgePolicy getInstance(String catalogue, Supplier<HedgeSettings> settings, Supplier<Executor> executor) {
+        return policies.computeIfAbsent(catalogue, c -> {
+            HedgeSettings hedgeSettings = settings.get();
+            logger.debug("Creating hedge policy for " + c + ": " + hedgeSettings);
+            return new HedgePolicy(c, hedgeSettings, executor);
+        });
+    }
+
+    /**
+     * Removes the policies of all catalogues, including the recorded latencies
+     */
+    public static void reset() {
+        policies.clear();
+    }
+
+    /**
+     * Send the request, and send it a second time if it is not answered in time
+     *
+     * @param description describes the request in log messages
+     * @param request sends the request. Must abort it when the cancellation is cancelled
+     * @param limiter the request limiter of the catalogue, or null if requests are not limited
+     * @return the first answer
+     * @throws IOException if all sent requests failed
+     */
+    public <T> T execute(String description, Attempt<T> request, RequestLimiter limiter) throws IOException {
+        long start = System.nanoTime();
+        long delay = getDelay();
+        if (delay < 0) {
+            T result = send(request, null, limiter);
+            recordLatency(start);
+            return result;
+        }
+        Cancellation primary = new Cancellation();
+        Hedge<T> hedge = new Hedge<>();
+        ScheduledFuture<?> hedgeTimer = timer.schedule(() -> startHedge(description, request, limiter, hedge, primary), delay, TimeUnit.MILLISECONDS);
+        T result;
+        try {
+            result = send(request, primary, limiter);
+        } catch (IOException | RuntimeException e) {
+            hedgeTimer.cancel(false);
+            if (!hedge.finish()) {
+                throw e;
+            }
+            //the second request answered first and aborted this one, or this one failed and the second one is still running
+            result = awaitHedge(description, hedge, e);
+            recordLatency(start);
+            return result;
+        }
+        hedgeTimer.cancel(false);
+        if (hedge.finish()) {
+            hedge.cancellation.cancel();
+        }
+        recordLatency(start);
+        return result;
+    }
+
+    private <T> T send(Attempt<T> request, Cancellation cancellation, RequestLimiter limiter) throws IOException {
+        try (RequestLimiter.Permit permit = limiter == null ? null : limiter.acquire()) {
+            return request.execute(cancellation);
+        }
+    }
+
+    private <T> void startHedge(String description, Attempt<T> request, RequestLimiter limiter, Hedge<T> hedge, Cancellation primary) {
+        RequestLimiter.Permit permit = limiter == null ? null : limiter.tryAcquire();
+        if (limiter != null && permit == null) {
+            logger.debug("Not hedging " + description + ", the request limit of " + catalogue + " is reached");
+            return;
+        }
+        if (!hedge.start()) {
+            if (permit != null) {
+                permit.close();
+            }
+            return;
+        }
+        hedgedCount.incrementAndGet();
+        logger.debug("Hedging " + description);
+        try {
+            executor.get().execute(() -> {
+                try (RequestLimiter.Permit p = permit) {
+                    T result = request.execute(hedge.cancellation);
+                    if (hedge.result.complete(result)) {
+                        primary.cancel();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    hedge.result.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            if (permit != null) {
+                permit.close();
+            }
+            hedge.result.completeExceptionally(e);
+        }
+    }
+
+    private <T> T awaitHedge(String description, Hedge<T> hedge, Exception primaryFailure) throws IOException {
+        try {
+            T result = hedge.result.get();
+            hedgeWinCount.incrementAndGet();
+            logger.debug("Using the answer of the second request for " + description);
+            return result;
+        } catch (InterruptedException e) {
+            hedge.cancellation.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + description);
+        } catch (ExecutionException e) {
+            //both requests failed, report the failure of the first one
+            if (primaryFailure instanceof IOException) {
+                throw (IOException) primaryFailure;
+            }
+            throw (RuntimeException) primaryFailure;
+        }
+    }
+
+    private synchronized void recordLatency(long start) {
+        latencies[nextLatency] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        nextLatency = (nextLatency + 1) % latencies.length;
+        latencyCount = Math.min(latencyCount + 1, latencies.length);
+    }
+
+    /**
+     * @return the time in milliseconds after which a second request is sent, or -1 if there are not enough recorded latencies yet
+     */
+    synchronized long getDelay() {
+        if (latencyCount < settings.getMinSamples()) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(settings.getPercentile() / 100 * latencyCount) - 1;
+        return Math.max(settings.getMinDelay(), sorted[Math.max(0, Math.min(index, latencyCount - 1))]);
+    }
+
+    /**
+     * @return the number of second requests sent
+     */
+    public long getHedgedCount() {
+        return hedgedCount.get();
+    }
+
+    /**
+     * @return the number of lookups answered by the second request
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    public HedgeSettings getSettings() {
+        return settings;
+    }
+
+    @FunctionalInterface
+    public interface Attempt<T> {
+        /**
+         * @param cancellation aborts the request. May be null if the request is not hedged
+         */
+        T execute(Cancellation cancellation) throws IOException;
+    }
+
+    /**
+     * The second request of a lookup. It is started at most once, and only while the first request is still running
+     */
+    private static class Hedge<T> {
+
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final Cancellation cancellation = new Cancellation();
+        private boolean started = false;
+        private boolean finished = false;
+
+        private synchronized boolean start() {
+            if (finished) {
+                return false;
+            }
+            started = true;
+            return true;
+        }
+
+        /**
+         * Called when the first request has finished
+         *
+         * @return true if the second request has been started
+         */
+        private synchronized boolean finish() {
+            finished = true;
+            return started;
+        }
+    }
+
+    /**
+     * Hedging settings for a catalogue, as configured in the &lt;hedging&gt; section of the plugin configuration
+     */
+    public static class HedgeSettings {
+        private double percentile = 0;
+        private long minDelay = 100;
+        private int window = 200;
+        private int minSamples = 20;
+
+        /**
+         * @return the percentile of recent latencies after which a second request is sent. 0 disables hedging
+         */
+        public double getPercentile() {
+            return percentile;
+        }
+
+        public void setPercentile(double percentile) {
+            this.percentile = Math.max(0, Math.min(100, percentile));
+        }
+
+        /**
+         * @return the minimum time in milliseconds before a second request is sent
+         */
+        public long getMinDelay() {
+            return minDelay;
+        }
+
+        public void setMinDelay(long minDelay) {
+            this.minDelay = Math.max(0, minDelay);
+        }
+
+        /**
+         * @return the number of recent latencies the percentile is computed from
+         */
+        public int getWindow() {
+            return window;
+        }
+
+        public void setWindow(int window) {
+            this.window = Math.max(1, window);
+        }
+
+        /**
+         * @return the number of latencies which must be recorded before requests are hedged
+         */
+        public int getMinSamples() {
+            return minSamples;
+        }
+
+        public void setMinSamples(int minSamples) {
+            this.minSamples = Math.max(1, minSamples);
+        }
+
+        public boolean isDisabled() {
+            return percentile <= 0;
+        }
+
+        @Override
+        public String toString() {
+            return "percentile=" + percentile + ", minDelay=" + minDelay + ", window=" + window + ", minSamples=" + minSamples;
+        }
+    }
+}
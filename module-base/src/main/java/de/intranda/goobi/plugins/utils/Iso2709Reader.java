@@ -0,0 +1,207 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+
+/**
+ * Reads the records of a binary ISO 2709 file, like a <code>.mrc</code> export, and converts each one to a MARCXML record. Only one record is
+ * held in memory at a time.
+ *
+ * Records declaring Unicode in leader position 09 are decoded as UTF-8. Others are decoded as UTF-8 as well if they are valid UTF-8, which is
+ * the case for many exports with a wrong leader, and as ISO-8859-1 otherwise. MARC-8 escape sequences are not converted
+ */
+public class Iso2709Reader extends MarcFileReader {
+
+    private static final int LEADER_LENGTH = 24;
+    private static final byte FIELD_TERMINATOR = 0x1E;
+    private static final byte RECORD_TERMINATOR = 0x1D;
+    private static final byte SUBFIELD_DELIMITER = 0x1F;
+
+    private final Namespace marcNamespace;
+    private final CharsetDecoder strictUtf8 =
+            StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT);
+
+    private byte[] buffer = new byte[16 * 1024];
+
+    /**
+     * @param in the ISO 2709 file. It is closed with the reader
+     * @param marcNamespace the namespace of the created MARCXML elements
+     */
+    public Iso2709Reader(InputStream in, Namespace marcNamespace) {
+        super(in);
+        this.marcNamespace = marcNamespace;
+    }
+
+    @Override
+    protected Document readRecord() throws IOException {
+        int b = in.read();
+        //some exports separate the records by line breaks
+        while (b == '\r' || b == '\n' || b == ' ') {
+            b = in.read();
+        }
+        if (b < 0) {
+            return null;
+        }
+        buffer[0] = (byte) b;
+        readFully(1, 4);
+        int length = parseNumber(0, 5, "record length");
+        if (length <= LEADER_LENGTH) {
+            throw new IOException("Invalid record length " + length);
+        }
+        if (buffer.length < length) {
+            buffer = Arrays.copyOf(buffer, Math.max(length, buffer.length * 2));
+        }
+        readFully(5, length - 5);
+        if (buffer[length - 1] != RECORD_TERMINATOR) {
+            throw new IOException("Record of length " + length + " does not end with a record terminator");
+        }
+        return new Document(convertRecord(length));
+    }
+
+    private void readFully(int offset, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = in.read(buffer, offset + read, length - read);
+            if (count < 0) {
+                throw new EOFException("Unexpected end of file within a record");
+            }
+            read += count;
+        }
+    }
+
+    private Element convertRecord(int length) throws IOException {
+        String leader = new String(buffer, 0, LEADER_LENGTH, StandardCharsets.ISO_8859_1);
+        boolean unicode = leader.charAt(9) == 'a';
+        int indicatorCount = digit(leader.charAt(10), 2);
+        int subfieldCodeLength = digit(leader.charAt(11), 2);
+        int baseAddress = parseNumber(12, 5, "base address");
+        int lengthOfLength = digit(leader.charAt(20), 4);
+        int startLength = digit(leader.charAt(21), 5);
+        int entryLength = 3 + lengthOfLength + startLength + digit(leader.charAt(22), 0);
+        if (baseAddress <= LEADER_LENGTH || baseAddress > length) {
+            throw new IOException("Invalid base address " + baseAddress);
+        }
+
+        Element record = new Element("record", marcNamespace);
+        Element leaderElement = new Element("leader", marcNamespace);
+        leaderElement.setText(leader);
+        record.addContent(leaderElement);
+
+        for (int entry = LEADER_LENGTH; entry + entryLength <= baseAddress - 1 && buffer[entry] != FIELD_TERMINATOR; entry += entryLength) {
+            String tag = new String(buffer, entry, 3, StandardCharsets.ISO_8859_1);
+            int fieldLength = parseNumber(entry + 3, lengthOfLength, "length of field " + tag);
+            int start = baseAddress + parseNumber(entry + 3 + lengthOfLength, startLength, "start of field " + tag);
+            int end = start + fieldLength;
+            if (end > length) {
+                throw new IOException("Field " + tag + " exceeds the record");
+            }
+            if (end > start && buffer[end - 1] == FIELD_TERMINATOR) {
+                end--;
+            }
+            if (isControlField(tag)) {
+                Element field = new Element("controlfield", marcNamespace);
+                field.setAttribute("tag", tag);
+                field.setText(decode(start, end - start, unicode));
+                record.addContent(field);
+            } else {
+                record.addContent(convertDataField(tag, start, end, indicatorCount, subfieldCodeLength, unicode));
+            }
+        }
+        return record;
+    }
+
+    private Element convertDataField(String tag, int start, int end, int indicatorCount, int subfieldCodeLength, boolean unicode) {
+        Element field = new Element("datafield", marcNamespace);
+        field.setAttribute("tag", tag);
+        field.setAttribute("ind1", indicator(start, end, 0, indicatorCount));
+        field.setAttribute("ind2", indicator(start, end, 1, indicatorCount));
+        int position = Math.min(start + indicatorCount, end);
+        while (position < end) {
+            if (buffer[position] != SUBFIELD_DELIMITER) {
+                //data before the first delimiter has no code
+                position++;
+                continue;
+            }
+            int codeStart = position + 1;
+            int valueStart = Math.min(codeStart + subfieldCodeLength - 1, end);
+            int valueEnd = valueStart;
+            while (valueEnd < end && buffer[valueEnd] != SUBFIELD_DELIMITER) {
+                valueEnd++;
+            }
+            Element subfield = new Element("subfield", marcNamespace);
+            subfield.setAttribute("code", decode(codeStart, valueStart - codeStart, unicode));
+            subfield.setText(decode(valueStart, valueEnd - valueStart, unicode));
+            field.addContent(subfield);
+            position = valueEnd;
+        }
+        return field;
+    }
+
+    private String indicator(int start, int end, int index, int indicatorCount) {
+        if (index >= indicatorCount || start + index >= end) {
+            return " ";
+        }
+        return String.valueOf((char) (buffer[start + index] & 0xFF));
+    }
+
+    private static boolean isControlField(String tag) {
+        return tag.startsWith("00") && Character.isDigit(tag.charAt(2));
+    }
+
+    private String decode(int offset, int length, boolean unicode) {
+        String text;
+        if (unicode) {
+            text = new String(buffer, offset, length, StandardCharsets.UTF_8);
+        } else {
+            try {
+                text = strictUtf8.decode(ByteBuffer.wrap(buffer, offset, length)).toString();
+            } catch (CharacterCodingException e) {
+                text = new String(buffer, offset, length, StandardCharsets.ISO_8859_1);
+            }
+        }
+        return removeControlCharacters(text);
+    }
+
+    /**
+     * Remove characters which are not allowed in xml
+     */
+    private static String removeControlCharacters(String text) {
+        StringBuilder cleaned = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            boolean allowed = c >= 0x20 || c == '\t' || c == '\n' || c == '\r';
+            if (!allowed && cleaned == null) {
+                cleaned = new StringBuilder(text.substring(0, i));
+            } else if (allowed && cleaned != null) {
+                cleaned.append(c);
+            }
+        }
+        return cleaned == null ? text : cleaned.toString();
+    }
+
+    private int parseNumber(int offset, int length, String name) throws IOException {
+        int value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (buffer[i] < '0' || buffer[i] > '9') {
+                throw new IOException("Invalid " + name + ": " + new String(buffer, offset, length, StandardCharsets.ISO_8859_1));
+            }
+            value = value * 10 + buffer[i] - '0';
+        }
+        return value;
+    }
+
+    private static int digit(char c, int defaultValue) {
+        return Character.isDigit(c) ? c - '0' : defaultValue;
+    }
+}
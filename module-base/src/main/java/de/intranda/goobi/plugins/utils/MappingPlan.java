@@ -0,0 +1,413 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.jdom2.Element;
+
+import de.intranda.goobi.plugins.cache.MappingDefinition;
+import ugh.dl.MetadataType;
+import ugh.dl.Prefs;
+
+/**
+ * The metadata mapping of a mapping file compiled for a ruleset and a marc namespace prefix. All attributes of the mapping are read, all xpath
+ * queries built and all metadata types resolved once when the plan is compiled, so the parser only needs to execute the plan for each record.
+ *
+ * Plans are immutable and may be shared between threads. Whether a rule writes to the anchor or the child docstruct depends on the record and is
+ * decided by the parser
+ */
+public class MappingPlan {
+
+    private static final Logger logger = Logger.getLogger(MappingPlan.class);
+
+    /** compiled plans by mapping, ruleset and namespace prefix. Plans are dropped together with their mapping or ruleset */
+    private static final Map<MappingDefinition, Map<Prefs, Map<String, MappingPlan>>> plans = new WeakHashMap<>();
+
+    private final List<MetadataRule> metadataRules;
+    private final List<MetadataRule> personRules;
+    private final List<MetadataRule> corporateRules;
+
+    private MappingPlan(List<MetadataRule> metadataRules, List<MetadataRule> personRules, List<MetadataRule> corporateRules) {
+        this.metadataRules = metadataRules;
+        this.personRules = personRules;
+        this.corporateRules = corporateRules;
+    }
+
+    /**
+     * Get the plan for the given mapping, compiling it if it has not been compiled for the ruleset and namespace prefix before
+     *
+     * @param mapping the mapping definition
+     * @param prefs the ruleset used to resolve the metadata types
+     * @param namespacePrefix the prefix of the marc namespace including the colon, or an empty string
+     * @return the shared plan
+     */
+    public static MappingPlan getPlan(MappingDefinition mapping, Prefs prefs, String namespacePrefix) {
+        synchronized (plans) {
+            Map<String, MappingPlan> prefixPlans =
+                    plans.computeIfAbsent(mapping, m -> new WeakHashMap<>()).computeIfAbsent(prefs, p -> new HashMap<>());
+            return prefixPlans.computeIfAbsent(namespacePrefix, prefix -> compile(mapping, prefs, prefix));
+        }
+    }
+
+    /**
+     * Compile the given mapping
+     *
+     * @param mapping the mapping definition
+     * @param prefs the ruleset used to resolve the metadata types
+     * @param namespacePrefix the prefix of the marc namespace including the colon, or an empty string
+     * @return a new plan
+     */
+    public static MappingPlan compile(MappingDefinition mapping, Prefs prefs, String namespacePrefix) {
+        logger.debug("Compiling mapping " + mapping.getPath());
+        return new MappingPlan(compileRules(mapping.getMetadataElements(), MetadataKind.METADATA, prefs, namespacePrefix),
+                compileRules(mapping.getPersonElements(), MetadataKind.PERSON, prefs, namespacePrefix),
+                compileRules(mapping.getCorporateElements(), MetadataKind.CORPORATE, prefs, namespacePrefix));
+    }
+
+    private static List<MetadataRule> compileRules(List<Element> elements, MetadataKind kind, Prefs prefs, String namespacePrefix) {
+        List<MetadataRule> rules = new ArrayList<>(elements.size());
+        for (Element element : elements) {
+            rules.add(new MetadataRule(element, kind, prefs, namespacePrefix));
+        }
+        return Collections.unmodifiableList(rules);
+    }
+
+    public List<MetadataRule> getMetadataRules() {
+        return metadataRules;
+    }
+
+    public List<MetadataRule> getPersonRules() {
+        return personRules;
+    }
+
+    public List<MetadataRule> getCorporateRules() {
+        return corporateRules;
+    }
+
+    /**
+     * @return true if the attribute value is "true" or "false", ignoring case. Otherwise null
+     */
+    private static Boolean getOptionalFlag(Element element, String attributeName) {
+        String value = element.getAttributeValue(attributeName);
+        if ("true".equalsIgnoreCase(value)) {
+            return Boolean.TRUE;
+        } else if ("false".equalsIgnoreCase(value)) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    /**
+     * Compiles a regular expression from the mapping. Invalid expressions are logged and ignored
+     */
+    private static CompiledRegex compilePattern(String regex, Element element) {
+        if (regex == null) {
+            return null;
+        }
+        try {
+            return CompiledRegex.get(regex);
+        } catch (PatternSyntaxException e) {
+            logger.error("Invalid regular expression '" + regex + "' in mapping of " + element.getParentElement().getChildText("name") + ": "
+                    + e.getDescription());
+            return null;
+        }
+    }
+
+    /**
+     * A &lt;metadata&gt;, &lt;person&gt; or &lt;corporate&gt; element of the mapping
+     */
+    public static class MetadataRule {
+
+        private final MetadataKind kind;
+        private final String name;
+        private final MetadataType type;
+        private final boolean logical;
+        private final boolean physical;
+        private final Boolean anchor;
+        private final Boolean child;
+        private final String separator;
+        private final boolean mergeXPaths;
+        private final List<FieldRule> fields;
+        private final List<RoleRule> roles;
+
+        private MetadataRule(Element element, MetadataKind kind, Prefs prefs, String namespacePrefix) {
+            this.kind = kind;
+            this.name = element.getChildText("name");
+            this.type = name == null ? null : prefs.getMetadataTypeByName(name);
+            if (type == null && kind == MetadataKind.METADATA) {
+                logger.error("Unable To create metadata type " + name);
+            }
+            this.logical = "true".equals(element.getAttributeValue("logical"));
+            this.physical = "true".equals(element.getAttributeValue("physical"));
+            this.anchor = getOptionalFlag(element, "anchor");
+            this.child = getOptionalFlag(element, "child");
+            this.separator = element.getAttribute("separator") != null ? element.getAttributeValue("separator") : " ";
+            this.mergeXPaths = !"true".equals(element.getAttributeValue("separateXPaths"));
+            List<FieldRule> fieldRules = new ArrayList<>();
+            for (Element marcfield : element.getChildren("marcfield")) {
+                fieldRules.add(new FieldRule(marcfield, element, namespacePrefix));
+            }
+            this.fields = Collections.unmodifiableList(fieldRules);
+            List<RoleRule> roleRules = new ArrayList<>();
+            if (kind != MetadataKind.METADATA) {
+                for (Element role : element.getChildren("Role")) {
+                    roleRules.add(new RoleRule(role, prefs));
+                }
+            }
+            this.roles = Collections.unmodifiableList(roleRules);
+        }
+
+        public MetadataKind getKind() {
+            return kind;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the metadata type for the name of this rule, or null if the ruleset does not contain it
+         */
+        public MetadataType getType() {
+            return type;
+        }
+
+        public boolean isLogical() {
+            return logical;
+        }
+
+        public boolean isPhysical() {
+            return physical;
+        }
+
+        /**
+         * @param periodical true if the record is treated as part of a periodical
+         * @return true if the metadata should be written to the anchor docstruct
+         */
+        public boolean isWriteToAnchor(boolean periodical) {
+            return periodical ? !Boolean.FALSE.equals(anchor) : Boolean.TRUE.equals(anchor);
+        }
+
+        /**
+         * @param periodical true if the record is treated as part of a periodical
+         * @return true if the metadata should be written to the child docstruct
+         */
+        public boolean isWriteToChild(boolean periodical) {
+            return periodical ? Boolean.TRUE.equals(child) : !Boolean.FALSE.equals(child);
+        }
+
+        public String getSeparator() {
+            return separator;
+        }
+
+        /**
+         * @return true if the values of all marc fields are joined into one value per occurrence
+         */
+        public boolean isMergeXPaths() {
+            return mergeXPaths;
+        }
+
+        public List<FieldRule> getFields() {
+            return fields;
+        }
+
+        public List<RoleRule> getRoles() {
+            return roles;
+        }
+    }
+
+    /**
+     * A &lt;marcfield&gt; element of the mapping
+     */
+    public static class FieldRule {
+
+        private final String tag;
+        private final String ind1;
+        private final String ind2;
+        private final String query;
+        private final String subfields;
+        private final String prefix;
+        private final String suffix;
+        private final CompiledRegex ignore;
+        private final List<Condition> conditions;
+        private final boolean mergeOccurances;
+        private final boolean mergeSubfields;
+
+        private FieldRule(Element marcfield, Element metadataElement, String namespacePrefix) {
+            this.tag = marcfield.getAttributeValue("tag");
+            this.ind1 = marcfield.getAttributeValue("ind1");
+            this.ind2 = marcfield.getAttributeValue("ind2");
+            this.query = createQuery(namespacePrefix, "true".equals(metadataElement.getAttributeValue("child")));
+            this.subfields = marcfield.getAttributeValue("subfields");
+            this.prefix = marcfield.getAttributeValue("prefix");
+            this.suffix = marcfield.getAttributeValue("suffix");
+            this.ignore = compilePattern(marcfield.getAttributeValue("ignore"), marcfield);
+            List<Condition> conditionList = new ArrayList<>();
+            for (Element condition : marcfield.getChildren("condition")) {
+                conditionList.add(new Condition(condition));
+            }
+            this.conditions = Collections.unmodifiableList(conditionList);
+            boolean separateOccurances = "true".equals(getInheritedAttribute(marcfield, metadataElement, "separateOccurances"));
+            String separateSubfields = getInheritedAttribute(marcfield, metadataElement, "separateSubfields");
+            this.mergeOccurances = !separateOccurances;
+            if ("true".equals(separateSubfields)) {
+                this.mergeSubfields = false;
+            } else if ("false".equals(separateSubfields)) {
+                this.mergeSubfields = true;
+            } else {
+                this.mergeSubfields = !separateOccurances;
+            }
+        }
+
+        private static String getInheritedAttribute(Element marcfield, Element metadataElement, String attributeName) {
+            if (marcfield.getAttribute(attributeName) != null) {
+                return marcfield.getAttributeValue(attributeName);
+            }
+            return metadataElement.getAttributeValue(attributeName);
+        }
+
+        /**
+         * Fields with the second indicator 2 are excluded unless an indicator is given or the metadata is only written to the child
+         */
+        private String createQuery(String namespacePrefix, boolean childOnly) {
+            String fieldType = tag != null && tag.startsWith("00") ? "controlfield" : "datafield";
+            StringBuilder query = new StringBuilder("/").append(namespacePrefix).append("record/").append(namespacePrefix).append(fieldType);
+            if (tag != null) {
+                query.append("[@tag=\"").append(tag).append("\"]");
+            }
+            if (ind1 != null) {
+                query.append("[@ind1=\"").append(ind1).append("\"]");
+            }
+            if (ind2 != null) {
+                query.append("[@ind2=\"").append(ind2).append("\"]");
+            } else if (!childOnly) {
+                query.append("[not(@ind2=\"2\")]");
+            }
+            return query.toString();
+        }
+
+        public String getTag() {
+            return tag;
+        }
+
+        public String getInd1() {
+            return ind1;
+        }
+
+        public String getInd2() {
+            return ind2;
+        }
+
+        /**
+         * @return the xpath query selecting the marc fields of this rule
+         */
+        public String getQuery() {
+            return query;
+        }
+
+        /**
+         * @return the codes of the subfields to read, or null
+         */
+        public String getSubfields() {
+            return subfields;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        public String getSuffix() {
+            return suffix;
+        }
+
+        /**
+         * Remove all matches of the ignore pattern from the value
+         *
+         * @return the value without ignored parts. Unchanged if the rule has no ignore pattern
+         */
+        public String removeIgnored(String value) {
+            return ignore == null || value == null ? value : ignore.replaceAll(value, "");
+        }
+
+        public List<Condition> getConditions() {
+            return conditions;
+        }
+
+        /**
+         * @return true if all conditions of this rule match the given field
+         */
+        public boolean matchesConditions(Element field) {
+            for (Condition condition : conditions) {
+                if (!condition.matches(field)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public boolean isMergeOccurances() {
+            return mergeOccurances;
+        }
+
+        public boolean isMergeSubfields() {
+            return mergeSubfields;
+        }
+    }
+
+    /**
+     * A &lt;Role&gt; element of a person or corporate mapping
+     */
+    public static class RoleRule {
+
+        private final String subfield;
+        private final String value;
+        private final CompiledRegex pattern;
+        private final MetadataType type;
+
+        private RoleRule(Element role, Prefs prefs) {
+            this.subfield = role.getAttributeValue("subfield");
+            this.value = role.getAttributeValue("value");
+            this.pattern = value == null ? null : compilePattern(value.trim(), role);
+            String typeName = role.getValue().trim();
+            if (StringUtils.isBlank(typeName)) {
+                typeName = role.getChildText("name", null);
+            }
+            this.type = prefs.getMetadataTypeByName(typeName);
+        }
+
+        /**
+         * @return the code of the subfield determining the role
+         */
+        public String getSubfield() {
+            return subfield;
+        }
+
+        /**
+         * @return the regular expression the subfield must match, or null if all fields match this role
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * @return true if the given subfield value matches the value expression of this role. An invalid expression matches nothing
+         */
+        public boolean matchesValue(String subfieldValue) {
+            return pattern != null && pattern.matches(subfieldValue);
+        }
+
+        /**
+         * @return the metadata type of this role, or null if the ruleset does not contain it
+         */
+        public MetadataType getType() {
+            return type;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.jdom2.Document;
+import org.jdom2.Namespace;
+
+/**
+ * Reads the marc records of a local file one at a time, so files of any size are read with constant memory. Files starting with an xml tag
+ * are read as MARCXML, see {@link MarcXmlCollectionReader}, all others as ISO 2709, see {@link Iso2709Reader}.
+ *
+ * The file is closed when the last record has been read or the reader is closed
+ */
+public abstract class MarcFileReader implements Iterator<Document>, Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    protected final InputStream in;
+
+    private Document nextRecord;
+    private boolean finished = false;
+    /** the number of records handed out */
+    private int position = 0;
+
+    protected MarcFileReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Open a marc file, detecting its format from the first characters
+     *
+     * @param file the MARCXML or ISO 2709 file
+     * @param marcNamespace the namespace of records read from ISO 2709. MARCXML records keep the namespace of the file
+     * @return the reader
+     * @throws IOException if the file could not be opened
+     */
+    public static MarcFileReader open(Path file, Namespace marcNamespace) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+        try {
+            if (isXml(in)) {
+                return new MarcXmlCollectionReader(in);
+            }
+            return new Iso2709Reader(in, marcNamespace);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if the first character after an optional byte order mark and whitespace is '&lt;'
+     */
+    private static boolean isXml(InputStream in) throws IOException {
+        in.mark(BUFFER_SIZE);
+        try {
+            int b = in.read();
+            if (b == 0xEF && in.read() == 0xBB && in.read() == 0xBF) {
+                b = in.read();
+            }
+            while (b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+                b = in.read();
+            }
+            return b == '<';
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * Read the next record from the file
+     *
+     * @return the record, or null if there are no more records
+     * @throws IOException if the file could not be read or contains an invalid record
+     */
+    protected abstract Document readRecord() throws IOException;
+
+    /**
+     * @return the number of records handed out so far
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * @throws UncheckedIOException if the file could not be read or contains an invalid record
+     */
+    @Override
+    public boolean hasNext() {
+        if (nextRecord == null && !finished) {
+            try {
+                nextRecord = readRecord();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read marc record " + (position + 1) + ": " + e.getMessage(), e);
+            }
+            if (nextRecord == null) {
+                finished = true;
+                closeQuietly();
+            }
+        }
+        return nextRecord != null;
+    }
+
+    /**
+     * @throws UncheckedIOException if the file could not be read or contains an invalid record
+     */
+    @Override
+    public Document next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Document record = nextRecord;
+        nextRecord = null;
+        position++;
+        return record;
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            //all records have been read
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
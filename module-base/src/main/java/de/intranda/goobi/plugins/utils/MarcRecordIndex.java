@@ -0,0 +1,229 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+
+/**
+ * An index of the control- and datafields of a marc record by their tag. It answers the simple field queries generated from the mapping, such as
+ * <code>/marc:record/marc:datafield[@tag="245"][not(@ind2="2")]/marc:subfield[@code='a']</code>, without evaluating an xpath expression.
+ *
+ * The index is built for one namespace. Like the xpath expressions it replaces, it only finds fields in that namespace directly below a root
+ * element &lt;record&gt;
+ */
+public class MarcRecordIndex {
+
+    private static final Pattern FIELD_QUERY = Pattern.compile("/(?:(\\w+):)?record/(?:(\\w+):)?(datafield|controlfield)"
+            + "(?:\\[@tag=[\"']([^\"']*)[\"']\\])?(?:\\[@ind1=[\"']([^\"']*)[\"']\\])?"
+            + "(?:\\[@ind2=[\"']([^\"']*)[\"']\\]|(\\[not\\(@ind2=[\"']2[\"']\\)\\]))?"
+            + "(?:/(?:(\\w+):)?subfield\\[@code=[\"']([^\"']*)[\"']\\])?");
+
+    /** parsed field queries. Queries which are no simple field queries are stored as {@link FieldQuery#NONE} */
+    private static final Map<String, FieldQuery> queries = new ConcurrentHashMap<>();
+    private static final int MAX_QUERIES = 10000;
+
+    private final Document document;
+    private final Namespace namespace;
+    private final List<Element> controlfields = new ArrayList<>();
+    private final List<Element> datafields = new ArrayList<>();
+    private final Map<String, List<Element>> controlfieldsByTag = new HashMap<>();
+    private final Map<String, List<Element>> datafieldsByTag = new HashMap<>();
+
+    /**
+     * Index the fields of the given record
+     *
+     * @param document the marc record
+     * @param namespace the namespace of the record elements
+     */
+    public MarcRecordIndex(Document document, Namespace namespace) {
+        this.document = document;
+        this.namespace = namespace == null ? Namespace.NO_NAMESPACE : namespace;
+        if (document != null && document.hasRootElement()) {
+            Element root = document.getRootElement();
+            if ("record".equals(root.getName()) && this.namespace.getURI().equals(root.getNamespaceURI())) {
+                for (Element field : root.getChildren()) {
+                    if (!this.namespace.getURI().equals(field.getNamespaceURI())) {
+                        continue;
+                    }
+                    if ("datafield".equals(field.getName())) {
+                        add(field, datafields, datafieldsByTag);
+                    } else if ("controlfield".equals(field.getName())) {
+                        add(field, controlfields, controlfieldsByTag);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void add(Element field, List<Element> fields, Map<String, List<Element>> fieldsByTag) {
+        fields.add(field);
+        String tag = field.getAttributeValue("tag");
+        if (tag != null) {
+            fieldsByTag.computeIfAbsent(tag, t -> new ArrayList<>(2)).add(field);
+        }
+    }
+
+    /**
+     * @return true if this is an index of the given record in the given namespace
+     */
+    public boolean isIndexOf(Document document, Namespace namespace) {
+        return this.document == document && this.namespace.getURI().equals(namespace == null ? "" : namespace.getURI());
+    }
+
+    /**
+     * Get all datafields with the given tag and indicators
+     *
+     * @param tag the tag, or null for all datafields
+     * @param ind1 the first indicator, or null for any
+     * @param ind2 the second indicator, or null for any
+     * @param excludeInd2Value2 if true, fields with the second indicator 2 are excluded
+     * @return the matching datafields in the order of the record
+     */
+    public List<Element> getDatafields(String tag, String ind1, String ind2, boolean excludeInd2Value2) {
+        return filter(tag == null ? datafields : datafieldsByTag.getOrDefault(tag, Collections.emptyList()), ind1, ind2, excludeInd2Value2);
+    }
+
+    /**
+     * Get all controlfields with the given tag
+     *
+     * @param tag the tag, or null for all controlfields
+     * @return the matching controlfields in the order of the record
+     */
+    public List<Element> getControlfields(String tag) {
+        return new ArrayList<>(tag == null ? controlfields : controlfieldsByTag.getOrDefault(tag, Collections.emptyList()));
+    }
+
+    /**
+     * Get the subfields with the given code of all given fields
+     *
+     * @param fields the datafields
+     * @param code the subfield code
+     * @return the subfields in the order of the record
+     */
+    public List<Element> getSubfields(List<Element> fields, String code) {
+        List<Element> subfields = new ArrayList<>();
+        for (Element field : fields) {
+            for (Element subfield : field.getChildren("subfield", namespace)) {
+                if (code.equals(subfield.getAttributeValue("code"))) {
+                    subfields.add(subfield);
+                }
+            }
+        }
+        return subfields;
+    }
+
+    /**
+     * Answer a field query from the index
+     *
+     * @param query the xpath expression
+     * @param namespaces the namespaces available to the query
+     * @return the selected fields or subfields, or null if the query is no simple field query for the namespace of this index
+     */
+    public List<Element> find(String query, Namespace... namespaces) {
+        FieldQuery fieldQuery = parse(query);
+        if (fieldQuery == FieldQuery.NONE || !namespace.getURI().equals(fieldQuery.resolveNamespaceURI(namespaces))) {
+            return null;
+        }
+        List<Element> fields;
+        if (fieldQuery.controlfield) {
+            fields = filter(tagged(controlfields, controlfieldsByTag, fieldQuery.tag), fieldQuery.ind1, fieldQuery.ind2, fieldQuery.excludeInd2Value2);
+        } else {
+            fields = getDatafields(fieldQuery.tag, fieldQuery.ind1, fieldQuery.ind2, fieldQuery.excludeInd2Value2);
+        }
+        return fieldQuery.subfieldCode == null ? fields : getSubfields(fields, fieldQuery.subfieldCode);
+    }
+
+    private static List<Element> tagged(List<Element> fields, Map<String, List<Element>> fieldsByTag, String tag) {
+        return tag == null ? fields : fieldsByTag.getOrDefault(tag, Collections.emptyList());
+    }
+
+    private static List<Element> filter(List<Element> fields, String ind1, String ind2, boolean excludeInd2Value2) {
+        List<Element> result = new ArrayList<>(fields.size());
+        for (Element field : fields) {
+            if (ind1 != null && !ind1.equals(field.getAttributeValue("ind1"))) {
+                continue;
+            }
+            if (ind2 != null && !ind2.equals(field.getAttributeValue("ind2"))) {
+                continue;
+            }
+            if (excludeInd2Value2 && "2".equals(field.getAttributeValue("ind2"))) {
+                continue;
+            }
+            result.add(field);
+        }
+        return result;
+    }
+
+    private static FieldQuery parse(String query) {
+        FieldQuery fieldQuery = queries.get(query);
+        if (fieldQuery == null) {
+            fieldQuery = FieldQuery.parse(query);
+            if (queries.size() < MAX_QUERIES) {
+                queries.put(query, fieldQuery);
+            }
+        }
+        return fieldQuery;
+    }
+
+    /**
+     * A parsed field query
+     */
+    private static class FieldQuery {
+
+        private static final FieldQuery NONE = new FieldQuery();
+
+        private String prefix;
+        private boolean controlfield;
+        private String tag;
+        private String ind1;
+        private String ind2;
+        private boolean excludeInd2Value2;
+        private String subfieldCode;
+
+        private static FieldQuery parse(String query) {
+            Matcher matcher = FIELD_QUERY.matcher(query.trim());
+            if (!matcher.matches()) {
+                return NONE;
+            }
+            String prefix = matcher.group(1) == null ? "" : matcher.group(1);
+            if (!prefix.equals(matcher.group(2) == null ? "" : matcher.group(2))
+                    || matcher.group(9) != null && !prefix.equals(matcher.group(8) == null ? "" : matcher.group(8))) {
+                return NONE;
+            }
+            FieldQuery fieldQuery = new FieldQuery();
+            fieldQuery.prefix = prefix;
+            fieldQuery.controlfield = "controlfield".equals(matcher.group(3));
+            fieldQuery.tag = matcher.group(4);
+            fieldQuery.ind1 = matcher.group(5);
+            fieldQuery.ind2 = matcher.group(6);
+            fieldQuery.excludeInd2Value2 = matcher.group(7) != null;
+            fieldQuery.subfieldCode = matcher.group(9);
+            return fieldQuery;
+        }
+
+        /**
+         * @return the namespace uri bound to the prefix of the query, an empty string if the query has no prefix or null if the prefix is not
+         *         bound
+         */
+        private String resolveNamespaceURI(Namespace... namespaces) {
+            if (prefix.isEmpty()) {
+                return "";
+            }
+            for (Namespace ns : namespaces) {
+                if (ns != null && prefix.equals(ns.getPrefix())) {
+                    return ns.getURI();
+                }
+            }
+            return null;
+        }
+    }
+}
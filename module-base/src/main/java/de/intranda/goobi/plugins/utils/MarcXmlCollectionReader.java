@@ -0,0 +1,60 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jdom2.Document;
+
+/**
+ * Reads the records of a MARCXML file with a StAX stream reader. Each <code>record</code> element is built as a jdom document when it is
+ * reached, the elements around the records are read as events and discarded, so a <code>collection</code> of any size is read with constant
+ * memory. A file containing a single record is read as well.
+ *
+ * Elements are matched by their local name, the records keep the namespace of the file
+ */
+public class MarcXmlCollectionReader extends MarcFileReader {
+
+    private final XMLStreamReader reader;
+
+    /**
+     * @param in the MARCXML file. It is closed with the reader
+     * @throws IOException if the xml could not be read
+     */
+    public MarcXmlCollectionReader(InputStream in) throws IOException {
+        super(in);
+        try {
+            this.reader = SRUResponseReader.createStreamReader(in);
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to parse MARCXML: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected Document readRecord() throws IOException {
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && "record".equals(reader.getLocalName())) {
+                    return new Document(SRUResponseReader.buildElement(reader));
+                }
+            }
+            return null;
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to parse MARCXML: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            super.close();
+        }
+    }
+}
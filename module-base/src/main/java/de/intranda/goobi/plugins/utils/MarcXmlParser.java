@@ -25,10 +25,12 @@ import org.jdom2.Element;
 import org.jdom2.JDOMException;
 import org.jdom2.Namespace;
 import org.jdom2.filter.Filters;
-import org.jdom2.xpath.XPathExpression;
-import org.jdom2.xpath.XPathFactory;
 
-import de.intranda.utils.DocumentUtils;
+import de.intranda.goobi.plugins.cache.MappingDefinition;
+import de.intranda.goobi.plugins.cache.MappingRegistry;
+import de.intranda.goobi.plugins.utils.MappingPlan.FieldRule;
+import de.intranda.goobi.plugins.utils.MappingPlan.MetadataRule;
+import de.intranda.goobi.plugins.utils.MappingPlan.RoleRule;
 import de.unigoettingen.sub.search.opac.ConfigOpac;
 import de.unigoettingen.sub.search.opac.ConfigOpacDoctype;
 import ugh.dl.DigitalDocument;
@@ -44,10 +46,22 @@ import ugh.exceptions.MetadataTypeNotAllowedException;
 import ugh.exceptions.TypeNotAllowedAsChildException;
 import ugh.exceptions.TypeNotAllowedForParentException;
 
+/**
+ * Creates a digital document from a marc record. A parser holds the state of the record it is parsing, so a new parser is created for each
+ * search. The compiled mapping it uses is immutable and shared through {@link MappingPlan}
+ */
 public class MarcXmlParser {
 
     private static final Logger logger = Logger.getLogger(MarcXmlParser.class);
 
+    protected static final CompiledRegex NON_DIGITS = CompiledRegex.get("\\D");
+    private static final CompiledRegex SORTING_MARKERS = CompiledRegex.get("<<.+?>>");
+    private static final CompiledRegex GND_PREFIX = CompiledRegex.get("gnd.+");
+    private static final CompiledRegex GND_ISIL = CompiledRegex.get("^\\(DE-588\\).*");
+    private static final CompiledRegex DNB_ISIL = CompiledRegex.get("\\(DE-\\d{3}\\)");
+    private static final CompiledRegex ANY_ISIL = CompiledRegex.get("\\(.*\\)");
+    private static final CompiledRegex ANY_ISIL_WITH_IDENTIFIER = CompiledRegex.get("\\(.*\\).+");
+
     public static class RecordInformation {
         private Date recordDate;
         private String ds;
@@ -182,7 +196,10 @@ public class MarcXmlParser {
     protected static final NumberFormat noSubSortingFormat = new DecimalFormat("00");
 
     protected Document marcDoc;
+    /** the shared mapping document. It must not be modified */
     protected Document mapDoc;
+    private MappingDefinition mapping;
+    private MarcRecordIndex recordIndex;
     protected Prefs prefs;
     private boolean writeLogical;
     private boolean writePhysical;
@@ -206,52 +223,31 @@ public class MarcXmlParser {
         loadMap(mapFile);
     }
 
+    /**
+     * Get the mapping of the given file from the {@link MappingRegistry}. The file is only parsed if it has not been parsed before or has changed
+     * since
+     */
     private void loadMap(File mapFile) throws ParserException {
         if (mapFile != null && mapFile.isFile()) {
             try {
-                mapDoc = DocumentUtils.getDocumentFromFile(mapFile);
+                mapping = MappingRegistry.getMapping(mapFile);
             } catch (JDOMException e) {
                 throw new ParserException("Failed to read xml-Document from file " + mapFile.getAbsolutePath() + ":" + e.getMessage());
             } catch (IOException e) {
                 throw new ParserException("Failed to open file " + mapFile.getAbsolutePath());
             }
-            if (mapDoc == null || !mapDoc.hasRootElement() || !mapDoc.getRootElement().getName().equals("map")
-                    || mapDoc.getRootElement().getChildren("metadata").isEmpty()) {
+            if (!mapping.isValid()) {
+                mapping = null;
                 mapDoc = null;
                 throw new ParserException("Map document is either invalid or empty");
             }
+            mapDoc = mapping.getDocument();
         } else {
+            mapping = null;
             mapDoc = new Document();
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private List<Element> getMetadataList() {
-        if (mapDoc != null) {
-            return mapDoc.getRootElement().getChildren("metadata");
-        } else {
-            return new ArrayList<Element>();
-        }
-    }
-
-    @SuppressWarnings("unchecked")
-    private List<Element> getPersonList() {
-        if (mapDoc != null) {
-            return mapDoc.getRootElement().getChildren("person");
-        } else {
-            return new ArrayList<Element>();
-        }
-    }
-
-    @SuppressWarnings("unchecked")
-    private List<Element> getCorporateList() {
-        if (mapDoc != null) {
-            return mapDoc.getRootElement().getChildren("corporate");
-        } else {
-            return new ArrayList<Element>();
-        }
-    }
-
     public DigitalDocument parseMarcXml(Document marcDoc, DocStruct originalAnchor, DocStruct mappedDocStruct)
             throws ParserException, TypeNotAllowedAsChildException, MetadataTypeNotAllowedException, DocStructHasNoTypeException {
         this.marcDoc = marcDoc;
@@ -270,14 +266,17 @@ public class MarcXmlParser {
             dd.getLogicalDocStruct().addChild(originalAnchor.getAllChildren().get(0));
             this.dsLogical = dd.getLogicalDocStruct().getAllChildren().get(0);
         }
-        for (Element metadataElement : getMetadataList()) {
-            writeElementToDD(metadataElement, dd, MetadataKind.METADATA);
-        }
-        for (Element metadataElement : getPersonList()) {
-            writeElementToDD(metadataElement, dd, MetadataKind.PERSON);
-        }
-        for (Element metadataElement : getCorporateList()) {
-            writeElementToDD(metadataElement, dd, MetadataKind.CORPORATE);
+        if (mapping != null) {
+            MappingPlan plan = MappingPlan.getPlan(mapping, prefs, getNamespacePrefix());
+            for (MetadataRule rule : plan.getMetadataRules()) {
+                writeRuleToDD(rule, dd);
+            }
+            for (MetadataRule rule : plan.getPersonRules()) {
+                writeRuleToDD(rule, dd);
+            }
+            for (MetadataRule rule : plan.getCorporateRules()) {
+                writeRuleToDD(rule, dd);
+            }
         }
         addMissingMetadata(dd);
         return dd;
@@ -543,8 +542,7 @@ public class MarcXmlParser {
     private List<Element> getDocStructEle(String docStructTitle) {
         if (StringUtils.isNotBlank(docStructTitle)) {
             String query = "/map/docstruct[text()=\"" + docStructTitle + "\"]";
-            XPathExpression<Element> xpath = XPathFactory.instance().compile(query, Filters.element());
-            List<Element> nodeList = new ArrayList<Element>(xpath.evaluate(mapDoc));
+            List<Element> nodeList = new ArrayList<Element>(XPathCache.evaluate(query, Filters.element(), mapDoc));
             if (nodeList != null && !nodeList.isEmpty()) {
                 return nodeList;
             }
@@ -552,20 +550,40 @@ public class MarcXmlParser {
 
         //if no element with docStruct title has been found, return all <docstrct> elements
         String query = "/map/docstruct";
-        XPathExpression<Element> xpath = XPathFactory.instance().compile(query, Filters.element());
-        List<Element> nodeList = new ArrayList<Element>(xpath.evaluate(mapDoc));
+        List<Element> nodeList = new ArrayList<Element>(XPathCache.evaluate(query, Filters.element(), mapDoc));
         return nodeList;
     }
 
     @SuppressWarnings("unchecked")
     public String getAchorID() {
-        if (this.info != null && !this.info.hasAnchor()) {
+        return findAnchorId(this.info, marcDoc);
+    }
+
+    /**
+     * Determine the anchor identifier of a record before it is parsed, so that the anchor record can be requested while the record is mapped.
+     * The mapping file must already be set. The identifier returned by {@link #getAchorID()} after parsing remains authoritative. The state of
+     * the parser is not changed
+     *
+     * @param doc the marc record which is about to be parsed
+     * @return the expected anchor identifier, or null if the record has no anchor or it cannot be determined in advance
+     */
+    public String predictAnchorId(Document doc) {
+        try {
+            RecordInformation recordInfo = this.info != null ? this.info : getRecordInfo(doc);
+            return recordInfo == null ? null : findAnchorId(recordInfo, doc);
+        } catch (ParserException | RuntimeException e) {
+            logger.debug("Cannot determine anchor identifier in advance: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private String findAnchorId(RecordInformation info, Document doc) {
+        if (info != null && !info.hasAnchor()) {
             return null;
         }
-        XPathExpression<Element> xpath;
         String query1 = null;
         String query2 = null;
-        if (this.info.anchorDs.equals("MultiVolumeWork")) {
+        if (info.anchorDs.equals("MultiVolumeWork")) {
             query1 = "/" + getNamespacePrefix() + "record/" + getNamespacePrefix() + "datafield[@tag=\"958\"][@ind2=\"2\"]/" + getNamespacePrefix()
                     + "subfield[@code=\"a\"]";
             query2 = "/" + getNamespacePrefix() + "record/" + getNamespacePrefix() + "datafield[@tag=\"010\"]/" + getNamespacePrefix()
@@ -577,12 +595,10 @@ public class MarcXmlParser {
                     + "subfield[@code=\"a\"]";
         }
         try {
-            xpath = XPathFactory.instance().compile(query1, Filters.element(), null, namespace);
-            List<Element> nodeList = new ArrayList<Element>(xpath.evaluate(marcDoc));
+            List<Element> nodeList = getRecordNodes(query1, doc);
             if (nodeList == null || nodeList.isEmpty()) {
                 // try again with different field
-                xpath = XPathFactory.instance().compile(query2, Filters.element(), null, namespace);
-                nodeList = new ArrayList<Element>(xpath.evaluate(marcDoc));
+                nodeList = getRecordNodes(query2, doc);
             }
             if (nodeList != null && !nodeList.isEmpty() && nodeList.get(0) instanceof Element) {
                 Element node = nodeList.get(0);
@@ -612,154 +628,75 @@ public class MarcXmlParser {
         return null;
     }
 
-    private void writeElementToDD(Element metadataElement, DigitalDocument dd, MetadataKind type) {
-        writeLogical = writeLogical(metadataElement);
-        writePhysical = writePhysical(metadataElement);
-        separator = getSeparator(metadataElement);
-        writeToAnchor = writeToAnchor(metadataElement);
-        writeToChild = writeToChild(metadataElement);
-        String mdTypeName = getMetadataName(metadataElement);
-        logger.debug("Writing metadata " + mdTypeName);
-
-        if (MetadataKind.METADATA != type) {
-            @SuppressWarnings("unchecked")
-            List<Element> roleList = metadataElement.getChildren("Role");
-
-            List<Element> xPathElements = getXPaths(metadataElement);
+    /**
+     * Execute a rule of the mapping plan on the current record
+     */
+    private void writeRuleToDD(MetadataRule rule, DigitalDocument dd) {
+        writeLogical = rule.isLogical();
+        writePhysical = rule.isPhysical();
+        separator = rule.getSeparator();
+        writeToAnchor = rule.isWriteToAnchor(treatAsPeriodical);
+        writeToChild = rule.isWriteToChild(treatAsPeriodical);
+        logger.debug("Writing metadata " + rule.getName());
+
+        if (MetadataKind.METADATA != rule.getKind()) {
             //for all person marcfields
-            for (Element eleXpath : xPathElements) {
-                String ignoreRegex = eleXpath.getAttributeValue("ignore");
-                if (ignoreRegex != null) {
-                    ignoreRegex.replace("\\", "\\\\");
-                } else {
-                    ignoreRegex = "";
-                }
-                List<Condition> conditions = getConditions(eleXpath.getChildren("condition"));
+            for (FieldRule field : rule.getFields()) {
                 try {
                     //get nodes for this marcfield
-                    String query = generateQuery(eleXpath);
-                    List<Element> nodeList = getXpathNodes(query);
+                    List<Element> nodeList = getXpathNodes(field.getQuery());
                     //for all defined roles
-                    for (Element roleElement : roleList) {
+                    for (RoleRule role : rule.getRoles()) {
                         //get nodes that match the role, remove them from the total node list and write person metadata if possible
-                        List<Element> roleNodeList = filterByRole(nodeList, roleElement);
+                        List<Element> roleNodeList = filterByRole(nodeList, role);
                         nodeList.removeAll(roleNodeList);
-                        MetadataType mdType = getMetadataType(roleElement);
-                        if (mdType != null) {
-                            if (MetadataKind.PERSON == type) {
-                                writePersonNodeValues(roleNodeList, mdType, ignoreRegex, conditions);
-                            } else if (MetadataKind.CORPORATE == type) {
-                                writeCorporateNodeValues(roleNodeList, mdType, ignoreRegex, conditions);
-                            }
-                        }
+                        writeNodeValues(rule.getKind(), roleNodeList, role.getType(), field);
                     }
                     //write person metadata for remaining nodes
-                    MetadataType mdType = getMetadataType(mdTypeName);
-                    if (mdType != null) {
-                        if (MetadataKind.PERSON == type) {
-                            writePersonNodeValues(nodeList, mdType, ignoreRegex, conditions);
-                        } else if (MetadataKind.CORPORATE == type) {
-                            writeCorporateNodeValues(nodeList, mdType, ignoreRegex, conditions);
-                        }
-                    }
+                    writeNodeValues(rule.getKind(), nodeList, rule.getType(), field);
                 } catch (JDOMException e) {
-                    logger.error("Error getting nodes for person " + mdTypeName, e);
+                    logger.error("Error getting nodes for person " + rule.getName(), e);
                 }
             }
         } else {
-            MetadataType mdType = prefs.getMetadataTypeByName(mdTypeName);
+            MetadataType mdType = rule.getType();
             if (mdType == null) {
-                LOGGER.error("Unable To create metadata type " + mdTypeName);
                 return;
             }
             if (mdType.getIsPerson()) {
-                writePersonXPaths(getXPaths(metadataElement), mdType);
+                writePersonXPaths(rule.getFields(), mdType);
             } else {
-                writeMetadataXPaths(getXPaths(metadataElement), mdType, !separateXPaths(metadataElement));
+                writeMetadataXPaths(rule.getFields(), mdType, rule.isMergeXPaths());
             }
         }
 
     }
 
-    private String getMetadataName(Element metadataElement) {
-        return metadataElement.getChildText("name");
-    }
-
-    private String getSeparator(Element metadataElement) {
-        if (metadataElement.getAttribute("separator") != null) {
-            return metadataElement.getAttributeValue("separator");
-        } else {
-            return " ";
-        }
-    }
-
-    private boolean writeLogical(Element metadataElement) {
-        return ("true".equals(metadataElement.getAttributeValue("logical")));
-    }
-
-    private boolean writePhysical(Element metadataElement) {
-        return ("true".equals(metadataElement.getAttributeValue("physical")));
-    }
-
-    private boolean writeToAnchor(Element metadataElement) {
-        if (treatAsPeriodical) {
-            if (metadataElement.getAttributeValue("anchor") != null && !metadataElement.getAttributeValue("anchor").isEmpty()) {
-                if (metadataElement.getAttributeValue("anchor").equalsIgnoreCase("false")) {
-                    return false;
-                }
-            }
-            return true;
-        } else {
-            if (metadataElement.getAttributeValue("anchor") != null && !metadataElement.getAttributeValue("anchor").isEmpty()) {
-                if (metadataElement.getAttributeValue("anchor").equalsIgnoreCase("true")) {
-                    return true;
-                }
+    private void writeNodeValues(MetadataKind kind, List<Element> nodeList, MetadataType mdType, FieldRule field) {
+        if (mdType != null) {
+            if (MetadataKind.PERSON == kind) {
+                writePersonNodeValues(nodeList, mdType, field);
+            } else if (MetadataKind.CORPORATE == kind) {
+                writeCorporateNodeValues(nodeList, mdType, field);
             }
-            return false;
         }
     }
 
-    private boolean writeToChild(Element metadataElement) {
-        if (treatAsPeriodical) {
-            if (metadataElement.getAttributeValue("child") != null && !metadataElement.getAttributeValue("child").isEmpty()) {
-                if (metadataElement.getAttributeValue("child").equalsIgnoreCase("true")) {
-                    return true;
-                }
-            }
-            return false;
-        } else {
-            if (metadataElement.getAttributeValue("child") != null && !metadataElement.getAttributeValue("child").isEmpty()) {
-                if (metadataElement.getAttributeValue("child").equalsIgnoreCase("false")) {
-                    return false;
-                }
-            }
-            return true;
-        }
-    }
-
-    private void writeMetadataXPaths(List<Element> eleXpathList, MetadataType mdType, boolean mergeXPaths) {
+    private void writeMetadataXPaths(List<FieldRule> fields, MetadataType mdType, boolean mergeXPaths) {
 
         List<GoobiMetadataValue> valueList = new ArrayList<>();
-        for (Element eleXpath : eleXpathList) {
+        for (FieldRule field : fields) {
             try {
-                boolean mergeOccurances = !separateOccurances(eleXpath);
-                boolean mergeSubfields = !separateSubfields(eleXpath);
-                String query = generateQuery(eleXpath);
-                String subfields = eleXpath.getAttributeValue("subfields");
-                List<Element> nodeList = getXpathNodes(query);
-                String prefix = eleXpath.getAttributeValue("prefix");
-                String suffix = eleXpath.getAttributeValue("suffix");
-                String ignoreRegex = eleXpath.getAttributeValue("ignore");
-                List<Condition> conditions = getConditions(eleXpath.getChildren("condition"));
-                if (ignoreRegex != null) {
-                    ignoreRegex.replace("\\", "\\\\");
-                }
+                boolean mergeOccurances = field.isMergeOccurances();
+                boolean mergeSubfields = field.isMergeSubfields();
+                List<Element> nodeList = getXpathNodes(field.getQuery());
+                String prefix = field.getPrefix();
+                String suffix = field.getSuffix();
 
-                
                 // read values
                 if (nodeList != null && !nodeList.isEmpty()) {
                     List<GoobiMetadataValue> nodeValueList =
-                            getMetadataNodeValues(nodeList, subfields, mdType, mergeSubfields, ignoreRegex, conditions);
+                            getMetadataNodeValues(nodeList, field.getSubfields(), mdType, mergeSubfields, field);
 
                     List<GoobiMetadataValue> tempList = new ArrayList<>();
                     StringBuilder sb = new StringBuilder();
@@ -806,7 +743,7 @@ public class MarcXmlParser {
                 }
 
             } catch (JDOMException e) {
-                LOGGER.error("Error parsing mods section for node " + eleXpath.getTextTrim(), e);
+                LOGGER.error("Error parsing mods section for node " + field.getQuery(), e);
                 continue;
             }
         }
@@ -838,14 +775,6 @@ public class MarcXmlParser {
 
     }
 
-    private List<Condition> getConditions(List<Element> conditionElements) {
-        List<Condition> conditions = new ArrayList<>();
-        for (Element element : conditionElements) {
-            conditions.add(new Condition(element));
-        }
-        return conditions;
-    }
-
     private void writeCurrentNoSort(String value) {
         if (dsLogical != null && !dsLogical.hasMetadataType(prefs.getMetadataTypeByName("CurrentNoSorting"))) {
             String sortingValue = createCurrentNoSort(value);
@@ -862,7 +791,7 @@ public class MarcXmlParser {
 
     protected String createCurrentNoSort(String value) {
         if (value != null) {
-            value = value.replaceAll("\\D", "");
+            value = NON_DIGITS.replaceAll(value, "");
         }
         return value;
     }
@@ -873,7 +802,7 @@ public class MarcXmlParser {
     private void writeSortingTitle(String value) {
         DocStruct myDs = dsLogical != null ? dsLogical : dsAnchor;
         if (myDs != null && !myDs.hasMetadataType(prefs.getMetadataTypeByName("TitleDocMainShort"))) {
-            String sortedValue = value.replaceAll("<<.+?>>", "").trim();
+            String sortedValue = SORTING_MARKERS.replaceAll(value, "").trim();
             try {
                 Metadata md = new Metadata(prefs.getMetadataTypeByName("TitleDocMainShort"));
                 md.setValue(sortedValue);
@@ -950,68 +879,33 @@ public class MarcXmlParser {
         return eleList;
     }
 
-    private void writePersonXPaths(List<Element> eleXpathList, MetadataType mdType) {
+    private void writePersonXPaths(List<FieldRule> fields, MetadataType mdType) {
 
-        for (Element eleXpath : eleXpathList) {
-            String ignoreRegex = eleXpath.getAttributeValue("ignore");
-            List<Condition> conditions = getConditions(eleXpath.getChildren("condition"));
-            if (ignoreRegex != null) {
-                ignoreRegex.replace("\\", "\\\\");
-            } else {
-                ignoreRegex = "";
-            }
+        for (FieldRule field : fields) {
             try {
-                String query = generateQuery(eleXpath);
-                List<Element> nodeList = getXpathNodes(query);
+                List<Element> nodeList = getXpathNodes(field.getQuery());
                 if (nodeList != null) {
-                    writePersonNodeValues(nodeList, mdType, ignoreRegex, conditions);
+                    writePersonNodeValues(nodeList, mdType, field);
                 }
 
             } catch (JDOMException e) {
-                LOGGER.error("Error parsing mods section for node " + eleXpath.getTextTrim(), e);
+                LOGGER.error("Error parsing mods section for node " + field.getQuery(), e);
                 continue;
             }
         }
     }
 
-    /**
-     * Retrieves a metadata type from either the text of the given element or the text of the first child named 'name'
-     * 
-     * @param roleElement
-     * @return
-     */
-    private MetadataType getMetadataType(Element roleElement) {
-        String typeName = roleElement.getValue().trim();
-        if (StringUtils.isBlank(typeName)) {
-            typeName = roleElement.getChildText("name", null);
-        }
-        MetadataType type = prefs.getMetadataTypeByName(typeName);
-        return type;
-    }
-
-    /**
-     * Retrieves a metadaty type from the given string
-     * 
-     * @param mdTypeName
-     * @return
-     */
-    private MetadataType getMetadataType(String mdTypeName) {
-        MetadataType type = prefs.getMetadataTypeByName(mdTypeName);
-        return type;
-    }
-
-    private List<Element> filterByRole(List<Element> nodeList, Element roleElement) {
+    private List<Element> filterByRole(List<Element> nodeList, RoleRule role) {
         List<Element> returnList = new LinkedList<Element>();
         for (Element node : nodeList) {
             boolean write = false;
-            String subfield = roleElement.getAttributeValue("subfield");
-            String subfieldValue = roleElement.getAttributeValue("value");
-            List<Element> subfieldList = getSubfieldsByCode(node, subfield);
+            String subfieldValue = role.getValue();
+            List<Element> subfieldList = getSubfieldsByCode(node, role.getSubfield());
             if (subfieldValue == null || subfieldValue.isEmpty() && subfieldList.isEmpty()) {
                 write = true;
             } else {
                 for (Element element : subfieldList) {
-                    if (element.getValue().trim().matches(subfieldValue.trim())) {
+                    if (role.matchesValue(element.getValue().trim())) {
                         write = true;
                         break;
                     }
@@ -1024,31 +918,6 @@ public class MarcXmlParser {
         return returnList;
     }
 
-    private String generateQuery(Element eleXpath) {
-        String tag = eleXpath.getAttributeValue("tag");
-        String ind1 = eleXpath.getAttributeValue("ind1");
-        String ind2 = eleXpath.getAttributeValue("ind2");
-        //		String subfields = eleXpath.getAttributeValue("subfields");
-        String fieldType = "datafield";
-        if (tag.startsWith("00")) {
-            fieldType = "controlfield";
-        }
-        StringBuilder query = new StringBuilder("/" + getNamespacePrefix() + "record/" + getNamespacePrefix() + fieldType);
-        if (tag != null) {
-            query.append("[@tag=\"" + tag + "\"]");
-        }
-        if (ind1 != null) {
-            query.append("[@ind1=\"" + ind1 + "\"]");
-        }
-        if (ind2 != null) {
-            query.append("[@ind2=\"" + ind2 + "\"]");
-        } else if (!"true".equals(eleXpath.getParentElement().getAttributeValue("child"))) {
-            query.append("[not(@ind2=\"2\")]");
-        }
-
-        return query.toString();
-    }
-
     protected String generateQuery(String tag, String ind1, String ind2, String subfield) {
         //		String subfields = eleXpath.getAttributeValue("subfields");
         StringBuilder query = new StringBuilder("/" + getNamespacePrefix() + "record/" + getNamespacePrefix() + "datafield");
@@ -1081,19 +950,58 @@ public class MarcXmlParser {
         return getXpathNodes(query, marcDoc, namespace);
     }
 
-    protected List<Element> getXpathNodes(String query, Document doc, Namespace namespace) throws JDOMException {
+    /**
+     * Answers a query for the given marc record from the record index if possible, otherwise as xpath
+     */
+    private List<Element> getRecordNodes(String query, Document doc) throws JDOMException {
+        List<Element> nodeList = getIndexedNodes(doc, query, namespace);
+        return nodeList != null ? nodeList : getXpathNodes(query, doc, namespace);
+    }
 
-        XPathExpression<Element> xpath;
-        if (namespace != null) {
-            xpath = XPathFactory.instance().compile(query, Filters.element(), null, namespace);
-        } else {
-            xpath = XPathFactory.instance().compile(query, Filters.element());
+    protected List<Element> getXpathNodes(String query, Document doc, Namespace namespace) throws JDOMException {
+        if (doc != null && doc == marcDoc) {
+            List<Element> nodeList = getIndexedNodes(query, namespace);
+            if (nodeList != null) {
+                return nodeList;
+            }
         }
-        List<Element> nodeList = new ArrayList<Element>(xpath.evaluate(doc));
+        List<Element> nodeList = new ArrayList<Element>(XPathCache.evaluate(query, Filters.element(), doc, namespace));
         return nodeList;
     }
 
-    private void writePersonNodeValues(List<Element> xPathNodeList, MetadataType mdType, String ignoreRegex, List<Condition> conditions) {
+    /**
+     * Answers a query for marc fields or subfields of the current record from the record index. The index is built on the first query for a
+     * record
+     *
+     * @param query the xpath query
+     * @param namespaces the namespaces available to the query
+     * @return the selected nodes, or null if the query cannot be answered from the index and must be evaluated as xpath
+     */
+    protected List<Element> getIndexedNodes(String query, Namespace... namespaces) {
+        return getIndexedNodes(marcDoc, query, namespaces);
+    }
+
+    /**
+     * Answers a query for marc fields or subfields of the given record from the record index. The index is kept for the last queried record,
+     * so the index built while predicting the anchor identifier is reused when the same record is parsed
+     *
+     * @param doc the marc record
+     * @param query the xpath query
+     * @param namespaces the namespaces available to the query
+     * @return the selected nodes, or null if the query cannot be answered from the index and must be evaluated as xpath
+     */
+    protected List<Element> getIndexedNodes(Document doc, String query, Namespace... namespaces) {
+        if (doc == null || !doc.hasRootElement()) {
+            return null;
+        }
+        Namespace recordNamespace = doc.getRootElement().getNamespace();
+        if (recordIndex == null || !recordIndex.isIndexOf(doc, recordNamespace)) {
+            recordIndex = new MarcRecordIndex(doc, recordNamespace);
+        }
+        return recordIndex.find(query, namespaces);
+    }
+
+    private void writePersonNodeValues(List<Element> xPathNodeList, MetadataType mdType, FieldRule field) {
         for (Element node : xPathNodeList) {
             String displayName = "";
             String nameNumeration = "";
@@ -1107,17 +1015,8 @@ public class MarcXmlParser {
             String identifier = "";
             String roleTerm = mdType.getName();
 
-          //check write conditions for element
-            boolean write = conditions.isEmpty();
-            for (Condition condition : conditions) {
-                if (condition.matches(node)) {
-                    write = true;
-                } else {
-                    write = false;
-                    break;
-                }
-            }
-            if (!write) {
+            //check write conditions for element
+            if (!field.matchesConditions(node)) {
                 continue;
             }            
             // get subelements of person
@@ -1175,12 +1074,12 @@ public class MarcXmlParser {
             // create and write metadata
             if (StringUtils.isNotEmpty(lastName)) {
                 Person person = null;
-                firstName = firstName.replaceAll(ignoreRegex, "").trim();
-                lastName = lastName.replaceAll(ignoreRegex, "").trim();
-                termsOfAddress = termsOfAddress.replaceAll(ignoreRegex, "").trim();
-                displayName = displayName.replaceAll(ignoreRegex, "").trim();
-                affiliation = affiliation.replaceAll(ignoreRegex, "").trim();
-                institution = institution.replaceAll(ignoreRegex, "").trim();
+                firstName = field.removeIgnored(firstName).trim();
+                lastName = field.removeIgnored(lastName).trim();
+                termsOfAddress = field.removeIgnored(termsOfAddress).trim();
+                displayName = field.removeIgnored(displayName).trim();
+                affiliation = field.removeIgnored(affiliation).trim();
+                institution = field.removeIgnored(institution).trim();
                 try {
                     person = new Person(mdType);
                     person.setFirstname(firstName);
@@ -1215,24 +1114,15 @@ public class MarcXmlParser {
 
     }
 
-    private void writeCorporateNodeValues(List<Element> xPathNodeList, MetadataType mdType, String ignoreRegex, List<Condition> conditions) {
+    private void writeCorporateNodeValues(List<Element> xPathNodeList, MetadataType mdType, FieldRule field) {
         for (Element node : xPathNodeList) {
             String displayName = "";
             List<String> authorityIDs = new ArrayList<>();
             String identifier = "";
             String roleTerm = mdType.getName();
 
-          //check write conditions for element
-            boolean write = conditions.isEmpty();
-            for (Condition condition : conditions) {
-                if (condition.matches(node)) {
-                    write = true;
-                } else {
-                    write = false;
-                    break;
-                }
-            }
-            if (!write) {
+            //check write conditions for element
+            if (!field.matchesConditions(node)) {
                 continue;
             }   
             
@@ -1256,7 +1146,7 @@ public class MarcXmlParser {
             // create and write metadata
             if (StringUtils.isNotEmpty(displayName)) {
                 Metadata corporate = null;
-                displayName = displayName.replaceAll(ignoreRegex, "").trim();
+                displayName = field.removeIgnored(displayName).trim();
                 try {
                     corporate = new Metadata(mdType);
                     corporate.setValue(displayName);
@@ -1285,12 +1175,12 @@ public class MarcXmlParser {
             if (catalogue.equals("gnd")) {
                 per.setAutorityFile(catalogue, "http://d-nb.info/gnd/", identifier);
             }
-        } else if (content.matches("gnd.+")) {
+        } else if (GND_PREFIX.matches(content)) {
             per.setAutorityFile("gnd", "http://d-nb.info/gnd/", content.replace("gnd", ""));
-        } else if (content.matches("^\\(DE-588\\).*")) {
-            per.setAutorityFile("gnd", "http://d-nb.info/gnd/", content.replaceAll("\\(DE-\\d{3}\\)", ""));
-        } else if (forceSet && content.matches("\\(.*\\).+")) {
-            per.setAutorityFile("gnd", "http://d-nb.info/gnd/", content.replaceAll("\\(.*\\)", ""));
+        } else if (GND_ISIL.matches(content)) {
+            per.setAutorityFile("gnd", "http://d-nb.info/gnd/", DNB_ISIL.replaceAll(content, ""));
+        } else if (forceSet && ANY_ISIL_WITH_IDENTIFIER.matches(content)) {
+            per.setAutorityFile("gnd", "http://d-nb.info/gnd/", ANY_ISIL.replaceAll(content, ""));
         } else if (forceSet) {
             per.setAutorityFile("gnd", "http://d-nb.info/gnd/", content);
         }
@@ -1415,7 +1305,7 @@ public class MarcXmlParser {
     }
 
     private List<GoobiMetadataValue> getMetadataNodeValues(@SuppressWarnings("rawtypes") List nodeList, String subfields, MetadataType mdType,
-            boolean mergeOccurances, String ignoreRegex, List<Condition> conditions) {
+            boolean mergeOccurances, FieldRule field) {
 
         List<GoobiMetadataValue> valueList = new ArrayList<>();
         Set<String> codes = new HashSet<String>();
@@ -1426,24 +1316,13 @@ public class MarcXmlParser {
                 Element eleValue = (Element) objValue;
 
                 //check write conditions for element
-                boolean write = conditions.isEmpty();
-                for (Condition condition : conditions) {
-                    if (condition.matches(eleValue)) {
-                        write = true;
-                    } else {
-                        write = false;
-                        break;
-                    }
-                }
-                if (!write) {
+                if (!field.matchesConditions(eleValue)) {
                     continue;
                 }
                 LOGGER.debug("mdType: " + mdType.getName() + "; Value: " + eleValue.getTextTrim());
                 if (StringUtils.isNotBlank(eleValue.getTextTrim())) {
                     String string = eleValue.getTextTrim();
-                    if (ignoreRegex != null) {
-                        string = string.replaceAll(ignoreRegex, "");
-                    }
+                    string = field.removeIgnored(string);
                     if (mergeOccurances) {
                         value.setValue(value.getValue() + string + separator);
                         //                        value += string + separator;
@@ -1459,9 +1338,7 @@ public class MarcXmlParser {
                     String code = subfield.getAttributeValue("code");
                     if (localSubfields != null && localSubfields.contains(code)) {
                         String string = subfield.getValue();
-                        if (ignoreRegex != null) {
-                            string = string.replaceAll(ignoreRegex, "");
-                        }
+                        string = field.removeIgnored(string);
                         if (codes.add(code) || mergeOccurances) {
                             value.setValue(value.getValue() + string + separator);
                         } else {
@@ -1490,9 +1367,7 @@ public class MarcXmlParser {
                 Attribute atrValue = (Attribute) objValue;
                 LOGGER.debug("mdType: " + mdType.getName() + "; Value: " + atrValue.getValue());
                 value.setValue(atrValue.getValue());
-                if (ignoreRegex != null) {
-                    value.setValue(value.getValue().replaceAll(ignoreRegex, ""));
-                }
+                value.setValue(field.removeIgnored(value.getValue()));
             }
             if (value.getValue().length() > separator.length()) {
                 value.setValue(value.getValue().substring(0, value.getValue().length() - separator.length()));
@@ -1505,51 +1380,6 @@ public class MarcXmlParser {
         return valueList;
     }
 
-    private boolean separateXPaths(Element metadataElement) {
-        Attribute attr = metadataElement.getAttribute("separateXPaths");
-        // if(attr == null) {
-        // attr =
-        // metadataElement.getParentElement().getAttribute("separateXPaths");
-        // }
-        if (attr != null && attr.getValue().equals("true")) {
-            return true;
-        } else {
-            return false;
-        }
-    }
-
-    private boolean separateSubfields(Element xpathElement) {
-        Attribute attr = xpathElement.getAttribute("separateSubfields");
-        if (attr == null) {
-            attr = xpathElement.getParentElement().getAttribute("separateSubfields");
-        }
-        if (attr != null && attr.getValue().equals("true")) {
-            return true;
-        } else if (attr != null && attr.getValue().equals("false")) {
-            return false;
-        } else {
-            return separateOccurances(xpathElement);
-        }
-    }
-
-    private boolean separateOccurances(Element xpathElement) {
-        Attribute attr = xpathElement.getAttribute("separateOccurances");
-        if (attr == null) {
-            attr = xpathElement.getParentElement().getAttribute("separateOccurances");
-        }
-        if (attr != null && attr.getValue().equals("true")) {
-            return true;
-        } else {
-            return false;
-        }
-    }
-
-    private List<Element> getXPaths(Element metadataElement) {
-        @SuppressWarnings("unchecked")
-        List<Element> xPathElements = metadataElement.getChildren("marcfield");
-        return xPathElements;
-    }
-
     public class ParserException extends Exception {
 
         private static final long serialVersionUID = 8545796396812133082L;
@@ -43,7 +43,7 @@ public class MarcXmlParserFU extends MarcXmlParser {
 
     @Override
     protected String createCurrentNoSort(String value) {
-    	 value = value.replaceAll("\\D", "");
+    	 value = NON_DIGITS.replaceAll(value, "");
          return value;
     }
 
@@ -14,8 +14,6 @@ import org.jdom2.Element;
 import org.jdom2.JDOMException;
 import org.jdom2.Namespace;
 import org.jdom2.filter.Filters;
-import org.jdom2.xpath.XPathExpression;
-import org.jdom2.xpath.XPathFactory;
 
 import ugh.dl.MetadataType;
 import ugh.dl.Prefs;
@@ -23,9 +21,14 @@ import ugh.dl.Prefs;
 public class MarcXmlParserHU extends MarcXmlParser {
     
     private static final Logger logger = Logger.getLogger(MarcXmlParserHU.class);
+
+    private static final CompiledRegex DIGITS = CompiledRegex.get("\\d+");
+    private static final CompiledRegex RANGE_SEPARATOR = CompiledRegex.get("[/-]");
+
     protected static final Namespace NS_MARC = Namespace.getNamespace("marc", "http://www.loc.gov/MARC21/slim");
     protected static final Namespace NS_SLIM = Namespace.getNamespace("slim", "http://www.loc.gov/MARC21/slim");
-    private static final NumberFormat[] currentNoSortingFormats = {new DecimalFormat("0000"), new DecimalFormat("000"), new DecimalFormat("00")};
+    /** DecimalFormat is not thread safe, so each parser has its own formats */
+    private final NumberFormat[] currentNoSortingFormats = {new DecimalFormat("0000"), new DecimalFormat("000"), new DecimalFormat("00")};
 
 
     public MarcXmlParserHU(Prefs prefs) throws ParserException {
@@ -39,13 +42,17 @@ public class MarcXmlParserHU extends MarcXmlParser {
             nsPrefix = getNamespace().getPrefix() + ":";
         }
         String query = "/"+nsPrefix+"record/"+nsPrefix+"datafield[@tag=\"959\"]/"+nsPrefix+"subfield[@code=\"a\"]";
-            XPathExpression<Element> xpath = XPathFactory.instance().compile(query, Filters.element(), null, getNamespace());
-            List<Element> nodeList = xpath.evaluate(marcDoc);//selectNodes(marcDoc);
+        List<Element> nodeList;
+        try {
+            nodeList = getXpathNodes(query, marcDoc, getNamespace());
             if(nodeList == null || nodeList.isEmpty()) {
                 query = "/"+nsPrefix+"record/"+nsPrefix+"datafield[@tag=\"655\"]/"+nsPrefix+"subfield[@code=\"a\"]";
-                xpath = XPathFactory.instance().compile(query, Filters.element(), null, getNamespace());
-                nodeList = xpath.evaluate(marcDoc);//selectNodes(marcDoc);
+                nodeList = getXpathNodes(query, marcDoc, getNamespace());
             }
+        } catch (JDOMException e) {
+            LOGGER.error(e.toString(), e);
+            return "";
+        }
             if(nodeList != null && !nodeList.isEmpty()) {
                 StringBuilder sb = new StringBuilder();
                 for (Element element : nodeList) {
@@ -67,7 +74,7 @@ public class MarcXmlParserHU extends MarcXmlParser {
         String value = mdValue.getValue();
         if(mdType.getName().equals("CurrentNo")) {
            String[] tokens = value.split(separator);
-           if(tokens.length > 1 && !tokens[tokens.length-1].trim().matches("\\d+") && tokens[tokens.length-2].trim().matches("\\d+")) {
+           if(tokens.length > 1 && !DIGITS.matches(tokens[tokens.length-1].trim()) && DIGITS.matches(tokens[tokens.length-2].trim())) {
                tokens = Arrays.copyOfRange(tokens, 0, tokens.length-1);
            }
            String ret = StringUtils.join(tokens, separator);
@@ -90,14 +97,13 @@ public class MarcXmlParserHU extends MarcXmlParser {
                 if (parts.length > i && !parts[i].isEmpty()) {
                     try {
                         if (parts[i].contains("/") || parts[i].contains("-")) {
-                            String[] subparts = parts[i].split("[/-]");
+                            String[] subparts = RANGE_SEPARATOR.split(parts[i]);
                             if (subparts.length > 0) {
                                 partSort = sortingFormat.format(Integer
-                                        .valueOf(subparts[0].replaceAll("\\D",
-                                                "")));
+                                        .valueOf(NON_DIGITS.replaceAll(subparts[0], "")));
                             }
                         } else {
-                            String sortedPart = parts[i].replaceAll("\\D", "");
+                            String sortedPart = NON_DIGITS.replaceAll(parts[i], "");
                             int no = Integer.valueOf(sortedPart);
                             partSort = sortingFormat.format(no);
                         }
@@ -109,15 +115,17 @@ public class MarcXmlParserHU extends MarcXmlParser {
             }
             sortingValue = builder.toString();
         } else {
-            sortingValue = value.replaceAll("\\D", "");
+            sortingValue = NON_DIGITS.replaceAll(value, "");
         }
         return sortingValue;
     }
     
     @Override
     protected List<Element> getXpathNodes(String query) throws JDOMException {
-        XPathExpression<Element> xpath = XPathFactory.instance().compile(query, Filters.element(), null, NS_MARC, NS_SLIM);
-        List<Element> nodeList = new ArrayList<>(xpath.evaluate(marcDoc));
+        List<Element> nodeList = getIndexedNodes(query, NS_MARC, NS_SLIM);
+        if (nodeList == null) {
+            nodeList = new ArrayList<>(XPathCache.evaluate(query, Filters.element(), marcDoc, NS_MARC, NS_SLIM));
+        }
         if (individualIdentifier != null
                 && nodeList != null
                 && nodeList.size() > 1
@@ -1,18 +1,22 @@
 package de.intranda.goobi.plugins.utils;
 
-import java.io.File;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.jdom2.Document;
+import org.jdom2.Element;
 import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
 
 import de.intranda.ugh.extension.MarcFileformat;
-import de.schlichtherle.io.FileOutputStream;
 import de.unigoettingen.sub.search.opac.ConfigOpac;
 import ugh.dl.DigitalDocument;
 import ugh.dl.DocStruct;
@@ -33,10 +37,19 @@ public class MarcXmlParserUGH extends MarcXmlParser {
     private static final Logger logger = Logger.getLogger(MarcXmlParserUGH.class);
     private static final String ANCHOR_ID_TYPE = "_anchorIdentifier";
 
+    /**
+     * The ugh marc import only reads records from a file. They are written to a memory backed file system if available, to avoid disk io
+     */
+    private static final Path TEMP_DIRECTORY = getTempDirectory();
+
     private final ConfigOpac configOpac;
 
     private String anchorId = null;
 
+    /** the serialized record, which is read a second time if a child is created for an anchor */
+    private Document serializedDoc = null;
+    private byte[] serializedMarc = null;
+
     public MarcXmlParserUGH(Prefs prefs) throws ParserException {
         super(prefs);
         this.configOpac = ConfigOpac.getInstance();
@@ -104,6 +117,25 @@ public class MarcXmlParserUGH extends MarcXmlParser {
         return this.anchorId;
     }
 
+    /**
+     * The anchor identifier is read by the ugh marc import. In advance, it is taken from the first subfield w of the fields 773 or 830, without
+     * the isil prefix
+     */
+    @Override
+    public String predictAnchorId(Document doc) {
+        for (String tag : new String[] { "773", "830" }) {
+            List<Element> subfields = getIndexedNodes(doc, generateQuery(tag, null, null, "w"), getNamespace());
+            if (subfields != null && !subfields.isEmpty()) {
+                String id = subfields.get(0).getTextTrim();
+                if (id.startsWith("(") && id.indexOf(')') > 0) {
+                    id = id.substring(id.indexOf(')') + 1);
+                }
+                return StringUtils.isBlank(id) ? null : id;
+            }
+        }
+        return null;
+    }
+
     private String parseAnchorId(DocStruct ds) {
         if (!getMetadataValues(ds, ANCHOR_ID_TYPE).isEmpty()) {
             String anchorID = getMetadataValues(ds, ANCHOR_ID_TYPE).get(0);
@@ -151,20 +183,55 @@ public class MarcXmlParserUGH extends MarcXmlParser {
         return iddig;
     }
 
-    private Fileformat readMarc(Document marcDoc, DocStruct docStruct) throws ParserException {
+    Fileformat readMarc(Document marcDoc, DocStruct docStruct) throws ParserException {
+        Path tempFile = null;
         try {
             MarcFileformat marc = new MarcFileformat(prefs);
-            File tempFile = File.createTempFile("marc-import", "xml");
-            XMLOutputter xmlOutputter = new XMLOutputter(Format.getPrettyFormat());
-            try (FileOutputStream fos = new FileOutputStream(tempFile)) {
-                xmlOutputter.output(marcDoc, fos);
-            }
-            marc.read(tempFile.getAbsolutePath(), docStruct);
+            tempFile = Files.createTempFile(getImportDirectory(), "marc-import", ".xml");
+            Files.write(tempFile, serialize(marcDoc));
+            marc.read(tempFile.toString(), docStruct);
             return marc;
         } catch (IOException | ReadException e) {
             throw new ParserException(e);
+        } finally {
+            deleteTempFile(tempFile);
+        }
+    }
+
+    byte[] serialize(Document marcDoc) throws IOException {
+        if (serializedDoc != marcDoc) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            //trim the values like the previously used pretty format, but without indentation
+            new XMLOutputter(Format.getRawFormat().setTextMode(Format.TextMode.TRIM)).output(marcDoc, out);
+            serializedMarc = out.toByteArray();
+            serializedDoc = marcDoc;
         }
+        return serializedMarc;
+    }
 
+    private static void deleteTempFile(Path tempFile) {
+        if (tempFile != null) {
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException e) {
+                logger.warn("Cannot delete temporary file " + tempFile, e);
+            }
+        }
+    }
+
+    /**
+     * @return the directory the records are written to for the ugh marc import
+     */
+    static Path getImportDirectory() {
+        return TEMP_DIRECTORY == null ? Paths.get(System.getProperty("java.io.tmpdir")) : TEMP_DIRECTORY;
+    }
+
+    private static Path getTempDirectory() {
+        Path shm = Paths.get("/dev/shm");
+        if (Files.isDirectory(shm) && Files.isWritable(shm)) {
+            return shm;
+        }
+        return null;
     }
 
 }
@@ -0,0 +1,94 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Applies a function to the elements of a source on a thread pool and hands out the results in the order of the source. The source is read by
+ * the consuming thread, and only as far as needed to keep the given number of elements in progress, so the memory used does not depend on the
+ * size of the source
+ *
+ * @param <S> the type of the source elements
+ * @param <T> the type of the results
+ */
+public class OrderedParallelIterator<S, T> implements Iterator<T> {
+
+    private final Iterator<S> source;
+    private final Function<S, T> function;
+    private final ExecutorService executor;
+    private final int window;
+
+    private final Deque<Future<T>> running = new ArrayDeque<>();
+    private boolean cancelled = false;
+
+    /**
+     * @param source the elements. Only used by the consuming thread
+     * @param function the function applied to each element. Must be thread safe
+     * @param executor runs the function
+     * @param window the maximum number of elements in progress at the same time
+     */
+    public OrderedParallelIterator(Iterator<S> source, Function<S, T> function, ExecutorService executor, int window) {
+        this.source = source;
+        this.function = function;
+        this.executor = executor;
+        this.window = Math.max(1, window);
+    }
+
+    @Override
+    public boolean hasNext() {
+        fill();
+        return !running.isEmpty();
+    }
+
+    /**
+     * @throws CompletionException if the function threw a checked exception or the consuming thread was interrupted. Runtime exceptions of
+     *             the function are thrown unchanged
+     */
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Future<T> result = running.poll();
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            throw new CompletionException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new CompletionException(e.getCause());
+        } catch (CancellationException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private void fill() {
+        while (!cancelled && running.size() < window && source.hasNext()) {
+            S element = source.next();
+            running.add(executor.submit(() -> function.apply(element)));
+        }
+    }
+
+    /**
+     * Cancel all elements in progress. Elements which have not been read from the source yet are not processed
+     */
+    public void cancel() {
+        cancelled = true;
+        for (Future<T> result : running) {
+            result.cancel(true);
+        }
+        running.clear();
+    }
+}
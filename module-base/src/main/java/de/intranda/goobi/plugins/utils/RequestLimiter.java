@@ -0,0 +1,245 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Limits the requests sent to a catalogue, both in rate and in the number of requests running at the same time. The rate is limited by a token
+ * bucket which allows short bursts, the number of running requests by a semaphore. Requests exceeding a limit wait until they may be sent, up to
+ * a configurable timeout.
+ *
+ * Limiters are created lazily on first use and shared by all plugin instances
+ */
+public class RequestLimiter {
+
+    private static final Logger logger = Logger.getLogger(RequestLimiter.class);
+
+    private static final Map<String, RequestLimiter> limiters = new ConcurrentHashMap<>();
+
+    private final String catalogue;
+    private final LimitSettings settings;
+    private final Semaphore inFlight;
+    private final double tokensPerNano;
+    private double tokens;
+    private long lastRefill;
+
+    private RequestLimiter(String catalogue, LimitSettings settings) {
+        this.catalogue = catalogue;
+        this.settings = settings;
+        this.inFlight = settings.getMaxInFlight() > 0 ? new Semaphore(settings.getMaxInFlight(), true) : null;
+        this.tokensPerNano = settings.getRequestsPerSecond() / TimeUnit.SECONDS.toNanos(1);
+        this.tokens = settings.getBurst();
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Get the limiter of the given catalogue, creating it if necessary
+     *
+     * @param catalogue the catalogue title
+     * @param settings provides the limits. Only called if no limiter exists yet for the catalogue
+     * @return the limiter
+     */
+    public static RequestLimiter getInstance(String catalogue, Supplier<LimitSettings> settings) {
+        return limiters.computeIfAbsent(catalogue, c -> {
+            LimitSettings limitSettings = settings.get();
+            logger.debug("Creating request limiter for " + c + ": " + limitSettings);
+            return new RequestLimiter(c, limitSettings);
+        });
+    }
+
+    /**
+     * Removes the limiters of all catalogues. New limiters are created with the then current configuration on the next request
+     */
+    public static void reset() {
+        limiters.clear();
+    }
+
+    /**
+     * Wait until a request may be sent. The returned permit must be closed when the request has finished
+     *
+     * @return the permit for one request
+     * @throws IOException if no permit could be acquired within the timeout, or the thread was interrupted while waiting
+     */
+    public Permit acquire() throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.getTimeout());
+        try {
+            if (inFlight != null && !inFlight.tryAcquire(settings.getTimeout(), TimeUnit.MILLISECONDS)) {
+                throw new IOException("More than " + settings.getMaxInFlight() + " requests running on " + catalogue + " for " + settings.getTimeout()
+                        + " ms");
+            }
+            try {
+                if (tokensPerNano > 0) {
+                    long wait = reserve(deadline);
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                }
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                if (inFlight != null) {
+                    inFlight.release();
+                }
+                throw e;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a request to " + catalogue);
+        }
+        return new Permit();
+    }
+
+    /**
+     * Get a permit only if a request may be sent right away without exceeding the limits. The returned permit must be closed when the request
+     * has finished
+     *
+     * @return the permit for one request, or null if the request would have to wait
+     */
+    public Permit tryAcquire() {
+        try {
+            if (inFlight != null && !inFlight.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (tokensPerNano > 0 && !tryTake()) {
+            if (inFlight != null) {
+                inFlight.release();
+            }
+            return null;
+        }
+        return new Permit();
+    }
+
+    /**
+     * Take a token from the bucket if one is left
+     */
+    private synchronized boolean tryTake() {
+        long now = System.nanoTime();
+        tokens = Math.min(settings.getBurst(), tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Take a token from the bucket. If none is left, the token which becomes available next is reserved
+     *
+     * @return the time in nanoseconds until the reserved token becomes available
+     * @throws IOException if the token is not available before the deadline
+     */
+    private synchronized long reserve(long deadline) throws IOException {
+        long now = System.nanoTime();
+        tokens = Math.min(settings.getBurst(), tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+        tokens -= 1;
+        if (tokens >= 0) {
+            return 0;
+        }
+        long wait = (long) Math.ceil(-tokens / tokensPerNano);
+        if (now + wait > deadline) {
+            tokens += 1;
+            throw new IOException("More than " + settings.getRequestsPerSecond() + " requests per second to " + catalogue + " for "
+                    + settings.getTimeout() + " ms");
+        }
+        return wait;
+    }
+
+    public LimitSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * The permission to send one request. Closing it allows the next request to start
+     */
+    public class Permit implements AutoCloseable {
+
+        private boolean closed = false;
+
+        private Permit() {
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                if (inFlight != null) {
+                    inFlight.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Request limits for a catalogue, as configured in the &lt;sru&gt; section of the plugin configuration
+     */
+    public static class LimitSettings {
+        private double requestsPerSecond = 0;
+        private int burst = 1;
+        private int maxInFlight = 0;
+        private long timeout = 60000;
+
+        /**
+         * @return the maximum average number of requests per second. 0 means no limit
+         */
+        public double getRequestsPerSecond() {
+            return requestsPerSecond;
+        }
+
+        public void setRequestsPerSecond(double requestsPerSecond) {
+            this.requestsPerSecond = Math.max(0, requestsPerSecond);
+        }
+
+        /**
+         * @return the number of requests which may be sent at once after an idle period
+         */
+        public int getBurst() {
+            return burst;
+        }
+
+        public void setBurst(int burst) {
+            this.burst = Math.max(1, burst);
+        }
+
+        /**
+         * @return the maximum number of requests running at the same time. 0 means no limit
+         */
+        public int getMaxInFlight() {
+            return maxInFlight;
+        }
+
+        public void setMaxInFlight(int maxInFlight) {
+            this.maxInFlight = Math.max(0, maxInFlight);
+        }
+
+        /**
+         * @return the maximum time in milliseconds a request waits for the limits
+         */
+        public long getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(long timeout) {
+            this.timeout = Math.max(0, timeout);
+        }
+
+        public boolean isUnlimited() {
+            return requestsPerSecond <= 0 && maxInFlight <= 0;
+        }
+
+        @Override
+        public String toString() {
+            return "requestsPerSecond=" + requestsPerSecond + ", burst=" + burst + ", maxInFlight=" + maxInFlight + ", timeout=" + timeout;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.log4j.Logger;
+
+import de.intranda.goobi.plugins.utils.SRUHttpTransport.HttpStatusException;
+
+/**
+ * Repeats failed requests with exponential backoff. Only transient failures are retried: timeouts, refused or dropped connections and the http
+ * status codes 429, 502, 503 and 504. All SRU requests are GET requests and can be repeated safely.
+ *
+ * The delay doubles with each attempt, starting at the initial delay and limited by the maximum delay. A random jitter of up to half the delay
+ * keeps parallel imports from retrying all at once. If the server sends a Retry-After header, its value is used instead, unless it exceeds the
+ * maximum delay
+ */
+public class RetryPolicy {
+
+    private static final Logger logger = Logger.getLogger(RetryPolicy.class);
+
+    private int maxAttempts = 3;
+    private long initialDelay = 500;
+    private long maxDelay = 30000;
+
+    /**
+     * Send the request, repeating it while it fails transiently
+     *
+     * @param description describes the request in log messages
+     * @param request sends the request
+     * @return the result of the first successful attempt
+     * @throws IOException the failure of the last attempt, or of the first attempt which cannot be retried
+     */
+    public <T> T execute(String description, Request<T> request) throws IOException {
+        for (int attempt = 1;; attempt++) {
+            try {
+                return request.execute();
+            } catch (IOException e) {
+                long delay = attempt < maxAttempts ? getDelay(attempt, e) : -1;
+                if (delay < 0) {
+                    throw e;
+                }
+                logger.warn("Attempt " + attempt + " of " + description + " failed: " + e.getMessage() + ". Retrying in " + delay + " ms");
+                try {
+                    TimeUnit.MILLISECONDS.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to retry " + description);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param attempt the number of the failed attempt, starting at 1
+     * @param failure the failure of the attempt
+     * @return the time in milliseconds to wait before the next attempt, or -1 if the request must not be repeated
+     */
+    long getDelay(int attempt, IOException failure) {
+        if (!isRetryable(failure)) {
+            return -1;
+        }
+        if (failure instanceof HttpStatusException && ((HttpStatusException) failure).getRetryAfter() >= 0) {
+            long retryAfter = ((HttpStatusException) failure).getRetryAfter();
+            return retryAfter <= maxDelay ? retryAfter : -1;
+        }
+        long delay = Math.min(maxDelay, initialDelay << Math.min(attempt - 1, 30));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * @return true if the failure is transient, so repeating the request may succeed
+     */
+    public static boolean isRetryable(IOException failure) {
+        if (failure instanceof HttpStatusException) {
+            int status = ((HttpStatusException) failure).getStatus();
+            return status == 429 || status == 502 || status == 503 || status == 504;
+        }
+        return failure instanceof SocketTimeoutException || failure instanceof ConnectTimeoutException || failure instanceof ConnectException
+                || failure instanceof NoHttpResponseException;
+    }
+
+    /**
+     * @return the maximum number of attempts, including the first one. 1 disables retries
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    /**
+     * @return the delay in milliseconds before the second attempt
+     */
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    public void setInitialDelay(long initialDelay) {
+        this.initialDelay = Math.max(0, initialDelay);
+    }
+
+    /**
+     * @return the maximum delay in milliseconds between two attempts
+     */
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public void setMaxDelay(long maxDelay) {
+        this.maxDelay = Math.max(0, maxDelay);
+    }
+
+    @Override
+    public String toString() {
+        return "maxAttempts=" + maxAttempts + ", initialDelay=" + initialDelay + ", maxDelay=" + maxDelay;
+    }
+
+    @FunctionalInterface
+    public interface Request<T> {
+        T execute() throws IOException;
+    }
+}
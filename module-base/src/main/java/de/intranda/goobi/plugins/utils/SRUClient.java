@@ -22,14 +22,26 @@ package de.intranda.goobi.plugins.utils;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CharsetEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.entity.ContentType;
@@ -37,11 +49,12 @@ import org.apache.log4j.Logger;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
+import org.jdom2.Namespace;
 
 import de.intranda.goobi.plugins.SruOpacImport;
-import de.intranda.utils.DocumentUtils;
+import de.intranda.goobi.plugins.cache.RecordCache;
+import de.intranda.goobi.plugins.utils.SRUHttpTransport.HttpSettings;
 import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
-import io.goobi.workflow.api.connection.HttpUtils;
 
 public class SRUClient {
 
@@ -50,6 +63,28 @@ public class SRUClient {
 
     private String sruVersion = "1.1";
 
+    private final SRUHttpTransport transport;
+    private RequestLimiter limiter;
+    private RetryPolicy retryPolicy;
+    private CircuitBreaker circuitBreaker;
+    private HedgePolicy hedgePolicy;
+
+    /**
+     * Creates a client which uses the shared transport of the queried catalogue with default connection settings
+     */
+    public SRUClient() {
+        this(null);
+    }
+
+    /**
+     * Creates a client which uses the given transport for all requests
+     * 
+     * @param transport The transport to use. If null, the shared transport of the queried catalogue is used
+     */
+    public SRUClient(SRUHttpTransport transport) {
+        this.transport = transport;
+    }
+
     /**
      * Queries the given catalog via Z.3950 (SRU) and returns its response.
      * 
@@ -61,26 +96,11 @@ public class SRUClient {
      */
     public String querySRU(ConfigOpacCatalogue cat, String query, String recordSchema) throws IOException {
         String ret = null;
-        if (query != null && !query.isEmpty()) {
-            query = query.trim();
-        }
-
         if (cat != null) {
-            String url = cat.getProtocol();
-
-            url += cat.getAddress();
-            if(cat.getPort() > 0 && cat.getPort() != 80) {                
-                url += ":" + cat.getPort();
-            }
-            url += "/" + cat.getDatabase();
-            url += "?version=" + sruVersion;
-            url += "&operation=searchRetrieve";
-            url += "&query=" + query;
-            url += "&maximumRecords=5";
-            url += "&recordSchema=" + recordSchema;
-
+            String url = createQueryUrl(cat, query, recordSchema);
             logger.debug("SRU URL: " + url);
-            ret = HttpUtils.getStringFromUrl(url);
+            ret = send(url, true, cancellation -> getTransport(cat).execute(url,
+                    response -> encodeAsString(getBytes(response), getCharset(response)), cancellation));
             //            ret = StringEscapeUtils.unescapeHtml(ret);
             return ret;
         }
@@ -88,6 +108,241 @@ public class SRUClient {
         return ret;
     }
 
+    /**
+     * Queries the given catalog via SRU and reads the response directly from the http stream, without keeping the response as a whole in
+     * memory.
+     * 
+     * @param cat The catalog to query.
+     * @param query The query.
+     * @param recordSchema The expected record schema.
+     * @return The parsed response
+     * @throws IOException If connecting to the catalog failed or the response could not be parsed
+     */
+    public SRUResponse searchRetrieve(ConfigOpacCatalogue cat, String query, String recordSchema) throws IOException {
+        return execute(cat, createQueryUrl(cat, query, recordSchema), true);
+    }
+
+    /**
+     * Queries the given catalog via SRU for a range of records. Unlike {@link #searchRetrieve(ConfigOpacCatalogue, String, String)}, the query
+     * is url encoded, so it may contain any CQL expression
+     * 
+     * @param cat The catalog to query.
+     * @param query The CQL query, not encoded.
+     * @param recordSchema The expected record schema.
+     * @param startRecord The position of the first record to return, starting at 1
+     * @param maximumRecords The maximum number of records to return
+     * @return The parsed response
+     * @throws IOException If connecting to the catalog failed or the response could not be parsed
+     */
+    public SRUResponse searchRetrieve(ConfigOpacCatalogue cat, String query, String recordSchema, int startRecord, int maximumRecords)
+            throws IOException {
+        return execute(cat, createQueryUrl(cat, encode(query), recordSchema, startRecord, maximumRecords), false);
+    }
+
+    private SRUResponse execute(ConfigOpacCatalogue cat, String url, boolean lookup) throws IOException {
+        logger.debug("SRU URL: " + url);
+        return send(url, lookup, cancellation -> getTransport(cat).execute(url, response -> {
+            try (InputStream in = response.getEntity().getContent()) {
+                return SRUResponseReader.read(in, getDeclaredCharset(response));
+            }
+        }, cancellation));
+    }
+
+    /**
+     * Send a request within the limits of the limiter, repeating it according to the retry policy. Each attempt needs its own permit. If the
+     * circuit breaker is open, the request fails without being sent. All attempts of a request count as one failure of the circuit.
+     *
+     * Lookups of single records are hedged according to the hedge policy. Paged and batch requests are not, their latency depends on the number
+     * of records requested
+     */
+    private <T> T send(String url, boolean lookup, HedgePolicy.Attempt<T> request) throws IOException {
+        RetryPolicy.Request<T> limited;
+        if (lookup && hedgePolicy != null) {
+            limited = () -> hedgePolicy.execute(url, request, limiter);
+        } else {
+            limited = () -> {
+                try (RequestLimiter.Permit permit = acquirePermit()) {
+                    return request.execute(null);
+                }
+            };
+        }
+        RetryPolicy.Request<T> retried = retryPolicy == null ? limited : () -> retryPolicy.execute(url, limited);
+        return circuitBreaker == null ? retried.execute() : circuitBreaker.execute(url, retried);
+    }
+
+    /**
+     * @return the permit to send a request, or null if requests are not limited
+     */
+    private RequestLimiter.Permit acquirePermit() throws IOException {
+        return limiter == null ? null : limiter.acquire();
+    }
+
+    /**
+     * Split the search terms into batches, each of which can be retrieved with a single request using
+     * {@link #searchRetrieveBatch(ConfigOpacCatalogue, String, List, String, String)}. Duplicate terms are removed
+     * 
+     * @param cat The catalog to query.
+     * @param searchField The search field for all terms
+     * @param terms The search terms
+     * @param recordSchema The expected record schema.
+     * @param batchSize The maximum number of terms in a batch
+     * @param maxUrlLength The maximum length of the request url. A single term exceeding it still gets a batch of its own
+     * @return The batches
+     */
+    public List<List<String>> createBatches(ConfigOpacCatalogue cat, String searchField, Collection<String> terms, String recordSchema,
+            int batchSize, int maxUrlLength) {
+        List<List<String>> batches = new ArrayList<>();
+        List<String> batch = new ArrayList<>();
+        for (String term : new LinkedHashSet<>(terms)) {
+            batch.add(term);
+            if (batch.size() > 1 && (batch.size() > batchSize
+                    || createQueryUrl(cat, encode(createOrQuery(searchField, batch)), recordSchema, 1, batch.size()).length() > maxUrlLength)) {
+                batch.remove(batch.size() - 1);
+                batches.add(batch);
+                batch = new ArrayList<>();
+                batch.add(term);
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /**
+     * Retrieve the records for several search terms with a single request. The terms are combined into a CQL query like
+     * <code>field="A" or field="B"</code>, and each record of the response is assigned to the term found in its match field
+     * 
+     * @param cat The catalog to query.
+     * @param searchField The search field for all terms
+     * @param terms The search terms
+     * @param recordSchema The expected record schema.
+     * @param matchField The marc field containing the search term, either a controlfield tag like <code>001</code> or a datafield tag followed by
+     *            a subfield code like <code>035a</code>
+     * @return The found records by search term. Terms without a matching record in the response are missing
+     * @throws IOException If connecting to the catalog failed or the response could not be parsed
+     */
+    public Map<String, Document> searchRetrieveBatch(ConfigOpacCatalogue cat, String searchField, List<String> terms, String recordSchema,
+            String matchField) throws IOException {
+        Map<String, String> requested = new HashMap<>();
+        for (String term : terms) {
+            requested.put(RecordCache.normalize(term), term);
+        }
+        SRUResponse response = searchRetrieve(cat, createOrQuery(searchField, terms), recordSchema, 1, terms.size());
+        Map<String, Document> found = new LinkedHashMap<>();
+        for (Document record : response.getRecords()) {
+            for (String value : getMatchValues(record, matchField)) {
+                String term = requested.get(RecordCache.normalize(value));
+                if (term == null && value.startsWith("(") && value.indexOf(')') > 0) {
+                    //system numbers may be prefixed with the isil of the institution, as in (DE-604)BV012345678
+                    term = requested.get(RecordCache.normalize(value.substring(value.indexOf(')') + 1)));
+                }
+                if (term != null) {
+                    found.putIfAbsent(term, record);
+                    break;
+                }
+            }
+        }
+        if (found.size() < terms.size()) {
+            logger.debug("Found " + found.size() + " of " + terms.size() + " records in batch request");
+        }
+        return found;
+    }
+
+    /**
+     * Creates a CQL query matching any of the terms in the search field
+     * 
+     * @return the query, like <code>field="A" or field="B"</code>
+     */
+    public static String createOrQuery(String searchField, Collection<String> terms) {
+        StringBuilder query = new StringBuilder();
+        for (String term : terms) {
+            if (query.length() > 0) {
+                query.append(" or ");
+            }
+            query.append(searchField)
+                    .append("=\"")
+                    .append(term.trim().replace("\\", "\\\\").replace("\"", "\\\""))
+                    .append('"');
+        }
+        return query.toString();
+    }
+
+    /**
+     * @param record the marc record
+     * @param matchField a controlfield tag like <code>001</code> or a datafield tag followed by a subfield code like <code>035a</code>
+     * @return the values of the field in the record
+     */
+    public static List<String> getMatchValues(Document record, String matchField) {
+        List<String> values = new ArrayList<>();
+        if (record == null || !record.hasRootElement() || matchField == null || matchField.length() < 3) {
+            return values;
+        }
+        Namespace namespace = record.getRootElement().getNamespace();
+        MarcRecordIndex index = new MarcRecordIndex(record, namespace);
+        String tag = matchField.substring(0, 3);
+        List<Element> fields;
+        if (tag.startsWith("00")) {
+            fields = index.getControlfields(tag);
+        } else if (matchField.length() > 3) {
+            fields = index.getSubfields(index.getDatafields(tag, null, null, false), matchField.substring(3, 4));
+        } else {
+            fields = index.getDatafields(tag, null, null, false);
+        }
+        for (Element field : fields) {
+            String value = field.getTextTrim();
+            if (!value.isEmpty()) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+    private static String encode(String query) {
+        try {
+            return URLEncoder.encode(query.trim(), ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String createQueryUrl(ConfigOpacCatalogue cat, String query, String recordSchema) {
+        return createQueryUrl(cat, query, recordSchema, 0, 5);
+    }
+
+    private String createQueryUrl(ConfigOpacCatalogue cat, String query, String recordSchema, int startRecord, int maximumRecords) {
+        if (query != null && !query.isEmpty()) {
+            query = query.trim();
+        }
+        String url = cat.getProtocol();
+
+        url += cat.getAddress();
+        if (cat.getPort() > 0 && cat.getPort() != 80) {
+            url += ":" + cat.getPort();
+        }
+        url += "/" + cat.getDatabase();
+        url += "?version=" + sruVersion;
+        url += "&operation=searchRetrieve";
+        url += "&query=" + query;
+        if (startRecord > 0) {
+            url += "&startRecord=" + startRecord;
+        }
+        url += "&maximumRecords=" + maximumRecords;
+        url += "&recordSchema=" + recordSchema;
+        return url;
+    }
+
+    private SRUHttpTransport getTransport(ConfigOpacCatalogue cat) {
+        if (transport != null) {
+            return transport;
+        }
+        return SRUHttpTransport.getInstance(cat, () -> {
+            HttpSettings settings = new HttpSettings();
+            settings.setGoobiProxy(cat);
+            return settings;
+        });
+    }
+
     private static byte[] getBytes(CloseableHttpResponse response) throws IOException {
 
         try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
@@ -96,10 +351,21 @@ public class SRUClient {
         }
     }
 
+    private static String getDeclaredCharset(CloseableHttpResponse response) {
+        ContentType contentType = ContentType.get(response.getEntity());
+        if (contentType != null && contentType.getCharset() != null) {
+            return contentType.getCharset().name();
+        }
+        return null;
+    }
+
     private static Charset getCharset(CloseableHttpResponse response) {
         HttpEntity entity = response.getEntity();
         ContentType contentType = ContentType.getOrDefault(entity);
         Charset charset = contentType.getCharset();
+        if (charset == null) {
+            charset = Charset.forName(ENCODING);
+        }
         return charset;
     }
 
@@ -140,32 +406,57 @@ public class SRUClient {
     }
 
     public static Document retrieveMarcRecord(String input) throws JDOMException, IOException, SRUException {
-        Document wholeDoc = DocumentUtils.getDocumentFromString(input, null);
         try {
-            Element record = wholeDoc.getRootElement()
-                    .getChild("records", null)
-                    .getChild("record", null)
-                    .getChild("recordData", null)
-                    .getChild(
-                            "record", null);
-            Document outDoc = new Document(record.detach());
-            return outDoc;
-        } catch (NullPointerException e) {
-            Element diagnosticsEle = wholeDoc.getRootElement().getChild("diagnostics", null);
-            if (diagnosticsEle != null && diagnosticsEle.getChild("diagnostic", null) != null) {
-                throw new SRUException(diagnosticsEle.getChild("diagnostic", null).getChildText("message", null));
-            }
-            Element recordsFoundEle = wholeDoc.getRootElement().getChild("numberOfRecords", null);
-            if (recordsFoundEle != null) {
-                String recordsFoundText = recordsFoundEle.getTextTrim();
-                if (StringUtils.isNotBlank(recordsFoundText) && StringUtils.isNumeric(recordsFoundText) && Integer.parseInt(recordsFoundText) == 0) {
-                    throw new SRUException("No records found");
-                }
-            }
-            throw new SRUException("No parsable response from SRU server");
+            return SRUResponseReader.read(new StringReader(input)).getFirstRecord();
+        } catch (XMLStreamException e) {
+            throw new JDOMException("Unable to parse SRU response: " + e.getMessage(), e);
         }
     }
 
+    public RequestLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * @param limiter limits the requests of this client. If null, requests are sent without waiting
+     */
+    public void setLimiter(RequestLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @param retryPolicy decides whether failed requests are repeated. If null, requests are sent only once
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * @param circuitBreaker stops requests while the catalogue is unavailable. If null, all requests are sent
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public HedgePolicy getHedgePolicy() {
+        return hedgePolicy;
+    }
+
+    /**
+     * @param hedgePolicy decides when lookups are sent a second time. If null, lookups are not hedged
+     */
+    public void setHedgePolicy(HedgePolicy hedgePolicy) {
+        this.hedgePolicy = hedgePolicy;
+    }
+
     public String getSruVersion() {
         return sruVersion;
     }
@@ -195,4 +486,17 @@ public class SRUClient {
             super(arg0);
         }
     }
+
+    /**
+     * Thrown if the server answered that the query matches no record, without any diagnostic. Only this answer says that the record does not
+     * exist, all other failures may be temporary
+     */
+    public static class NoRecordsException extends SRUException {
+
+        private static final long serialVersionUID = 1L;
+
+        public NoRecordsException(String message) {
+            super(message);
+        }
+    }
 }
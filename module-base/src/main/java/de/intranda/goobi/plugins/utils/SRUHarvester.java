@@ -0,0 +1,171 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.log4j.Logger;
+import org.jdom2.Document;
+
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
+
+/**
+ * Pages through all records matching an SRU query using <code>startRecord</code> and <code>nextRecordPosition</code>. A page is only requested
+ * when all records of the previous page have been consumed, so no more than one page is held in memory.
+ *
+ * If a checkpoint file is given, the position of the record currently handed out is written to it, and a new harvester with the same
+ * checkpoint file continues at that record. Records are therefore handed out at least once: after a crash, the record being processed at the
+ * time is harvested again. The checkpoint file is deleted once all records have been harvested
+ */
+public class SRUHarvester implements Iterator<Document> {
+
+    private static final Logger logger = Logger.getLogger(SRUHarvester.class);
+
+    private final SRUClient client;
+    private final ConfigOpacCatalogue catalogue;
+    private final String query;
+    private final String recordSchema;
+    private final int pageSize;
+    private final Path checkpoint;
+
+    private final Deque<Document> page = new ArrayDeque<>();
+    /** the position of the first record in {@link #page} */
+    private int position;
+    /** the position of the first record of the next page, or -1 if there are no more pages */
+    private int nextPagePosition;
+    private int numberOfRecords = -1;
+
+    /**
+     * @param client the client used for the requests
+     * @param catalogue the catalogue to harvest
+     * @param query the CQL query, not url encoded
+     * @param recordSchema the record schema to request
+     * @param pageSize the number of records requested at once
+     * @param checkpoint the file storing the current position, or null to always start at the first record
+     * @throws IOException if an existing checkpoint file could not be read
+     */
+    public SRUHarvester(SRUClient client, ConfigOpacCatalogue catalogue, String query, String recordSchema, int pageSize, Path checkpoint)
+            throws IOException {
+        this.client = client;
+        this.catalogue = catalogue;
+        this.query = query;
+        this.recordSchema = recordSchema;
+        this.pageSize = Math.max(1, pageSize);
+        this.checkpoint = checkpoint;
+        this.nextPagePosition = readCheckpoint(checkpoint);
+        this.position = nextPagePosition;
+        if (nextPagePosition > 1) {
+            logger.info("Resuming harvest of " + query + " at record " + nextPagePosition);
+        }
+    }
+
+    /**
+     * @return the position of the next record to be handed out, starting at 1
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the number of records matching the query as reported by the server, or -1 if no page has been requested yet
+     */
+    public int getNumberOfRecords() {
+        return numberOfRecords;
+    }
+
+    /**
+     * @throws UncheckedIOException if the next page could not be requested
+     */
+    @Override
+    public boolean hasNext() {
+        while (page.isEmpty() && nextPagePosition > 0) {
+            requestPage();
+        }
+        if (page.isEmpty()) {
+            deleteCheckpoint();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @throws UncheckedIOException if the next page could not be requested or the checkpoint could not be written
+     */
+    @Override
+    public Document next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        writeCheckpoint(position);
+        position++;
+        return page.poll();
+    }
+
+    private void requestPage() {
+        SRUResponse response;
+        try {
+            response = client.searchRetrieve(catalogue, query, recordSchema, nextPagePosition, pageSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (response.getRecords().isEmpty() && !response.getDiagnostics().isEmpty()) {
+            throw new UncheckedIOException(new IOException("Harvest of " + query + " failed at record " + nextPagePosition + ": "
+                    + response.getDiagnostics().get(0)));
+        }
+        numberOfRecords = response.getNumberOfRecords();
+        position = nextPagePosition;
+        page.addAll(response.getRecords());
+        if (response.getNextRecordPosition() > nextPagePosition) {
+            nextPagePosition = response.getNextRecordPosition();
+        } else if (!page.isEmpty() && numberOfRecords >= nextPagePosition + page.size()) {
+            //servers may omit nextRecordPosition, continue as long as the reported number of records is not reached
+            nextPagePosition += page.size();
+        } else {
+            nextPagePosition = -1;
+        }
+        logger.debug("Harvested " + page.size() + " records of " + numberOfRecords + " at " + position);
+    }
+
+    private static int readCheckpoint(Path checkpoint) throws IOException {
+        if (checkpoint == null || !Files.isRegularFile(checkpoint)) {
+            return 1;
+        }
+        String value = new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8).trim();
+        try {
+            return Math.max(1, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid harvest checkpoint in " + checkpoint + ": " + value, e);
+        }
+    }
+
+    private void writeCheckpoint(int recordPosition) {
+        if (checkpoint == null) {
+            return;
+        }
+        try {
+            Path tempFile = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+            Files.write(tempFile, String.valueOf(recordPosition).getBytes(StandardCharsets.UTF_8));
+            Files.move(tempFile, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void deleteCheckpoint() {
+        if (checkpoint == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(checkpoint);
+        } catch (IOException e) {
+            logger.warn("Cannot delete harvest checkpoint " + checkpoint + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.ssl.SSLContexts;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
+
+/**
+ * HTTP transport for SRU requests. Each catalogue gets its own pooled http client which keeps connections alive between requests, so
+ * consecutive lookups against the same catalogue do not need a new TCP connection and TLS handshake. Catalogues on the same host get separate
+ * pools, so each one uses its own connection settings.
+ *
+ * Instances are created lazily on first use and shared by all plugin instances.
+ */
+public class SRUHttpTransport {
+
+    private static final Logger logger = Logger.getLogger(SRUHttpTransport.class);
+
+    private static final Map<String, SRUHttpTransport> transports = new ConcurrentHashMap<>();
+
+    private final String route;
+    private final HttpSettings settings;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient client;
+
+    private SRUHttpTransport(String route, HttpSettings settings) {
+        this.route = route;
+        this.settings = settings;
+
+        // a single ssl context per endpoint, so its session cache can resume TLS sessions for new pooled connections
+        Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory> create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", new SSLConnectionSocketFactory(SSLContexts.createSystemDefault(),
+                        SSLConnectionSocketFactory.getDefaultHostnameVerifier()))
+                .build();
+        this.connectionManager = new PoolingHttpClientConnectionManager(socketFactories);
+        this.connectionManager.setMaxTotal(settings.getMaxConnectionsTotal());
+        this.connectionManager.setDefaultMaxPerRoute(settings.getMaxConnectionsPerRoute());
+        this.connectionManager.setValidateAfterInactivity(2000);
+
+        RequestConfig.Builder requestConfig = RequestConfig.custom()
+                .setConnectTimeout(settings.getConnectTimeout())
+                .setSocketTimeout(settings.getReadTimeout())
+                .setConnectionRequestTimeout(settings.getConnectionRequestTimeout());
+        if (settings.getProxyHost() != null) {
+            requestConfig.setProxy(new HttpHost(settings.getProxyHost(), settings.getProxyPort()));
+        }
+
+        ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            long serverValue = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return serverValue > 0 ? Math.min(serverValue, settings.getKeepAlive()) : settings.getKeepAlive();
+        };
+
+        this.client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig.build())
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .evictExpiredConnections()
+                .evictIdleConnections(settings.getKeepAlive(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Get the shared transport for the given catalogue, creating it if necessary
+     *
+     * @param cat the catalogue to connect to
+     * @param settings provides the connection settings. Only called if no transport exists yet for the catalogue and its endpoint
+     * @return the transport for the catalogue
+     */
+    public static SRUHttpTransport getInstance(ConfigOpacCatalogue cat, Supplier<HttpSettings> settings) {
+        String route = getRoute(cat);
+        //the endpoint is part of the key, so a changed catalogue address gets a new pool
+        return transports.computeIfAbsent(cat.getTitle() + "|" + route, key -> {
+            HttpSettings httpSettings = settings.get();
+            logger.debug("Creating http connection pool for " + cat.getTitle() + " at " + route + ": " + httpSettings);
+            return new SRUHttpTransport(route, httpSettings);
+        });
+    }
+
+    /**
+     * Closes all pooled connections of all catalogues. Transports are recreated on the next request
+     */
+    public static void shutdown() {
+        for (String key : transports.keySet()) {
+            SRUHttpTransport transport = transports.remove(key);
+            if (transport != null) {
+                transport.close();
+            }
+        }
+    }
+
+    private static String getRoute(ConfigOpacCatalogue cat) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(cat.getProtocol()).append(cat.getAddress());
+        if (cat.getPort() > 0) {
+            sb.append(":").append(cat.getPort());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Executes a GET request on the given url and passes the response to the handler. The response is always closed afterwards so the connection
+     * is returned to the pool
+     *
+     * @param url the url to call
+     * @param handler reads the response
+     * @return the result of the handler
+     * @throws IOException if the request failed
+     * @throws HttpStatusException if the server did not answer with a 2xx status code
+     */
+    public <T> T execute(String url, ResponseHandler<T> handler) throws IOException {
+        return execute(url, handler, null);
+    }
+
+    /**
+     * Executes a GET request which may be cancelled from another thread, see {@link #execute(String, ResponseHandler)}
+     *
+     * @param cancellation aborts the request when cancelled. May be null
+     * @throws IOException if the request failed or was cancelled
+     */
+    public <T> T execute(String url, ResponseHandler<T> handler, Cancellation cancellation) throws IOException {
+        HttpGet get = new HttpGet(url);
+        if (cancellation != null) {
+            cancellation.setAbort(get::abort);
+        }
+        try (CloseableHttpResponse response = client.execute(get)) {
+            int status = response.getStatusLine().getStatusCode();
+            if (status < 200 || status >= 300) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                Header retryAfter = response.getFirstHeader("Retry-After");
+                String message = "Server " + route + " answered with status " + status + " " + response.getStatusLine().getReasonPhrase();
+                throw new HttpStatusException(message, status, parseRetryAfter(retryAfter == null ? null : retryAfter.getValue()));
+            }
+            return handler.handle(response);
+        }
+    }
+
+    /**
+     * @param value the value of a Retry-After header, either a number of seconds or an http date
+     * @return the time to wait in milliseconds, or -1 if the value is missing or invalid
+     */
+    static long parseRetryAfter(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return -1;
+        }
+        String trimmed = value.trim();
+        try {
+            if (trimmed.chars().allMatch(Character::isDigit)) {
+                return TimeUnit.SECONDS.toMillis(Long.parseLong(trimmed));
+            }
+            ZonedDateTime date = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis());
+        } catch (NumberFormatException | DateTimeParseException e) {
+            logger.debug("Ignoring invalid Retry-After header " + trimmed);
+            return -1;
+        }
+    }
+
+    private void close() {
+        try {
+            client.close();
+        } catch (IOException e) {
+            logger.warn("Error closing http client for " + route + ": " + e.getMessage());
+        }
+        connectionManager.shutdown();
+    }
+
+    public HttpSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Thrown if the server answers with a status code other than 2xx
+     */
+    public static class HttpStatusException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+        private final long retryAfter;
+
+        public HttpStatusException(String message, int status, long retryAfter) {
+            super(message);
+            this.status = status;
+            this.retryAfter = retryAfter;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the time in milliseconds the server asked to wait before the next request, or -1 if it sent no Retry-After header
+         */
+        public long getRetryAfter() {
+            return retryAfter;
+        }
+    }
+
+    /**
+     * Allows to abort a running request from another thread. The connection of an aborted request is closed, and the request fails with an
+     * IOException
+     */
+    public static class Cancellation {
+
+        private Runnable abort;
+        private boolean cancelled = false;
+
+        private synchronized void setAbort(Runnable abort) {
+            this.abort = abort;
+            if (cancelled) {
+                abort.run();
+            }
+        }
+
+        /**
+         * Abort the request. If it has not been started yet, it is aborted immediately when it starts
+         */
+        public synchronized void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                if (abort != null) {
+                    abort.run();
+                }
+            }
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    @FunctionalInterface
+    public interface ResponseHandler<T> {
+        T handle(CloseableHttpResponse response) throws IOException;
+    }
+
+    /**
+     * Connection settings for a catalogue, as configured in the &lt;http&gt; section of the plugin configuration. All times are in
+     * milliseconds
+     */
+    public static class HttpSettings {
+        private int maxConnectionsPerRoute = 10;
+        private int maxConnectionsTotal = 20;
+        private int connectTimeout = 5000;
+        private int readTimeout = 30000;
+        private int connectionRequestTimeout = 10000;
+        private long keepAlive = 60000;
+        private String proxyHost = null;
+        private int proxyPort = -1;
+
+        public int getMaxConnectionsPerRoute() {
+            return maxConnectionsPerRoute;
+        }
+
+        public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        }
+
+        public int getMaxConnectionsTotal() {
+            return Math.max(maxConnectionsTotal, maxConnectionsPerRoute);
+        }
+
+        public void setMaxConnectionsTotal(int maxConnectionsTotal) {
+            this.maxConnectionsTotal = maxConnectionsTotal;
+        }
+
+        public int getConnectTimeout() {
+            return connectTimeout;
+        }
+
+        public void setConnectTimeout(int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+        }
+
+        public int getReadTimeout() {
+            return readTimeout;
+        }
+
+        public void setReadTimeout(int readTimeout) {
+            this.readTimeout = readTimeout;
+        }
+
+        public int getConnectionRequestTimeout() {
+            return connectionRequestTimeout;
+        }
+
+        public void setConnectionRequestTimeout(int connectionRequestTimeout) {
+            this.connectionRequestTimeout = connectionRequestTimeout;
+        }
+
+        public long getKeepAlive() {
+            return keepAlive;
+        }
+
+        public void setKeepAlive(long keepAlive) {
+            this.keepAlive = keepAlive;
+        }
+
+        /**
+         * @return the host of the http proxy, or null if requests are sent directly
+         */
+        public String getProxyHost() {
+            return proxyHost;
+        }
+
+        public int getProxyPort() {
+            return proxyPort;
+        }
+
+        /**
+         * @param proxyHost the host of the http proxy, or null to send requests directly
+         * @param proxyPort the port of the proxy
+         */
+        public void setProxy(String proxyHost, int proxyPort) {
+            this.proxyHost = proxyHost;
+            this.proxyPort = proxyPort;
+        }
+
+        /**
+         * Use the proxy configured in the goobi configuration, unless the catalogue is on its proxy whitelist. This is the proxy goobi's
+         * HttpUtils used for SRU requests before
+         *
+         * @param cat the catalogue the settings are used for
+         */
+        public void setGoobiProxy(ConfigOpacCatalogue cat) {
+            ConfigurationHelper config = ConfigurationHelper.getInstance();
+            if (!config.isUseProxy()) {
+                return;
+            }
+            String route = getRoute(cat);
+            try {
+                if (config.isProxyWhitelisted(new URL(route))) {
+                    logger.debug("Catalogue " + route + " is on the proxy whitelist, no proxy used");
+                    return;
+                }
+            } catch (MalformedURLException e) {
+                logger.warn("Cannot check the proxy whitelist for " + route + ": " + e.getMessage());
+            }
+            setProxy(config.getProxyUrl(), config.getProxyPort());
+        }
+
+        @Override
+        public String toString() {
+            return "maxConnectionsPerRoute=" + maxConnectionsPerRoute + ", maxConnectionsTotal=" + getMaxConnectionsTotal() + ", connectTimeout="
+                    + connectTimeout + ", readTimeout=" + readTimeout + ", connectionRequestTimeout=" + connectionRequestTimeout + ", keepAlive="
+                    + keepAlive + (proxyHost == null ? "" : ", proxy=" + proxyHost + ":" + proxyPort);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jdom2.Document;
+
+import de.intranda.goobi.plugins.utils.SRUClient.NoRecordsException;
+import de.intranda.goobi.plugins.utils.SRUClient.SRUException;
+
+/**
+ * The parts of an SRU searchRetrieveResponse the plugin needs: the hit count, diagnostics and the contained records. Only the records
+ * themselves are kept as jdom documents, the response envelope is discarded while reading
+ */
+public class SRUResponse {
+
+    private int numberOfRecords = -1;
+    private int nextRecordPosition = -1;
+    private final List<String> diagnostics = new ArrayList<>();
+    private final List<Document> records = new ArrayList<>();
+
+    /**
+     * @return the number of hits reported by the server, or -1 if the response contained no numberOfRecords
+     */
+    public int getNumberOfRecords() {
+        return numberOfRecords;
+    }
+
+    void setNumberOfRecords(int numberOfRecords) {
+        this.numberOfRecords = numberOfRecords;
+    }
+
+    /**
+     * @return the position of the next record to request, or -1 if there are no more records
+     */
+    public int getNextRecordPosition() {
+        return nextRecordPosition;
+    }
+
+    void setNextRecordPosition(int nextRecordPosition) {
+        this.nextRecordPosition = nextRecordPosition;
+    }
+
+    /**
+     * @return the messages of all diagnostics in the response
+     */
+    public List<String> getDiagnostics() {
+        return Collections.unmodifiableList(diagnostics);
+    }
+
+    void addDiagnostic(String message) {
+        this.diagnostics.add(message);
+    }
+
+    /**
+     * @return the records of the response, each as a document with the marc record as root element
+     */
+    public List<Document> getRecords() {
+        return Collections.unmodifiableList(records);
+    }
+
+    void addRecord(Document record) {
+        this.records.add(record);
+    }
+
+    /**
+     * Get the first record of the response
+     *
+     * @return a document with the marc record as root element
+     * @throws NoRecordsException if the server reported zero hits and no diagnostic
+     * @throws SRUException if the response contains no record for another reason. The exception message is taken from the first diagnostic if
+     *             one exists
+     */
+    public Document getFirstRecord() throws SRUException {
+        if (!records.isEmpty()) {
+            return records.get(0);
+        }
+        if (!diagnostics.isEmpty()) {
+            throw new SRUException(diagnostics.get(0));
+        }
+        if (numberOfRecords == 0) {
+            throw new NoRecordsException("No records found");
+        }
+        throw new SRUException("No parsable response from SRU server");
+    }
+}
@@ -0,0 +1,190 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.jdom2.Text;
+
+/**
+ * Reads an SRU searchRetrieveResponse in a single pass with a StAX stream reader. Only the marc records within
+ * <code>records/record/recordData</code> are built as jdom documents, the remaining envelope is read as events and discarded.
+ *
+ * Elements are matched by their local name, so responses of all SRU versions are supported regardless of their namespace
+ */
+public class SRUResponseReader {
+
+    private static final Logger logger = Logger.getLogger(SRUResponseReader.class);
+
+    private static final XMLInputFactory inputFactory = createInputFactory();
+
+    private SRUResponseReader() {
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * Read a response from a byte stream
+     *
+     * @param in the response stream. It is not closed by this method
+     * @param encoding the character encoding declared by the server. If null, the encoding is detected from the xml declaration
+     * @return the parsed response
+     * @throws IOException if the stream could not be read or is no well-formed xml
+     */
+    public static SRUResponse read(InputStream in, String encoding) throws IOException {
+        try {
+            XMLStreamReader reader = encoding == null ? inputFactory.createXMLStreamReader(in) : inputFactory.createXMLStreamReader(in, encoding);
+            return read(reader);
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to parse SRU response: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read a response from a character stream
+     *
+     * @param in the response. It is not closed by this method
+     * @return the parsed response
+     * @throws XMLStreamException if the response is no well-formed xml
+     */
+    public static SRUResponse read(Reader in) throws XMLStreamException {
+        return read(inputFactory.createXMLStreamReader(in));
+    }
+
+    private static SRUResponse read(XMLStreamReader reader) throws XMLStreamException {
+        SRUResponse response = new SRUResponse();
+        Deque<String> path = new ArrayDeque<>();
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    String parent = path.peek();
+                    if ("record".equals(name) && "recordData".equals(parent)) {
+                        response.addRecord(new Document(buildElement(reader)));
+                    } else if ("numberOfRecords".equals(name) && path.size() == 1) {
+                        response.setNumberOfRecords(parseInt(reader.getElementText(), -1));
+                    } else if ("nextRecordPosition".equals(name) && path.size() == 1) {
+                        response.setNextRecordPosition(parseInt(reader.getElementText(), -1));
+                    } else if ("message".equals(name) && "diagnostic".equals(parent)) {
+                        response.addDiagnostic(reader.getElementText().trim());
+                    } else {
+                        path.push(name);
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    path.poll();
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return response;
+    }
+
+    private static int parseInt(String text, int defaultValue) {
+        String value = StringUtils.trim(text);
+        if (StringUtils.isNotBlank(value) && StringUtils.isNumeric(value)) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                logger.warn("Cannot parse number " + value + " in SRU response");
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Create a stream reader configured like the one reading responses, for other xml sources containing marc records
+     *
+     * @param in the xml. It is not closed by the reader
+     */
+    static XMLStreamReader createStreamReader(InputStream in) throws XMLStreamException {
+        return inputFactory.createXMLStreamReader(in);
+    }
+
+    /**
+     * Builds a jdom element from the element the reader is currently positioned on, including all its descendants. When this method returns,
+     * the reader is positioned on the end tag of the element
+     */
+    static Element buildElement(XMLStreamReader reader) throws XMLStreamException {
+        Element root = createElement(reader);
+        Element current = root;
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    Element child = createElement(reader);
+                    current.addContent(child);
+                    current = child;
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    if (depth > 0) {
+                        current = current.getParentElement();
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    current.addContent(new Text(reader.getText()));
+                    break;
+                default:
+                    break;
+            }
+        }
+        return root;
+    }
+
+    private static Element createElement(XMLStreamReader reader) {
+        Namespace namespace = getNamespace(reader.getPrefix(), reader.getNamespaceURI());
+        Element element = new Element(reader.getLocalName(), namespace);
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            String uri = reader.getNamespaceURI(i);
+            if (StringUtils.isNotBlank(prefix) && StringUtils.isNotBlank(uri) && !prefix.equals(namespace.getPrefix())) {
+                element.addNamespaceDeclaration(Namespace.getNamespace(prefix, uri));
+            }
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String uri = reader.getAttributeNamespace(i);
+            String name = reader.getAttributeLocalName(i);
+            String value = reader.getAttributeValue(i);
+            if (StringUtils.isBlank(uri)) {
+                element.setAttribute(name, value);
+            } else if (XMLConstants.XML_NS_URI.equals(uri)) {
+                element.setAttribute(name, value, Namespace.XML_NAMESPACE);
+            } else {
+                element.setAttribute(name, value, Namespace.getNamespace(reader.getAttributePrefix(i), uri));
+            }
+        }
+        return element;
+    }
+
+    private static Namespace getNamespace(String prefix, String uri) {
+        if (StringUtils.isBlank(uri)) {
+            return Namespace.NO_NAMESPACE;
+        }
+        return Namespace.getNamespace(prefix == null ? "" : prefix, uri);
+    }
+}
@@ -0,0 +1,76 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Bounded thread pools for running searches in parallel. Each catalogue gets its own pool, so the number of concurrent searches against a
+ * catalogue is limited no matter how many batches are running.
+ *
+ * The pools are created lazily on first use and shared by all plugin instances. Idle threads are released after a minute
+ */
+public class SearchExecutor {
+
+    private static final Logger logger = Logger.getLogger(SearchExecutor.class);
+
+    private static final long IDLE_SECONDS = 60;
+
+    private static final Map<String, ExecutorService> executors = new ConcurrentHashMap<>();
+
+    private SearchExecutor() {
+    }
+
+    /**
+     * Get the thread pool of the given catalogue, creating it if necessary
+     *
+     * @param catalogue the catalogue title
+     * @param threads provides the maximum number of concurrent searches. Only called if no pool exists yet for the catalogue
+     * @return the thread pool
+     */
+    public static ExecutorService getInstance(String catalogue, IntSupplier threads) {
+        return executors.computeIfAbsent(catalogue, c -> {
+            int size = Math.max(1, threads.getAsInt());
+            logger.debug("Creating search executor for " + c + " with " + size + " threads");
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size, IDLE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    new SearchThreadFactory(c));
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        });
+    }
+
+    /**
+     * Stops the thread pools of all catalogues. Searches which are already running are completed
+     */
+    public static void shutdown() {
+        for (ExecutorService executor : executors.values()) {
+            executor.shutdown();
+        }
+        executors.clear();
+    }
+
+    private static class SearchThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private SearchThreadFactory(String catalogue) {
+            this.name = "sru-search-" + catalogue.replaceAll("\\W", "") + "-";
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
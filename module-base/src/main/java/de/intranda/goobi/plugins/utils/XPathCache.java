@@ -0,0 +1,164 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.jdom2.Namespace;
+import org.jdom2.filter.Filter;
+import org.jdom2.xpath.XPathExpression;
+import org.jdom2.xpath.XPathFactory;
+
+import de.intranda.goobi.plugins.cache.ExpiringCache;
+
+/**
+ * A process-wide cache of compiled xpath expressions, keyed by the expression, the result filter and the namespaces bound to the expression. The
+ * expressions used by the plugin come from its configuration and mapping files, so compiling each of them once is enough.
+ *
+ * Compiled expressions are not thread safe, so the shared expressions are never evaluated. The evaluate methods use a clone of the shared
+ * expression owned by the current thread, kept in a small per-thread cache. Callers of {@link #getExpression(String, Filter, Namespace...)} must
+ * clone the expression before evaluating it
+ */
+public class XPathCache {
+
+    private static final int MAX_EXPRESSIONS = 2000;
+    private static final int MAX_EXPRESSIONS_PER_THREAD = 200;
+
+    private static final ExpiringCache<Key, XPathExpression<?>> expressions = new ExpiringCache<>(MAX_EXPRESSIONS, 0);
+    private static final ThreadLocal<ThreadExpressions> threadExpressions = ThreadLocal.withInitial(ThreadExpressions::new);
+    /** incremented by {@link #clear()}, so that each thread drops its clones the next time it evaluates an expression */
+    private static volatile int generation = 0;
+
+    private XPathCache() {
+    }
+
+    /**
+     * Get the compiled expression from the cache, compiling it if necessary
+     *
+     * @param query the xpath expression
+     * @param filter the filter for the results
+     * @param namespaces the namespaces used in the expression. Null values are ignored
+     * @return the shared compiled expression
+     */
+    public static <T> XPathExpression<T> getExpression(String query, Filter<T> filter, Namespace... namespaces) {
+        return getExpression(new Key(query, filter, namespaces));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> XPathExpression<T> getExpression(Key key) {
+        XPathExpression<T> expression = (XPathExpression<T>) expressions.get(key);
+        if (expression == null) {
+            expression = XPathFactory.instance().compile(key.query, (Filter<T>) key.filter, null, key.boundNamespaces);
+            expressions.put(key, expression);
+        }
+        return expression;
+    }
+
+    /**
+     * Get the clone of the compiled expression owned by the current thread, cloning the shared expression if necessary
+     *
+     * @return an expression which is only used by the current thread
+     */
+    @SuppressWarnings("unchecked")
+    static <T> XPathExpression<T> getThreadExpression(String query, Filter<T> filter, Namespace... namespaces) {
+        ThreadExpressions local = threadExpressions.get();
+        if (local.generation != generation) {
+            local.clear();
+            local.generation = generation;
+        }
+        Key key = new Key(query, filter, namespaces);
+        XPathExpression<T> expression = (XPathExpression<T>) local.get(key);
+        if (expression == null) {
+            expression = XPathCache.<T> getExpression(key).clone();
+            local.put(key, expression);
+        }
+        return expression;
+    }
+
+    /**
+     * Evaluate the expression on the given context
+     *
+     * @return all results of the expression
+     */
+    public static <T> List<T> evaluate(String query, Filter<T> filter, Object context, Namespace... namespaces) {
+        return getThreadExpression(query, filter, namespaces).evaluate(context);
+    }
+
+    /**
+     * Evaluate the expression on the given context
+     *
+     * @return the first result of the expression, or null if there is none
+     */
+    public static <T> T evaluateFirst(String query, Filter<T> filter, Object context, Namespace... namespaces) {
+        return getThreadExpression(query, filter, namespaces).evaluateFirst(context);
+    }
+
+    public static void clear() {
+        expressions.clear();
+        generation++;
+    }
+
+    public static int size() {
+        return expressions.size();
+    }
+
+    private static class Key {
+        private final String query;
+        private final Filter<?> filter;
+        private final List<String> namespaces = new ArrayList<>();
+        private final Namespace[] boundNamespaces;
+
+        /**
+         * @param namespaces the namespaces used in the expression. Null values are ignored
+         */
+        private Key(String query, Filter<?> filter, Namespace... namespaces) {
+            this.query = query;
+            this.filter = filter;
+            List<Namespace> namespaceList = new ArrayList<>();
+            if (namespaces != null) {
+                for (Namespace namespace : namespaces) {
+                    if (namespace != null) {
+                        namespaceList.add(namespace);
+                        this.namespaces.add(namespace.getPrefix() + "=" + namespace.getURI());
+                    }
+                }
+            }
+            this.boundNamespaces = namespaceList.toArray(new Namespace[namespaceList.size()]);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return query.equals(other.query) && Objects.equals(filter, other.filter) && namespaces.equals(other.namespaces);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(query, filter, namespaces);
+        }
+    }
+
+    /**
+     * The clones of the shared expressions used by one thread. If it is full, the least recently used clone is removed
+     */
+    private static class ThreadExpressions extends LinkedHashMap<Key, XPathExpression<?>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private int generation = XPathCache.generation;
+
+        private ThreadExpressions() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, XPathExpression<?>> eldest) {
+            return size() > MAX_EXPRESSIONS_PER_THREAD;
+        }
+    }
+}
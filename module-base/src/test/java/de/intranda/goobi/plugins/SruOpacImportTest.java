@@ -1,15 +1,22 @@
 package de.intranda.goobi.plugins;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.apache.commons.configuration.XMLConfiguration;
 import org.apache.commons.io.FileUtils;
@@ -27,6 +34,7 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import de.intranda.goobi.plugins.cache.NegativeCache;
 import de.intranda.goobi.plugins.utils.SRUClient.SRUException;
 import de.intranda.utils.DocumentUtils;
 import de.sub.goobi.config.ConfigurationHelper;
@@ -151,9 +159,9 @@ public class SruOpacImportTest {
             SruOpacImport importer = new SruOpacImport(config);
 
             Fileformat ff = importer.search("12", HU_ID_MONOGRAPH, catalogueHU, prefs);
-            DocumentUtils.getFileFromDocument(new File("output", "marc.xml"), importer.marcXmlDoc);
-            if (importer.marcXmlDocVolume != null) {
-                DocumentUtils.getFileFromDocument(new File("output", "marc-volume.xml"), importer.marcXmlDocVolume);
+            DocumentUtils.getFileFromDocument(new File("output", "marc.xml"), importer.getLastResult().getRecord());
+            if (importer.getLastResult().getVolumeRecord() != null) {
+                DocumentUtils.getFileFromDocument(new File("output", "marc-volume.xml"), importer.getLastResult().getVolumeRecord());
             }
             File outputFile = new File(output, "meta.xml");
             assertEquals("Monograph", ff.getDigitalDocument().getLogicalDocStruct().getType().getName());
@@ -257,9 +265,9 @@ public class SruOpacImportTest {
         prefs.loadPrefs(rulesetHU);
 
         Fileformat ff = importer.search("12", id, catalogueHU, prefs);
-        DocumentUtils.getFileFromDocument(new File("output", "marc.xml"), importer.marcXmlDoc);
-        if (importer.marcXmlDocVolume != null) {
-            DocumentUtils.getFileFromDocument(new File("output", "marc-volume.xml"), importer.marcXmlDocVolume);
+        DocumentUtils.getFileFromDocument(new File("output", "marc.xml"), importer.getLastResult().getRecord());
+        if (importer.getLastResult().getVolumeRecord() != null) {
+            DocumentUtils.getFileFromDocument(new File("output", "marc-volume.xml"), importer.getLastResult().getVolumeRecord());
         }
         return ff;
     }
@@ -317,4 +325,59 @@ public class SruOpacImportTest {
         assertEquals("SingleSheetMaterial", ds);
     }
 
+    @Test
+    public void testSearchAsyncCompletesExceptionally() throws Exception {
+        NegativeCache misses = importer.getNegativeCache(catalogueHU);
+        misses.put(importer.getMappedSearchField("12", catalogueHU.getTitle()), "BV000000000", "No records found");
+        misses.put(null, "BV000000000", "No records found");
+        try {
+            importer.searchAsync("12", "BV000000000", catalogueHU, prefs).join();
+            fail("Search for unknown record must fail");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof SRUException);
+            assertEquals("No records found", e.getCause().getMessage());
+        } finally {
+            NegativeCache.reset();
+        }
+    }
+
+    @Test
+    public void testSearchAll() throws Exception {
+        NegativeCache misses = importer.getNegativeCache(catalogueHU);
+        String searchField = importer.getMappedSearchField("12", catalogueHU.getTitle());
+        for (String term : new String[] { "BV000000001", "BV000000002" }) {
+            misses.put(searchField, term, "No records found for " + term);
+            misses.put(null, term, "No records found for " + term);
+        }
+        try {
+            importer.searchAll(Collections.singletonList("BV000000001"), catalogueHU, prefs);
+            long hitsPerSearch = misses.getStatistics().getHitCount();
+            assertTrue(hitsPerSearch > 0);
+
+            Map<String, SearchResult> results =
+                    importer.searchAll(Arrays.asList("BV000000002", "BV000000001", "BV000000002"), catalogueHU, prefs);
+            assertEquals(Arrays.asList("BV000000002", "BV000000001"), new ArrayList<>(results.keySet()));
+            //the duplicate term is searched only once
+            assertEquals(3 * hitsPerSearch, misses.getStatistics().getHitCount());
+            //each failed search carries its own error and does not abort the others
+            for (Map.Entry<String, SearchResult> result : results.entrySet()) {
+                assertTrue(result.getValue().getError() instanceof SRUException);
+                assertEquals("No records found for " + result.getKey(), result.getValue().getError().getMessage());
+            }
+        } finally {
+            NegativeCache.reset();
+        }
+    }
+
+    @Test
+    public void testUsePrefetchedAnchor() {
+        CompletableFuture<Document> anchorRecord = new CompletableFuture<>();
+        assertSame(anchorRecord, SruOpacImport.usePrefetchedAnchor("BV1", "BV1", anchorRecord));
+        assertFalse(anchorRecord.isCancelled());
+        //a wrong prediction falls back to a normal anchor search
+        assertNull(SruOpacImport.usePrefetchedAnchor("BV2", "BV1", anchorRecord));
+        assertTrue(anchorRecord.isCancelled());
+        assertNull(SruOpacImport.usePrefetchedAnchor("BV2", null, null));
+    }
+
 }
@@ -0,0 +1,57 @@
+package de.intranda.goobi.plugins.beautify;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.jdom2.Namespace;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogueBeautifier;
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogueBeautifierElement;
+
+public class BeautifierRegistryTest {
+
+    @After
+    public void tearDown() {
+        BeautifierRegistry.clear();
+    }
+
+    private static List<ConfigOpacCatalogueBeautifier> rules(String value) {
+        ConfigOpacCatalogueBeautifierElement change = Mockito.mock(ConfigOpacCatalogueBeautifierElement.class);
+        Mockito.when(change.getTag()).thenReturn("041");
+        Mockito.when(change.getSubtag()).thenReturn("a");
+        Mockito.when(change.getValue()).thenReturn(value);
+        ConfigOpacCatalogueBeautifier beautifier = Mockito.mock(ConfigOpacCatalogueBeautifier.class);
+        Mockito.when(beautifier.getTagElementToChange()).thenReturn(change);
+        Mockito.when(beautifier.getTagElementsToProof()).thenReturn(Collections.emptyList());
+        return Collections.singletonList(beautifier);
+    }
+
+    private static ConfigOpacCatalogue catalogue(List<ConfigOpacCatalogueBeautifier> rules) {
+        ConfigOpacCatalogue catalogue = Mockito.mock(ConfigOpacCatalogue.class);
+        Mockito.when(catalogue.getTitle()).thenReturn("test");
+        Mockito.when(catalogue.getBeautifySetList()).thenReturn(rules);
+        return catalogue;
+    }
+
+    @Test
+    public void testCompileOnce() {
+        ConfigOpacCatalogue catalogue = catalogue(rules("ger"));
+        CompiledBeautifier first = BeautifierRegistry.getBeautifier(catalogue, Namespace.NO_NAMESPACE);
+        Assert.assertSame(first, BeautifierRegistry.getBeautifier(catalogue, Namespace.NO_NAMESPACE));
+        //a reloaded configuration with the same rules
+        Assert.assertSame(first, BeautifierRegistry.getBeautifier(catalogue(rules("ger")), Namespace.NO_NAMESPACE));
+    }
+
+    @Test
+    public void testRecompileChangedRules() {
+        CompiledBeautifier first = BeautifierRegistry.getBeautifier(catalogue(rules("ger")), Namespace.NO_NAMESPACE);
+        CompiledBeautifier changed = BeautifierRegistry.getBeautifier(catalogue(rules("lat")), Namespace.NO_NAMESPACE);
+        Assert.assertNotSame(first, changed);
+        Assert.assertSame(changed, BeautifierRegistry.getBeautifier(catalogue(rules("lat")), Namespace.NO_NAMESPACE));
+    }
+}
@@ -0,0 +1,124 @@
+package de.intranda.goobi.plugins.beautify;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogueBeautifier;
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogueBeautifierElement;
+
+/**
+ * Compares the results of {@link CompiledBeautifier} with those of {@link BeautifyerExecutor}
+ */
+public class CompiledBeautifierTest {
+
+    private static final String recordPath = "src/test/resources/samples/AC00677689_record.xml";
+
+    private Document record;
+    private final List<ConfigOpacCatalogueBeautifier> rules = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        record = new SAXBuilder().build(new File(recordPath));
+        // leader condition
+        rules.add(rule(element("590", "a", "map"), element("leader6", "", "a")));
+        // copy the value of the condition
+        rules.add(rule(element("041", "a", "*"), element("037", "a", "ger")));
+        // several conditions, the value of the last match is used
+        rules.add(rule(element("500", "a", "*"), element("425", "a", "\\d{4}"), element("001", "", "\\$\\$a.*")));
+        // change a leader position without condition
+        rules.add(rule(element("leader7", "", "s")));
+        // leader condition matching any value
+        rules.add(rule(element("591", "a", "any\\u0020leader"), element("leader9", "", "*")));
+        // only some conditions match
+        rules.add(rule(element("998", "a", "*"), element("037", "a", "ger"), element("999", "a", "x")));
+        // several fields with the tag to change
+        rules.add(rule(element("902", "z", "Ort"), element("902", "f", "*")));
+        // a field created by an earlier rule
+        rules.add(rule(element("042", "a", "\\u0020x"), element("041", "a", "ger")));
+        // controlfields
+        rules.add(rule(element("009", "", "*"), element("005", "", ".*2015.*")));
+        rules.add(rule(element("001", "", "AC00677689"), element("001", "", "\\$\\$a(.*)")));
+        // conditions which do not match
+        rules.add(rule(element("592", "a", "never"), element("245", "a", "*")));
+        rules.add(rule(element("593", "a", "never"), element("037", "a", "lat"), element("leader6", "", "x")));
+    }
+
+    private static ConfigOpacCatalogueBeautifierElement element(String tag, String subtag, String value) {
+        ConfigOpacCatalogueBeautifierElement element = Mockito.mock(ConfigOpacCatalogueBeautifierElement.class);
+        Mockito.when(element.getTag()).thenReturn(tag);
+        Mockito.when(element.getSubtag()).thenReturn(subtag);
+        Mockito.when(element.getValue()).thenReturn(value);
+        return element;
+    }
+
+    private static ConfigOpacCatalogueBeautifier rule(ConfigOpacCatalogueBeautifierElement change,
+            ConfigOpacCatalogueBeautifierElement... conditions) {
+        ConfigOpacCatalogueBeautifier beautifier = Mockito.mock(ConfigOpacCatalogueBeautifier.class);
+        Mockito.when(beautifier.getTagElementToChange()).thenReturn(change);
+        Mockito.when(beautifier.getTagElementsToProof()).thenReturn(Arrays.asList(conditions));
+        return beautifier;
+    }
+
+    private static String applyBeautifyerExecutor(Document doc, List<ConfigOpacCatalogueBeautifier> beautifiers) {
+        Element copy = doc.getRootElement().clone();
+        new BeautifyerExecutor(Namespace.NO_NAMESPACE).executeBeautifier(beautifiers, copy);
+        return new XMLOutputter(Format.getPrettyFormat()).outputString(copy);
+    }
+
+    private static String applyCompiledBeautifier(Document doc, List<ConfigOpacCatalogueBeautifier> beautifiers) {
+        Element copy = doc.getRootElement().clone();
+        CompiledBeautifier.compile(beautifiers, Namespace.NO_NAMESPACE).execute(copy);
+        return new XMLOutputter(Format.getPrettyFormat()).outputString(copy);
+    }
+
+    @Test
+    public void testSingleRules() {
+        for (ConfigOpacCatalogueBeautifier beautifier : rules) {
+            List<ConfigOpacCatalogueBeautifier> single = Collections.singletonList(beautifier);
+            Assert.assertEquals(applyBeautifyerExecutor(record, single), applyCompiledBeautifier(record, single));
+        }
+    }
+
+    @Test
+    public void testAllRules() {
+        String expected = applyBeautifyerExecutor(record, rules);
+        Assert.assertEquals(expected, applyCompiledBeautifier(record, rules));
+        Assert.assertTrue(expected.contains("<leader>00857 sm2200289 450 </leader>"));
+        Assert.assertTrue(expected.contains("<subfield code=\"a\">ger</subfield>"));
+        Assert.assertTrue(expected.contains("<subfield code=\"a\"> x</subfield>"));
+        Assert.assertFalse(expected.contains("never"));
+    }
+
+    @Test
+    public void testRulesInReverseOrder() {
+        List<ConfigOpacCatalogueBeautifier> reversed = new ArrayList<>(rules);
+        Collections.reverse(reversed);
+        Assert.assertEquals(applyBeautifyerExecutor(record, reversed), applyCompiledBeautifier(record, reversed));
+    }
+
+    @Test
+    public void testCompiledBeautifierIsReusable() {
+        CompiledBeautifier beautifier = CompiledBeautifier.compile(rules, Namespace.NO_NAMESPACE);
+        Element first = record.getRootElement().clone();
+        Element second = record.getRootElement().clone();
+        beautifier.execute(first);
+        beautifier.execute(second);
+        XMLOutputter outputter = new XMLOutputter(Format.getPrettyFormat());
+        Assert.assertEquals(outputter.outputString(first), outputter.outputString(second));
+        Assert.assertTrue(CompiledBeautifier.compile(null, Namespace.NO_NAMESPACE).isEmpty());
+    }
+}
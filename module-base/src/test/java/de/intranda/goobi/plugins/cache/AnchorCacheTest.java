@@ -0,0 +1,99 @@
+package de.intranda.goobi.plugins.cache;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AnchorCacheTest {
+
+    @After
+    public void tearDown() {
+        AnchorCache.reset();
+    }
+
+    @Test
+    public void testPutAndGetCopies() throws Exception {
+        AnchorCache cache = AnchorCache.getInstance("test", () -> new CacheSettings(10, 60));
+        Assert.assertSame(cache, AnchorCache.getInstance("test", () -> new CacheSettings(0, 0)));
+        Assert.assertNull(cache.get("BV1"));
+
+        Document record = new Document(new Element("record"));
+        cache.put(" BV1 ", record);
+        Document cached = cache.get("BV1");
+        Assert.assertNotNull(cached);
+        Assert.assertNotSame(record, cached);
+        //changes of the returned record do not affect the cache
+        cached.getRootElement().setName("changed");
+        Assert.assertEquals("record", cache.get("BV1").getRootElement().getName());
+        Assert.assertNull(cache.get("bv1"));
+        Assert.assertEquals(1, cache.getStatistics().getSize());
+    }
+
+    @Test
+    public void testDisabledCache() throws Exception {
+        AnchorCache cache = AnchorCache.getInstance("disabled", () -> new CacheSettings(0, 60));
+        cache.put("BV1", new Document(new Element("record")));
+        Assert.assertNull(cache.get("BV1"));
+        AtomicInteger loads = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            cache.get("BV1", () -> {
+                loads.incrementAndGet();
+                return new Document(new Element("record"));
+            });
+        }
+        Assert.assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testLoadConcurrentRequestsOnce() throws Exception {
+        AnchorCache cache = AnchorCache.getInstance("test", () -> new CacheSettings(10, 60));
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Document> first = executor.submit(() -> cache.get("BV1", () -> {
+                loads.incrementAndGet();
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return new Document(new Element("record"));
+            }));
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<Document> second = executor.submit(() -> cache.get("BV1", () -> {
+                loads.incrementAndGet();
+                return new Document(new Element("record"));
+            }));
+            release.countDown();
+            Assert.assertEquals("record", first.get(5, TimeUnit.SECONDS).getRootElement().getName());
+            Assert.assertEquals("record", second.get(5, TimeUnit.SECONDS).getRootElement().getName());
+            Assert.assertNotSame(first.get(), second.get());
+            Assert.assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws Exception {
+        AnchorCache cache = AnchorCache.getInstance("test", () -> new CacheSettings(10, 60));
+        try {
+            cache.get("BV1", () -> {
+                throw new IllegalStateException("unavailable");
+            });
+            Assert.fail("Exception of the loader expected");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("unavailable", e.getMessage());
+        }
+        Assert.assertNotNull(cache.get("BV1", () -> new Document(new Element("record"))));
+        Assert.assertNotNull(cache.get("BV1"));
+    }
+}
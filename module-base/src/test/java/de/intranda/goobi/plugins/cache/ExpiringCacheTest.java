@@ -0,0 +1,53 @@
+package de.intranda.goobi.plugins.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExpiringCacheTest {
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(2, 0);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        Assert.assertEquals("1", cache.get("a"));
+        cache.put("c", "3");
+
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals("1", cache.get("a"));
+        Assert.assertEquals("3", cache.get("c"));
+
+        CacheStatistics statistics = cache.getStatistics();
+        Assert.assertEquals(3, statistics.getHitCount());
+        Assert.assertEquals(1, statistics.getMissCount());
+        Assert.assertEquals(1, statistics.getEvictionCount());
+        Assert.assertEquals(2, statistics.getSize());
+    }
+
+    @Test
+    public void testExpire() throws InterruptedException {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(10, 20);
+        cache.put("a", "1");
+        Assert.assertEquals("1", cache.get("a"));
+        Thread.sleep(50);
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testDisabled() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(0, 0);
+        cache.put("a", "1");
+        Assert.assertFalse(cache.isEnabled());
+        Assert.assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testNormalizeSearchTerm() {
+        Assert.assertEquals(RecordCache.createKey("rec.id", "BV011023566"), RecordCache.createKey("rec.id", "  BV011023566 "));
+        Assert.assertEquals(RecordCache.createKey("sig", "II 12.345"), RecordCache.createKey("sig", "II  12.345"));
+        //identifiers differing only in case are different records
+        Assert.assertNotEquals(RecordCache.createKey("rec.id", "123456789X"), RecordCache.createKey("rec.id", "123456789x"));
+        Assert.assertNotEquals(RecordCache.createKey("rec.id", "BV011023566"), RecordCache.createKey("dc.id", "BV011023566"));
+    }
+}
@@ -0,0 +1,50 @@
+package de.intranda.goobi.plugins.cache;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappingRegistryTest {
+
+    private File mapFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mapFile = File.createTempFile("marc_map", ".xml");
+        write("<map><metadata><name>TitleDocMain</name></metadata></map>");
+    }
+
+    @After
+    public void tearDown() {
+        MappingRegistry.clear();
+        mapFile.delete();
+    }
+
+    @Test
+    public void testParseOnce() throws Exception {
+        MappingDefinition mapping = MappingRegistry.getMapping(mapFile);
+        Assert.assertTrue(mapping.isValid());
+        Assert.assertEquals(1, mapping.getMetadataElements().size());
+        Assert.assertSame(mapping, MappingRegistry.getMapping(mapFile));
+    }
+
+    @Test
+    public void testReloadChangedFile() throws Exception {
+        MappingDefinition mapping = MappingRegistry.getMapping(mapFile);
+        write("<map><metadata><name>TitleDocMain</name></metadata><person><name>Author</name></person></map>");
+        mapFile.setLastModified(mapFile.lastModified() + 2000);
+
+        MappingDefinition changed = MappingRegistry.getMapping(mapFile);
+        Assert.assertNotSame(mapping, changed);
+        Assert.assertEquals(1, changed.getPersonElements().size());
+    }
+
+    private void write(String xml) throws Exception {
+        Files.write(mapFile.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,139 @@
+package de.intranda.goobi.plugins.cache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.intranda.goobi.plugins.cache.PersistentRecordStore.StoredRecord;
+
+public class PersistentRecordStoreTest {
+
+    private static final Namespace MARC = Namespace.getNamespace("marc", "http://www.loc.gov/MARC21/slim");
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("recordStore");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        PersistentRecordStore.shutdown();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testReopen() {
+        PersistentRecordStore store = PersistentRecordStore.getInstance(directory, 16);
+        for (int i = 0; i < 50; i++) {
+            store.put("K10plus", "pica.ppn", "id" + i, createRecord("id" + i, "20190318120000.0"));
+        }
+        PersistentRecordStore.shutdown();
+
+        store = PersistentRecordStore.getInstance(directory, 16);
+        Assert.assertEquals(50, store.size());
+        StoredRecord stored = store.get("K10plus", "pica.ppn", " id17 ");
+        Assert.assertNotNull(stored);
+        Assert.assertEquals("id17", getControlfield(stored.getRecord(), "001"));
+        Assert.assertTrue(stored.isFresh(60));
+        Assert.assertNull(store.get("other catalogue", "pica.ppn", "id17"));
+    }
+
+    @Test
+    public void testRebuildIndex() throws IOException {
+        PersistentRecordStore store = PersistentRecordStore.getInstance(directory, 16);
+        store.put("K10plus", "pica.ppn", "id1", createRecord("id1", "20190318120000.0"));
+        store.put("K10plus", "pica.ppn", "id1", createRecord("id1-new", "20200318120000.0"));
+        PersistentRecordStore.shutdown();
+        Files.delete(directory.resolve("records.idx"));
+
+        store = PersistentRecordStore.getInstance(directory, 16);
+        Assert.assertEquals(1, store.size());
+        Assert.assertEquals("id1-new", getControlfield(store.get("K10plus", "pica.ppn", "id1").getRecord(), "001"));
+    }
+
+    @Test
+    public void testUnchangedRecordIsNotAppended() throws IOException {
+        PersistentRecordStore store = PersistentRecordStore.getInstance(directory, 16);
+        store.put("K10plus", "pica.ppn", "id1", createRecord("id1", "20190318120000.0"));
+        long length = Files.size(directory.resolve("records.dat"));
+        store.put("K10plus", "pica.ppn", "id1", createRecord("id1", "20190318120000.0"));
+        Assert.assertEquals(length, Files.size(directory.resolve("records.dat")));
+        store.put("K10plus", "pica.ppn", "id1", createRecord("id1", "20190318120001.0"));
+        Assert.assertTrue(Files.size(directory.resolve("records.dat")) > length);
+    }
+
+    @Test
+    public void testUnchangedRecordWithoutDateIsNotAppended() throws IOException {
+        PersistentRecordStore store = PersistentRecordStore.getInstance(directory, 16);
+        for (String date : new String[] { null, "", "2019031812", "20191318120000.0" }) {
+            String term = "id" + date;
+            store.put("K10plus", "pica.ppn", term, createRecord("id1", date));
+            long length = Files.size(directory.resolve("records.dat"));
+            store.put("K10plus", "pica.ppn", term, createRecord("id1", date));
+            Assert.assertEquals(length, Files.size(directory.resolve("records.dat")));
+            Assert.assertNull(store.get("K10plus", "pica.ppn", term).getRecordDate());
+            store.put("K10plus", "pica.ppn", term, createRecord("id1-new", date));
+            Assert.assertTrue(Files.size(directory.resolve("records.dat")) > length);
+            Assert.assertEquals("id1-new", getControlfield(store.get("K10plus", "pica.ppn", term).getRecord(), "001"));
+        }
+    }
+
+    @Test
+    public void testFailedOpenIsNotRetried() throws IOException {
+        Path blocked = directory.resolve("blocked");
+        Files.createFile(blocked);
+        Assert.assertNull(PersistentRecordStore.getInstance(blocked, 16));
+        Files.delete(blocked);
+        //the directory could be created now, but the failure is remembered
+        Assert.assertNull(PersistentRecordStore.getInstance(blocked, 16));
+        Assert.assertFalse(Files.exists(blocked));
+
+        PersistentRecordStore.shutdown();
+        Assert.assertNotNull(PersistentRecordStore.getInstance(blocked, 16));
+    }
+
+    @Test
+    public void testGetRecordDate() {
+        Assert.assertTrue(PersistentRecordStore.getRecordDate(createRecord("id1", "20190318120000.0")) > 0);
+        Assert.assertEquals(0, PersistentRecordStore.getRecordDate(createRecord("id1", null)));
+        Assert.assertEquals(0, PersistentRecordStore.getRecordDate(createRecord("id1", "  ")));
+        Assert.assertEquals(0, PersistentRecordStore.getRecordDate(createRecord("id1", "190318")));
+        Assert.assertEquals(0, PersistentRecordStore.getRecordDate(createRecord("id1", "20190231120000.0")));
+        Assert.assertEquals(0, PersistentRecordStore.getRecordDate(createRecord("id1", "2019031812xx00.0")));
+    }
+
+    /**
+     * @param date the value of controlfield 005. If null, the record has no controlfield 005
+     */
+    private static Document createRecord(String id, String date) {
+        Element record = new Element("record", MARC);
+        record.addContent(new Element("controlfield", MARC).setAttribute("tag", "001").setText(id));
+        if (date != null) {
+            record.addContent(new Element("controlfield", MARC).setAttribute("tag", "005").setText(date));
+        }
+        return new Document(record);
+    }
+
+    private static String getControlfield(Document record, String tag) {
+        for (Element controlfield : record.getRootElement().getChildren("controlfield", MARC)) {
+            if (tag.equals(controlfield.getAttributeValue("tag"))) {
+                return controlfield.getText();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,108 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import de.intranda.goobi.plugins.utils.CircuitBreaker.BreakerSettings;
+import de.intranda.goobi.plugins.utils.CircuitBreaker.CircuitOpenException;
+import de.intranda.goobi.plugins.utils.CircuitBreaker.State;
+import de.intranda.goobi.plugins.utils.SRUHttpTransport.HttpStatusException;
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
+
+public class CircuitBreakerTest {
+
+    @After
+    public void tearDown() {
+        CircuitBreaker.reset();
+    }
+
+    private static CircuitBreaker createBreaker(int failureThreshold, long openDuration) {
+        ConfigOpacCatalogue cat = Mockito.mock(ConfigOpacCatalogue.class);
+        Mockito.when(cat.getAddress()).thenReturn("sru.example.org");
+        Mockito.when(cat.getDatabase()).thenReturn("test");
+        BreakerSettings settings = new BreakerSettings();
+        settings.setFailureThreshold(failureThreshold);
+        settings.setOpenDuration(openDuration);
+        return CircuitBreaker.getInstance(cat, () -> settings);
+    }
+
+    private static void fail(CircuitBreaker breaker, AtomicInteger requests) {
+        try {
+            breaker.execute("test", () -> {
+                requests.incrementAndGet();
+                throw new ConnectException("refused");
+            });
+            Assert.fail("Failure expected");
+        } catch (IOException e) {
+            Assert.assertFalse(e instanceof CircuitOpenException);
+        }
+    }
+
+    @Test
+    public void testOpenAfterConsecutiveFailures() throws Exception {
+        CircuitBreaker breaker = createBreaker(3, 60000);
+        AtomicInteger requests = new AtomicInteger();
+        fail(breaker, requests);
+        fail(breaker, requests);
+        Assert.assertEquals(State.CLOSED, breaker.getState());
+        fail(breaker, requests);
+        Assert.assertEquals(State.OPEN, breaker.getState());
+        try {
+            breaker.execute("test", () -> requests.incrementAndGet());
+            Assert.fail("Open circuit must fail fast");
+        } catch (CircuitOpenException e) {
+            Assert.assertTrue(e.getRetryAfter() > 0);
+        }
+        Assert.assertEquals(3, requests.get());
+        CircuitStatistics statistics = CircuitBreaker.getAllStatistics().get("sru.example.org/test");
+        Assert.assertEquals(1, statistics.getRejectedCount());
+        Assert.assertEquals(3, statistics.getFailureCount());
+        Assert.assertEquals(1, statistics.getOpenCount());
+    }
+
+    @Test
+    public void testSuccessResetsFailures() throws Exception {
+        CircuitBreaker breaker = createBreaker(2, 60000);
+        AtomicInteger requests = new AtomicInteger();
+        fail(breaker, requests);
+        breaker.execute("test", () -> requests.incrementAndGet());
+        fail(breaker, requests);
+        Assert.assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testClientErrorsAreNotCounted() throws Exception {
+        CircuitBreaker breaker = createBreaker(1, 60000);
+        try {
+            breaker.execute("test", () -> {
+                throw new HttpStatusException("not found", 404, -1);
+            });
+            Assert.fail("Failure expected");
+        } catch (HttpStatusException e) {
+            Assert.assertEquals(404, e.getStatus());
+        }
+        Assert.assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenProbe() throws Exception {
+        CircuitBreaker breaker = createBreaker(1, 50);
+        AtomicInteger requests = new AtomicInteger();
+        fail(breaker, requests);
+        Assert.assertEquals(State.OPEN, breaker.getState());
+        Thread.sleep(60);
+        Assert.assertEquals(State.HALF_OPEN, breaker.getState());
+        //a failed probe opens the circuit again
+        fail(breaker, requests);
+        Assert.assertEquals(State.OPEN, breaker.getState());
+        Thread.sleep(60);
+        Assert.assertEquals(Integer.valueOf(3), breaker.execute("test", () -> requests.incrementAndGet()));
+        Assert.assertEquals(State.CLOSED, breaker.getState());
+    }
+}
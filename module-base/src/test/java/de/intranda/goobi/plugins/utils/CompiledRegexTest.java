@@ -0,0 +1,75 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompiledRegexTest {
+
+    private static final String[] REGEXES = { "ger", "\\D", "\\d+", "<<.+?>>", "(DE-588)", "a.c", "", "x*" };
+    private static final String[] INPUTS = { "", "ger", "german", "1887-1936", "<<Der>> Titel", "(DE-588)4173182-7", "abc", "a.c" };
+
+    @Test
+    public void testSameResultsAsString() {
+        for (String regex : REGEXES) {
+            CompiledRegex compiled = CompiledRegex.get(regex);
+            for (String input : INPUTS) {
+                String message = regex + " on " + input;
+                Assert.assertEquals(message, input.matches(regex), compiled.matches(input));
+                Assert.assertEquals(message, input.replaceAll(regex, ""), compiled.replaceAll(input, ""));
+                Assert.assertEquals(message, input.replaceAll(regex, "[$0]"), compiled.replaceAll(input, "[$0]"));
+                Assert.assertArrayEquals(message, input.split(regex), compiled.split(input));
+            }
+        }
+    }
+
+    @Test
+    public void testLiteralFastPath() {
+        Assert.assertTrue(CompiledRegex.get("ger").isLiteral());
+        Assert.assertTrue(CompiledRegex.get("ger").find("german"));
+        Assert.assertFalse(CompiledRegex.get("a.c").isLiteral());
+        Assert.assertFalse(CompiledRegex.get("").isLiteral());
+    }
+
+    @Test
+    public void testCompiledOnce() {
+        Assert.assertSame(CompiledRegex.get("\\d{4}"), CompiledRegex.get("\\d{4}"));
+    }
+
+    @Test(expected = PatternSyntaxException.class)
+    public void testInvalidExpression() {
+        CompiledRegex.get("(unclosed");
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        CompiledRegex nonDigits = CompiledRegex.get("\\D");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                String input = "Nr. " + i + "/" + (i * 7);
+                String expected = input.replaceAll("\\D", "");
+                results.add(executor.submit(() -> {
+                    for (int j = 0; j < 1000; j++) {
+                        if (!expected.equals(nonDigits.replaceAll(input, ""))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                Assert.assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
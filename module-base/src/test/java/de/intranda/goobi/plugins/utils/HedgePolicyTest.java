@@ -0,0 +1,114 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.intranda.goobi.plugins.utils.HedgePolicy.HedgeSettings;
+import de.intranda.goobi.plugins.utils.RequestLimiter.LimitSettings;
+import de.intranda.goobi.plugins.utils.SRUHttpTransport.Cancellation;
+
+public class HedgePolicyTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        HedgePolicy.reset();
+        RequestLimiter.reset();
+    }
+
+    /**
+     * Create a policy which hedges after 20 ms, and record the given number of fast requests
+     */
+    private HedgePolicy createPolicy(int warmUp) throws IOException {
+        HedgeSettings settings = new HedgeSettings();
+        settings.setPercentile(90);
+        settings.setMinDelay(20);
+        settings.setMinSamples(Math.max(1, warmUp));
+        HedgePolicy policy = HedgePolicy.getInstance("test", () -> settings, () -> executor);
+        for (int i = 0; i < warmUp; i++) {
+            policy.execute("warm up", cancellation -> "record", null);
+        }
+        return policy;
+    }
+
+    /**
+     * A request which only finishes when it is aborted
+     */
+    private static String hang(Cancellation cancellation) throws IOException {
+        for (int i = 0; i < 500 && !cancellation.isCancelled(); i++) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        throw new IOException("aborted");
+    }
+
+    @Test
+    public void testNoHedgingWithoutSamples() throws Exception {
+        HedgePolicy policy = createPolicy(0);
+        Assert.assertEquals(-1, policy.getDelay());
+        policy.execute("test", cancellation -> "record", null);
+        Assert.assertEquals(20, policy.getDelay());
+    }
+
+    @Test
+    public void testDelayIsAtLeastMinDelay() throws Exception {
+        Assert.assertEquals(20, createPolicy(5).getDelay());
+    }
+
+    @Test
+    public void testSecondRequestAnswersFirst() throws Exception {
+        HedgePolicy policy = createPolicy(3);
+        AtomicInteger requests = new AtomicInteger();
+        Cancellation[] first = new Cancellation[1];
+        String result = policy.execute("test", cancellation -> {
+            if (requests.incrementAndGet() == 1) {
+                first[0] = cancellation;
+                return hang(cancellation);
+            }
+            return "second";
+        }, null);
+        Assert.assertEquals("second", result);
+        Assert.assertEquals(2, requests.get());
+        Assert.assertTrue(first[0].isCancelled());
+        Assert.assertEquals(1, policy.getHedgedCount());
+        Assert.assertEquals(1, policy.getHedgeWinCount());
+    }
+
+    @Test
+    public void testRequestLimitIsRespected() throws Exception {
+        HedgePolicy policy = createPolicy(3);
+        LimitSettings limits = new LimitSettings();
+        limits.setMaxInFlight(1);
+        RequestLimiter limiter = RequestLimiter.getInstance("test", () -> limits);
+        AtomicInteger requests = new AtomicInteger();
+        String result = policy.execute("test", cancellation -> {
+            requests.incrementAndGet();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "first";
+        }, limiter);
+        Assert.assertEquals("first", result);
+        Assert.assertEquals(1, requests.get());
+        Assert.assertEquals(0, policy.getHedgedCount());
+    }
+}
@@ -0,0 +1,86 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.intranda.goobi.plugins.cache.MappingDefinition;
+import de.intranda.goobi.plugins.cache.MappingRegistry;
+import de.intranda.goobi.plugins.utils.MappingPlan.FieldRule;
+import de.intranda.goobi.plugins.utils.MappingPlan.MetadataRule;
+import de.intranda.goobi.plugins.utils.MappingPlan.RoleRule;
+import ugh.dl.Prefs;
+
+public class MappingPlanTest {
+
+    private MappingDefinition mapping;
+    private Prefs prefs = new Prefs();
+
+    @Before
+    public void setUp() throws Exception {
+        prefs.loadPrefs(new File("src/test/resources/HU-monographie.xml").getAbsolutePath());
+        mapping = MappingRegistry.getMapping(new File("src/test/resources/marc_map.xml"));
+    }
+
+    @Test
+    public void testCompileMetadata() {
+        MappingPlan plan = MappingPlan.compile(mapping, prefs, "marc:");
+        Assert.assertEquals(mapping.getMetadataElements().size(), plan.getMetadataRules().size());
+
+        MetadataRule catalogId = plan.getMetadataRules().get(0);
+        Assert.assertEquals("CatalogIDDigital", catalogId.getName());
+        Assert.assertTrue(catalogId.isLogical());
+        Assert.assertFalse(catalogId.isMergeXPaths());
+        Assert.assertFalse(catalogId.isWriteToAnchor(true));
+        Assert.assertFalse(catalogId.isWriteToChild(true));
+        Assert.assertFalse(catalogId.isWriteToChild(false));
+
+        FieldRule zdb = catalogId.getFields().get(0);
+        Assert.assertEquals("/marc:record/marc:datafield[@tag=\"016\"][not(@ind2=\"2\")]", zdb.getQuery());
+        Assert.assertEquals("2a", zdb.getSubfields());
+        Assert.assertEquals("ZDB", zdb.getPrefix());
+        Assert.assertFalse(zdb.isMergeOccurances());
+        Assert.assertEquals("12345", zdb.removeIgnored("(DE-600)ZDB-1 12345").trim());
+
+        FieldRule controlfield = catalogId.getFields().get(1);
+        Assert.assertEquals("/marc:record/marc:controlfield[@tag=\"001\"][not(@ind2=\"2\")]", controlfield.getQuery());
+    }
+
+    @Test
+    public void testAnchorFlags() {
+        MappingPlan plan = MappingPlan.compile(mapping, prefs, "");
+        MetadataRule language = plan.getMetadataRules().get(2);
+        Assert.assertEquals("DocLanguage", language.getName());
+        Assert.assertTrue(language.isWriteToAnchor(true));
+        Assert.assertTrue(language.isWriteToAnchor(false));
+        Assert.assertFalse(language.isWriteToChild(true));
+        Assert.assertTrue(language.isWriteToChild(false));
+        Assert.assertEquals("/record/datafield[@tag=\"041\"][not(@ind2=\"2\")]", language.getFields().get(0).getQuery());
+
+        MetadataRule isbn = plan.getMetadataRules().get(3);
+        Assert.assertFalse(isbn.isWriteToAnchor(false));
+        Assert.assertTrue(isbn.isWriteToAnchor(true));
+        Assert.assertTrue(isbn.isMergeXPaths());
+    }
+
+    @Test
+    public void testCompileRoles() {
+        MappingPlan plan = MappingPlan.compile(mapping, prefs, "marc:");
+        MetadataRule person = plan.getPersonRules().get(0);
+        Assert.assertEquals(MetadataKind.PERSON, person.getKind());
+        Assert.assertEquals(5, person.getRoles().size());
+        RoleRule editor = person.getRoles().get(3);
+        Assert.assertEquals("e", editor.getSubfield());
+        Assert.assertTrue(editor.matchesValue("Hrsg."));
+        Assert.assertFalse(editor.matchesValue("Verfasser"));
+    }
+
+    @Test
+    public void testSharePlans() {
+        MappingPlan plan = MappingPlan.getPlan(mapping, prefs, "marc:");
+        Assert.assertSame(plan, MappingPlan.getPlan(mapping, prefs, "marc:"));
+        Assert.assertNotSame(plan, MappingPlan.getPlan(mapping, prefs, ""));
+    }
+}
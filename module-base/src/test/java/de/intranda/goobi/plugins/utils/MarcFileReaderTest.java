@@ -0,0 +1,152 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MarcFileReaderTest {
+
+    private static final Namespace MARC = Namespace.getNamespace("marc", "http://www.loc.gov/MARC21/slim");
+
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("marc-file", ".mrc");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testReadCollection() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<collection xmlns=\"http://www.loc.gov/MARC21/slim\">"
+                + "<record><leader>00000nam a2200000 c 4500</leader><controlfield tag=\"001\">AC1</controlfield></record>"
+                + "<record><leader>00000nam a2200000 c 4500</leader><controlfield tag=\"001\">AC2</controlfield>"
+                + "<datafield tag=\"245\" ind1=\"1\" ind2=\"0\"><subfield code=\"a\">Titel</subfield></datafield></record></collection>";
+        Files.write(file, xml.getBytes(StandardCharsets.UTF_8));
+        try (MarcFileReader reader = MarcFileReader.open(file, MARC)) {
+            Assert.assertTrue(reader instanceof MarcXmlCollectionReader);
+            Assert.assertEquals("AC1", reader.next().getRootElement().getChildText("controlfield", MARC));
+            Element second = reader.next().getRootElement();
+            Assert.assertEquals("AC2", second.getChildText("controlfield", MARC));
+            Assert.assertEquals("Titel", second.getChild("datafield", MARC).getChildText("subfield", MARC));
+            Assert.assertFalse(reader.hasNext());
+            Assert.assertEquals(2, reader.getPosition());
+        }
+    }
+
+    @Test
+    public void testReadIso2709() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(createRecord("a", "AC00677689", "Grundriß der Physik"));
+        out.write('\n');
+        out.write(createRecord(" ", "AC2", "Plain"));
+        Files.write(file, out.toByteArray());
+        try (MarcFileReader reader = MarcFileReader.open(file, MARC)) {
+            Assert.assertTrue(reader instanceof Iso2709Reader);
+            Element record = reader.next().getRootElement();
+            Assert.assertEquals(MARC, record.getNamespace());
+            Assert.assertEquals(24, record.getChildText("leader", MARC).length());
+            Assert.assertEquals("AC00677689", record.getChildText("controlfield", MARC));
+            Element title = record.getChild("datafield", MARC);
+            Assert.assertEquals("245", title.getAttributeValue("tag"));
+            Assert.assertEquals("1", title.getAttributeValue("ind1"));
+            Assert.assertEquals("0", title.getAttributeValue("ind2"));
+            List<Element> subfields = title.getChildren("subfield", MARC);
+            Assert.assertEquals(2, subfields.size());
+            Assert.assertEquals("a", subfields.get(0).getAttributeValue("code"));
+            Assert.assertEquals("Grundriß der Physik", subfields.get(0).getText());
+            Assert.assertEquals("Wien", subfields.get(1).getText());
+
+            Document plain = reader.next();
+            Assert.assertEquals("AC2", plain.getRootElement().getChildText("controlfield", MARC));
+            Assert.assertFalse(reader.hasNext());
+        }
+    }
+
+    @Test
+    public void testReadTruncatedIso2709() throws Exception {
+        byte[] record = createRecord("a", "AC1", "Titel");
+        Files.write(file, Arrays.copyOf(record, record.length - 10));
+        try (MarcFileReader reader = MarcFileReader.open(file, MARC)) {
+            reader.hasNext();
+            Assert.fail("Expected UncheckedIOException");
+        } catch (UncheckedIOException e) {
+            Assert.assertTrue(e.getMessage().startsWith("Cannot read marc record 1"));
+        }
+    }
+
+    @Test
+    public void testOrderedParallelIterator() throws Exception {
+        List<Integer> source = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            source.add(i);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            OrderedParallelIterator<Integer, String> results = new OrderedParallelIterator<>(source.iterator(), i -> {
+                try {
+                    //later elements finish first
+                    Thread.sleep(i % 4 == 0 ? 4 : 0);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "record " + i;
+            }, executor, 8);
+            for (int i = 0; i < 100; i++) {
+                Assert.assertEquals("record " + i, results.next());
+            }
+            Assert.assertFalse(results.hasNext());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return an ISO 2709 record with a control field 001 and a title in 245 $a $b
+     */
+    private static byte[] createRecord(String coding, String id, String title) throws Exception {
+        List<byte[]> fields = new ArrayList<>();
+        fields.add((id + "\u001E").getBytes(StandardCharsets.UTF_8));
+        fields.add(("10\u001Fa" + title + "\u001FbWien\u001E").getBytes(StandardCharsets.UTF_8));
+        String[] tags = { "001", "245" };
+
+        StringBuilder directory = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < fields.size(); i++) {
+            directory.append(tags[i]).append(String.format("%04d%05d", fields.get(i).length, start));
+            start += fields.get(i).length;
+        }
+        directory.append('\u001E');
+        int baseAddress = 24 + directory.length();
+        int length = baseAddress + start + 1;
+        String leader = String.format("%05dnam%s 22%05d c 4500", length, coding, baseAddress);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(leader.getBytes(StandardCharsets.US_ASCII));
+        out.write(directory.toString().getBytes(StandardCharsets.US_ASCII));
+        for (byte[] field : fields) {
+            out.write(field);
+        }
+        out.write(0x1D);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,67 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.List;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.jdom2.filter.Filters;
+import org.jdom2.xpath.XPathFactory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MarcRecordIndexTest {
+
+    private static final Namespace MARC = Namespace.getNamespace("marc", "http://www.loc.gov/MARC21/slim");
+
+    private Document record;
+    private MarcRecordIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        try (InputStream in = new FileInputStream(new File("src/test/resources/samples/BV045903998.xml"))) {
+            record = SRUResponseReader.read(in, null).getFirstRecord();
+        }
+        index = new MarcRecordIndex(record, record.getRootElement().getNamespace());
+    }
+
+    @Test
+    public void testFindAsXPath() {
+        String[] queries = { "/marc:record/marc:datafield[@tag=\"035\"][not(@ind2=\"2\")]",
+                "/marc:record/marc:datafield[@tag=\"041\"][@ind2=\"7\"]/marc:subfield[@code='a']",
+                "/marc:record/marc:datafield[@tag=\"245\"][@ind1=\"1\"][@ind2=\"0\"]",
+                "/marc:record/marc:datafield[@tag=\"245\"][@ind1=\"0\"]",
+                "/marc:record/marc:controlfield[@tag=\"001\"][not(@ind2=\"2\")]",
+                "/marc:record/marc:datafield[@tag=\"016\"]/marc:subfield[@code=\"a\"]",
+                "/marc:record/marc:datafield[@tag=\"999\"]",
+                "/marc:record/marc:datafield" };
+        for (String query : queries) {
+            List<Element> expected = XPathFactory.instance().compile(query, Filters.element(), null, MARC).evaluate(record);
+            Assert.assertEquals(query, expected, index.find(query, MARC));
+        }
+    }
+
+    @Test
+    public void testDatafields() {
+        Assert.assertEquals(3, index.getDatafields("035", null, null, true).size());
+        Assert.assertEquals(1, index.getDatafields("264", "3", "1", false).size());
+        Assert.assertTrue(index.getDatafields("264", "3", "2", false).isEmpty());
+        Assert.assertEquals(4, index.getControlfields(null).size());
+        List<Element> language = index.getSubfields(index.getDatafields("041", null, null, false), "a");
+        Assert.assertEquals("ger", language.get(0).getText());
+    }
+
+    @Test
+    public void testFallBackToXPath() {
+        Assert.assertNull(index.find("//marc:datafield[@tag='245']", MARC));
+        Assert.assertNull(index.find("/marc:record/marc:datafield[@tag=\"245\"]/marc:subfield[@code='a'][1]", MARC));
+        //unbound prefix
+        Assert.assertNull(index.find("/slim:record/slim:datafield[@tag=\"245\"]", MARC));
+        //different namespace
+        Assert.assertNull(index.find("/record/datafield[@tag=\"245\"]", MARC));
+    }
+}
@@ -1,5 +1,8 @@
 package de.intranda.goobi.plugins.utils;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
 import java.io.File;
 import java.io.IOException;
 
@@ -14,6 +17,7 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import de.intranda.goobi.plugins.utils.MarcXmlParser.ParserException;
+import de.intranda.goobi.plugins.utils.MarcXmlParser.RecordInformation;
 import ugh.dl.DigitalDocument;
 import ugh.dl.Fileformat;
 import ugh.dl.Prefs;
@@ -25,6 +29,8 @@ import ugh.exceptions.WriteException;
 import ugh.fileformats.mets.MetsMods;
 
 public class MarcXmlParserTest {
+
+	private static final Namespace MARC = Namespace.getNamespace("marc", "http://www.loc.gov/MARC21/slim");
 	
 	File sampleFile = new File("src/test/resources/samples/AC14446261.xml");
 	File rulesetFile = new File("src/test/resources/HU-monographie.xml");
@@ -65,4 +71,63 @@ public class MarcXmlParserTest {
 		ff.write(outputFolder.getAbsolutePath() + "/" + sampleFile.getName());
 	}
 
+	@Test
+	public void testPredictMultiVolumeWorkAnchorId() throws ParserException {
+		MarcXmlParser parser = createParser("MultiVolumeWork");
+		Document record = createRecord(createDatafield("958", "2", "MVW-958"), createDatafield("010", " ", "MVW-010"));
+		assertEquals("MVW-958", parser.predictAnchorId(record));
+		assertEquals("MVW-010", parser.predictAnchorId(createRecord(createDatafield("010", " ", "MVW-010"))));
+		//the prediction does not change the state of the parser
+		assertNull(parser.marcDoc);
+	}
+
+	@Test
+	public void testPredictPeriodicalAnchorId() throws ParserException {
+		MarcXmlParser parser = createParser("Periodical");
+		Document record = createRecord(createDatafield("958", "1", "ZS-958"), createDatafield("453", " ", "ZS-453"));
+		assertEquals("ZS-453", parser.predictAnchorId(record));
+		assertEquals("ZS-958", parser.predictAnchorId(createRecord(createDatafield("958", "1", "ZS-958"))));
+		assertNull(parser.predictAnchorId(createRecord(createDatafield("958", "2", "MVW-958"))));
+		assertNull(parser.marcDoc);
+	}
+
+	@Test
+	public void testPredictWithoutAnchor() throws ParserException {
+		MarcXmlParser parser = createParser(null);
+		assertNull(parser.predictAnchorId(createRecord(createDatafield("453", " ", "ZS-453"))));
+		//without record information and mapping the anchor cannot be predicted
+		parser.setInfo(null);
+		assertNull(parser.predictAnchorId(createRecord(createDatafield("453", " ", "ZS-453"))));
+	}
+
+	/**
+	 * @param anchorType the anchor type of the record information. If null, the records have no anchor
+	 */
+	private MarcXmlParser createParser(String anchorType) throws ParserException {
+		MarcXmlParser parser = new MarcXmlParser(prefs);
+		parser.setNamespace("marc", MARC.getURI());
+		Element docType = new Element("docType").setAttribute("mapTo", "Volume");
+		if (anchorType != null) {
+			docType.setAttribute("anchorType", anchorType);
+		}
+		parser.setInfo(new RecordInformation(docType));
+		return parser;
+	}
+
+	static Document createRecord(Element... datafields) {
+		Element record = new Element("record", MARC);
+		record.addContent(new Element("leader", MARC).setText("00000nam a2200000 c 4500"));
+		record.addContent(new Element("controlfield", MARC).setAttribute("tag", "001").setText("AC1"));
+		for (Element datafield : datafields) {
+			record.addContent(datafield);
+		}
+		return new Document(record);
+	}
+
+	static Element createDatafield(String tag, String ind2, String value) {
+		Element datafield = new Element("datafield", MARC).setAttribute("tag", tag).setAttribute("ind1", " ").setAttribute("ind2", ind2);
+		datafield.addContent(new Element("subfield", MARC).setAttribute("code", "a").setText(value));
+		return datafield;
+	}
+
 }
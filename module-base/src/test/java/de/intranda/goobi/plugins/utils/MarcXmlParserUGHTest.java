@@ -0,0 +1,145 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import de.intranda.ugh.extension.MarcFileformat;
+import de.unigoettingen.sub.search.opac.ConfigOpac;
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+import ugh.dl.Prefs;
+
+public class MarcXmlParserUGHTest {
+
+    private static final String RULESET = "src/test/resources/HU-monographie-marc.xml";
+    private static final String SAMPLE = "src/test/resources/samples/BV045903998.xml";
+    private static final Namespace MARC = Namespace.getNamespace("marc", "http://www.loc.gov/MARC21/slim");
+
+    private Prefs prefs;
+    private Document marcDoc;
+
+    @Before
+    public void setUp() throws Exception {
+        prefs = new Prefs();
+        prefs.loadPrefs(RULESET);
+        try (InputStream in = new FileInputStream(new File(SAMPLE))) {
+            marcDoc = SRUResponseReader.read(in, null).getFirstRecord();
+        }
+    }
+
+    @Test
+    public void testReadAnchorAndChild() throws Exception {
+        MarcXmlParserUGH parser = new MarcXmlParserUGH(prefs, Mockito.mock(ConfigOpac.class));
+        DigitalDocument dd = new DigitalDocument();
+        DocStruct anchor = dd.createDocStruct(prefs.getDocStrctTypeByName("Periodical"));
+        DocStruct child = dd.createDocStruct(prefs.getDocStrctTypeByName("PeriodicalVolume"));
+        List<Path> tempFiles = listTempFiles();
+
+        parser.readMarc(marcDoc, anchor);
+        parser.readMarc(marcDoc, child);
+
+        Assert.assertEquals(tempFiles, listTempFiles());
+        //the same metadata as read from the pretty printed record which was passed to the ugh import before
+        Assert.assertFalse(getMetadata(anchor).isEmpty());
+        Assert.assertEquals(readPrettyPrinted("Periodical"), getMetadata(anchor));
+        Assert.assertEquals(readPrettyPrinted("PeriodicalVolume"), getMetadata(child));
+    }
+
+    @Test
+    public void testSerialize() throws Exception {
+        MarcXmlParserUGH parser = new MarcXmlParserUGH(prefs, Mockito.mock(ConfigOpac.class));
+        byte[] serialized = parser.serialize(marcDoc);
+        Assert.assertSame(serialized, parser.serialize(marcDoc));
+
+        //the serialized record only differs from the pretty printed one by indentation
+        XMLOutputter pretty = new XMLOutputter(Format.getPrettyFormat());
+        XMLOutputter compact = new XMLOutputter(Format.getCompactFormat());
+        Document expected = new SAXBuilder().build(new ByteArrayInputStream(pretty.outputString(marcDoc).getBytes("UTF-8")));
+        Document actual = new SAXBuilder().build(new ByteArrayInputStream(serialized));
+        Assert.assertEquals(compact.outputString(expected), compact.outputString(actual));
+        String content = new String(serialized, "UTF-8");
+        content = content.substring(content.indexOf("?>") + 2).trim();
+        Assert.assertFalse(content.matches("(?s).*>\\s+<.*"));
+    }
+
+    @Test
+    public void testPredictAnchorId() throws Exception {
+        MarcXmlParserUGH parser = new MarcXmlParserUGH(prefs, Mockito.mock(ConfigOpac.class));
+        parser.setNamespace(MARC);
+        Assert.assertEquals("990001234", parser.predictAnchorId(createRecord(createDatafield("773", "(DE-101)990001234"))));
+        Assert.assertEquals("990005678", parser.predictAnchorId(createRecord(createDatafield("830", "990005678"))));
+        //773 takes precedence over 830
+        Assert.assertEquals("990001234",
+                parser.predictAnchorId(createRecord(createDatafield("830", "990005678"), createDatafield("773", "(DE-604)990001234"))));
+        Assert.assertNull(parser.predictAnchorId(createRecord(createDatafield("773", "(DE-101)"))));
+        Assert.assertNull(parser.predictAnchorId(createRecord()));
+        //the prediction does not change the state of the parser
+        Assert.assertNull(parser.marcDoc);
+    }
+
+    private static Document createRecord(Element... datafields) {
+        Element record = new Element("record", MARC);
+        record.addContent(new Element("leader", MARC).setText("00000nam a2200000 c 4500"));
+        for (Element datafield : datafields) {
+            record.addContent(datafield);
+        }
+        return new Document(record);
+    }
+
+    private static Element createDatafield(String tag, String value) {
+        Element datafield = new Element("datafield", MARC).setAttribute("tag", tag).setAttribute("ind1", "0").setAttribute("ind2", " ");
+        datafield.addContent(new Element("subfield", MARC).setAttribute("code", "w").setText(value));
+        return datafield;
+    }
+
+    private List<String> readPrettyPrinted(String docStructType) throws Exception {
+        Path file = Files.createTempFile("marc-pretty", ".xml");
+        try {
+            try (OutputStream out = Files.newOutputStream(file)) {
+                new XMLOutputter(Format.getPrettyFormat()).output(marcDoc, out);
+            }
+            DocStruct ds = new DigitalDocument().createDocStruct(prefs.getDocStrctTypeByName(docStructType));
+            new MarcFileformat(prefs).read(file.toString(), ds);
+            return getMetadata(ds);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static List<String> getMetadata(DocStruct ds) {
+        List<String> values = new ArrayList<>();
+        if (ds.getAllMetadata() != null) {
+            for (Metadata md : ds.getAllMetadata()) {
+                values.add(md.getType().getName() + "=" + md.getValue());
+            }
+        }
+        return values;
+    }
+
+    private static List<Path> listTempFiles() throws Exception {
+        try (Stream<Path> files = Files.list(MarcXmlParserUGH.getImportDirectory())) {
+            return files.filter(file -> file.getFileName().toString().startsWith("marc-import")).sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.intranda.goobi.plugins.utils.RequestLimiter.LimitSettings;
+import de.intranda.goobi.plugins.utils.RequestLimiter.Permit;
+
+public class RequestLimiterTest {
+
+    @After
+    public void tearDown() {
+        RequestLimiter.reset();
+    }
+
+    @Test
+    public void testRateLimit() throws Exception {
+        LimitSettings settings = new LimitSettings();
+        settings.setRequestsPerSecond(20);
+        settings.setBurst(2);
+        RequestLimiter limiter = RequestLimiter.getInstance("test", () -> settings);
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire().close();
+        }
+        //the first two requests are sent at once, the remaining three wait 50 ms each
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 140);
+    }
+
+    @Test
+    public void testRateLimitTimeout() throws Exception {
+        LimitSettings settings = new LimitSettings();
+        settings.setRequestsPerSecond(1);
+        settings.setTimeout(100);
+        RequestLimiter limiter = RequestLimiter.getInstance("test", () -> settings);
+        limiter.acquire().close();
+        try {
+            limiter.acquire();
+            Assert.fail("Second request within a second must time out");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("requests per second"));
+        }
+    }
+
+    @Test
+    public void testMaxInFlight() throws Exception {
+        LimitSettings settings = new LimitSettings();
+        settings.setMaxInFlight(1);
+        settings.setTimeout(50);
+        RequestLimiter limiter = RequestLimiter.getInstance("test", () -> settings);
+        Permit permit = limiter.acquire();
+        try {
+            limiter.acquire();
+            Assert.fail("Second concurrent request must time out");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("requests running"));
+        }
+        permit.close();
+        permit.close();
+        limiter.acquire().close();
+    }
+
+    @Test
+    public void testUnlimitedByDefault() {
+        Assert.assertTrue(new LimitSettings().isUnlimited());
+    }
+}
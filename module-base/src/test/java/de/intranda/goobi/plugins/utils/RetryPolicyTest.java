@@ -0,0 +1,95 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.intranda.goobi.plugins.utils.SRUHttpTransport.HttpStatusException;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void testRetryTransientFailure() throws Exception {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setInitialDelay(1);
+        AtomicInteger attempts = new AtomicInteger();
+        String result = policy.execute("test", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new HttpStatusException("unavailable", 503, -1);
+            }
+            return "record";
+        });
+        Assert.assertEquals("record", result);
+        Assert.assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void testStopAfterMaxAttempts() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxAttempts(2);
+        policy.setInitialDelay(1);
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            policy.execute("test", () -> {
+                attempts.incrementAndGet();
+                throw new SocketTimeoutException("timeout");
+            });
+            Assert.fail("Last failure expected");
+        } catch (IOException e) {
+            Assert.assertEquals("timeout", e.getMessage());
+        }
+        Assert.assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testDoNotRetryPermanentFailure() {
+        RetryPolicy policy = new RetryPolicy();
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            policy.execute("test", () -> {
+                attempts.incrementAndGet();
+                throw new HttpStatusException("not found", 404, -1);
+            });
+            Assert.fail("Failure expected");
+        } catch (IOException e) {
+            Assert.assertEquals(404, ((HttpStatusException) e).getStatus());
+        }
+        Assert.assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void testBackoffWithJitter() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setInitialDelay(100);
+        policy.setMaxDelay(1000);
+        IOException failure = new SocketTimeoutException();
+        for (int i = 0; i < 20; i++) {
+            long first = policy.getDelay(1, failure);
+            Assert.assertTrue(first >= 50 && first <= 100);
+            long third = policy.getDelay(3, failure);
+            Assert.assertTrue(third >= 200 && third <= 400);
+            long capped = policy.getDelay(10, failure);
+            Assert.assertTrue(capped >= 500 && capped <= 1000);
+        }
+    }
+
+    @Test
+    public void testRetryAfter() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxDelay(5000);
+        Assert.assertEquals(2000, policy.getDelay(1, new HttpStatusException("too many requests", 429, 2000)));
+        //the server asks to wait longer than allowed, give up
+        Assert.assertEquals(-1, policy.getDelay(1, new HttpStatusException("too many requests", 429, 60000)));
+    }
+
+    @Test
+    public void testParseRetryAfter() {
+        Assert.assertEquals(120000, SRUHttpTransport.parseRetryAfter("120"));
+        Assert.assertEquals(0, SRUHttpTransport.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+        Assert.assertEquals(-1, SRUHttpTransport.parseRetryAfter("soon"));
+        Assert.assertEquals(-1, SRUHttpTransport.parseRetryAfter(null));
+    }
+}
@@ -2,6 +2,12 @@ package de.intranda.goobi.plugins.utils;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+import java.util.List;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -47,4 +53,34 @@ public class SRUClientTest {
         }
     }
 
+    @Test
+    public void testCreateOrQuery() {
+        assertEquals("rec.id=\"BV1\" or rec.id=\"a \\\"b\\\"\"", SRUClient.createOrQuery("rec.id", Arrays.asList("BV1", " a \"b\"")));
+    }
+
+    @Test
+    public void testCreateBatches() {
+        ConfigOpacCatalogue cat = new ConfigOpacCatalogue("test", "none", "example.org", "sru", null, 80, "utf-8", null, null, "SRU", "http://", null);
+        SRUClient client = new SRUClient();
+        List<List<String>> batches = client.createBatches(cat, "rec.id", Arrays.asList("1", "2", "3", "2", "4", "5"), "marcxml", 2, 2000);
+        assertEquals(Arrays.asList(Arrays.asList("1", "2"), Arrays.asList("3", "4"), Arrays.asList("5")), batches);
+
+        batches = client.createBatches(cat, "rec.id", Arrays.asList("1", "2", "3"), "marcxml", 50, 10);
+        assertEquals(3, batches.size());
+    }
+
+    @Test
+    public void testGetMatchValues() {
+        Namespace marc = Namespace.getNamespace("marc", "http://www.loc.gov/MARC21/slim");
+        Element record = new Element("record", marc);
+        record.addContent(new Element("controlfield", marc).setAttribute("tag", "001").setText("BV1"));
+        Element datafield = new Element("datafield", marc).setAttribute("tag", "035").setAttribute("ind1", " ").setAttribute("ind2", " ");
+        datafield.addContent(new Element("subfield", marc).setAttribute("code", "a").setText("(DE-604)BV1"));
+        record.addContent(datafield);
+        Document doc = new Document(record);
+        assertEquals(Arrays.asList("BV1"), SRUClient.getMatchValues(doc, "001"));
+        assertEquals(Arrays.asList("(DE-604)BV1"), SRUClient.getMatchValues(doc, "035a"));
+        assertTrue(SRUClient.getMatchValues(doc, "245a").isEmpty());
+    }
+
 }
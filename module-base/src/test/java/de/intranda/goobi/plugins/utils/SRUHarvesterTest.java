@@ -0,0 +1,91 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
+
+public class SRUHarvesterTest {
+
+    private SRUClient client;
+    private Path checkpoint;
+
+    @Before
+    public void setUp() throws Exception {
+        client = Mockito.mock(SRUClient.class);
+        Mockito.when(client.searchRetrieve(Mockito.any(ConfigOpacCatalogue.class), Mockito.anyString(), Mockito.anyString(), Mockito.eq(1),
+                Mockito.anyInt())).thenReturn(createResponse(3, 3, "1", "2"));
+        Mockito.when(client.searchRetrieve(Mockito.any(ConfigOpacCatalogue.class), Mockito.anyString(), Mockito.anyString(), Mockito.eq(3),
+                Mockito.anyInt())).thenReturn(createResponse(3, -1, "3"));
+        checkpoint = File.createTempFile("harvest", ".checkpoint").toPath();
+        Files.delete(checkpoint);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(checkpoint);
+    }
+
+    @Test
+    public void testHarvestAllPages() throws Exception {
+        SRUHarvester harvester = new SRUHarvester(client, null, "dc.subject=test", "marcxml", 2, checkpoint);
+        Assert.assertEquals(-1, harvester.getNumberOfRecords());
+        Assert.assertEquals(Arrays.asList("1", "2", "3"), harvest(harvester));
+        Assert.assertEquals(3, harvester.getNumberOfRecords());
+        Assert.assertFalse(Files.exists(checkpoint));
+    }
+
+    @Test
+    public void testWriteCheckpoint() throws Exception {
+        SRUHarvester harvester = new SRUHarvester(client, null, "dc.subject=test", "marcxml", 2, checkpoint);
+        harvester.next();
+        Assert.assertEquals("1", read(checkpoint));
+        harvester.next();
+        Assert.assertEquals("2", read(checkpoint));
+        Assert.assertEquals(3, harvester.getPosition());
+    }
+
+    @Test
+    public void testResumeFromCheckpoint() throws Exception {
+        Files.write(checkpoint, "3".getBytes(StandardCharsets.UTF_8));
+        SRUHarvester harvester = new SRUHarvester(client, null, "dc.subject=test", "marcxml", 2, checkpoint);
+        Assert.assertEquals(Arrays.asList("3"), harvest(harvester));
+        Mockito.verify(client, Mockito.never())
+                .searchRetrieve(Mockito.any(ConfigOpacCatalogue.class), Mockito.anyString(), Mockito.anyString(), Mockito.eq(1), Mockito.anyInt());
+    }
+
+    private static List<String> harvest(SRUHarvester harvester) {
+        List<String> ids = new ArrayList<>();
+        while (harvester.hasNext()) {
+            ids.add(harvester.next().getRootElement().getText());
+        }
+        return ids;
+    }
+
+    private static String read(Path file) throws Exception {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private static SRUResponse createResponse(int numberOfRecords, int nextRecordPosition, String... ids) {
+        SRUResponse response = new SRUResponse();
+        response.setNumberOfRecords(numberOfRecords);
+        response.setNextRecordPosition(nextRecordPosition);
+        for (String id : ids) {
+            response.addRecord(new Document(new Element("record").setText(id)));
+        }
+        return response;
+    }
+}
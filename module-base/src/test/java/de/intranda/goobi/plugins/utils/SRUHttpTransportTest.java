@@ -0,0 +1,125 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import de.intranda.goobi.plugins.utils.SRUHttpTransport.HttpSettings;
+import de.intranda.goobi.plugins.utils.SRUHttpTransport.HttpStatusException;
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
+
+public class SRUHttpTransportTest {
+
+    private HttpServer server;
+    /** the request line and host header of each request the server received */
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        SRUHttpTransport.shutdown();
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.add(exchange.getRequestURI() + " " + exchange.getRequestHeaders().getFirst("Host"));
+        int status = 200;
+        if (exchange.getRequestURI().getPath().endsWith("/busy")) {
+            status = 503;
+            exchange.getResponseHeaders().add("Retry-After", "5");
+        }
+        byte[] body = "<searchRetrieveResponse/>".getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static ConfigOpacCatalogue createCatalogue(String title, String address, int port) {
+        ConfigOpacCatalogue cat = Mockito.mock(ConfigOpacCatalogue.class);
+        Mockito.when(cat.getTitle()).thenReturn(title);
+        Mockito.when(cat.getProtocol()).thenReturn("http://");
+        Mockito.when(cat.getAddress()).thenReturn(address);
+        Mockito.when(cat.getPort()).thenReturn(port);
+        return cat;
+    }
+
+    @Test
+    public void testExecute() throws Exception {
+        int port = server.getAddress().getPort();
+        SRUHttpTransport transport = SRUHttpTransport.getInstance(createCatalogue("test", "localhost", port), HttpSettings::new);
+        String url = "http://localhost:" + port + "/sru?operation=searchRetrieve";
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals("<searchRetrieveResponse/>", transport.execute(url, response -> EntityUtils.toString(response.getEntity())));
+        }
+        Assert.assertEquals(3, requests.size());
+    }
+
+    @Test
+    public void testStatusException() throws Exception {
+        int port = server.getAddress().getPort();
+        SRUHttpTransport transport = SRUHttpTransport.getInstance(createCatalogue("test", "localhost", port), HttpSettings::new);
+        try {
+            transport.execute("http://localhost:" + port + "/busy", response -> "");
+            Assert.fail("Expected HttpStatusException");
+        } catch (HttpStatusException e) {
+            Assert.assertEquals(503, e.getStatus());
+            Assert.assertEquals(5000, e.getRetryAfter());
+        }
+        //the connection has been returned to the pool
+        Assert.assertEquals("", transport.execute("http://localhost:" + port + "/sru", response -> ""));
+    }
+
+    @Test
+    public void testProxy() throws Exception {
+        HttpSettings settings = new HttpSettings();
+        settings.setProxy("localhost", server.getAddress().getPort());
+        SRUHttpTransport transport = SRUHttpTransport.getInstance(createCatalogue("test", "sru.example.org", 0), () -> settings);
+        transport.execute("http://sru.example.org/sru?operation=searchRetrieve", response -> "");
+        //the request was sent to the proxy, for the catalogue host
+        Assert.assertEquals(1, requests.size());
+        Assert.assertEquals("http://sru.example.org/sru?operation=searchRetrieve sru.example.org", requests.get(0));
+    }
+
+    @Test
+    public void testSettingsPerCatalogue() throws Exception {
+        HttpSettings first = new HttpSettings();
+        first.setReadTimeout(1000);
+        HttpSettings second = new HttpSettings();
+        second.setReadTimeout(2000);
+        SRUHttpTransport firstTransport = SRUHttpTransport.getInstance(createCatalogue("first", "sru.example.org", 0), () -> first);
+        SRUHttpTransport secondTransport = SRUHttpTransport.getInstance(createCatalogue("second", "sru.example.org", 0), () -> second);
+        Assert.assertNotSame(firstTransport, secondTransport);
+        Assert.assertEquals(1000, firstTransport.getSettings().getReadTimeout());
+        Assert.assertEquals(2000, secondTransport.getSettings().getReadTimeout());
+        Assert.assertSame(firstTransport, SRUHttpTransport.getInstance(createCatalogue("first", "sru.example.org", 0), () -> second));
+    }
+
+    @Test
+    public void testParseRetryAfter() {
+        Assert.assertEquals(120000, SRUHttpTransport.parseRetryAfter(" 120 "));
+        Assert.assertEquals(-1, SRUHttpTransport.parseRetryAfter(null));
+        Assert.assertEquals(-1, SRUHttpTransport.parseRetryAfter("soon"));
+        Assert.assertEquals(0, SRUHttpTransport.parseRetryAfter("Thu, 01 Jan 1970 00:00:00 GMT"));
+    }
+}
@@ -0,0 +1,107 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+
+import org.jdom2.Document;
+import org.jdom2.Namespace;
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.intranda.goobi.plugins.utils.SRUClient.NoRecordsException;
+import de.intranda.goobi.plugins.utils.SRUClient.SRUException;
+
+public class SRUResponseReaderTest {
+
+    private static final Namespace MARC = Namespace.getNamespace("http://www.loc.gov/MARC21/slim");
+
+    @Test
+    public void testReadRecord() throws Exception {
+        try (InputStream in = new FileInputStream(new File("src/test/resources/samples/BV045903998.xml"))) {
+            SRUResponse response = SRUResponseReader.read(in, null);
+            Assert.assertEquals(1, response.getNumberOfRecords());
+            Assert.assertEquals(1, response.getRecords().size());
+            Assert.assertTrue(response.getDiagnostics().isEmpty());
+
+            Document record = response.getFirstRecord();
+            Assert.assertEquals("record", record.getRootElement().getName());
+            Assert.assertEquals(MARC.getURI(), record.getRootElement().getNamespaceURI());
+            Assert.assertEquals("01920nas a2200457 i 4500", record.getRootElement().getChildText("leader", MARC));
+            Assert.assertEquals(37, record.getRootElement().getChildren("datafield", MARC).size());
+        }
+    }
+
+    @Test
+    public void testReadPrefixedEnvelope() throws Exception {
+        try (InputStream in = new FileInputStream(new File("src/test/resources/samples/AC00677689.xml"))) {
+            SRUResponse response = SRUResponseReader.read(in, "UTF-8");
+            Document record = response.getFirstRecord();
+            Assert.assertEquals("00857 a2200289 450 ", record.getRootElement().getChildText("leader", MARC));
+        }
+    }
+
+    @Test
+    public void testReadDiagnostics() throws Exception {
+        String xml = "<searchRetrieveResponse xmlns=\"http://www.loc.gov/zing/srw/\"><version>1.2</version>"
+                + "<diagnostics><diag:diagnostic xmlns:diag=\"http://www.loc.gov/zing/srw/diagnostic/\">"
+                + "<diag:uri>info:srw/diagnostic/1/10</diag:uri><diag:message>Query syntax error</diag:message>"
+                + "</diag:diagnostic></diagnostics></searchRetrieveResponse>";
+        SRUResponse response = SRUResponseReader.read(new StringReader(xml));
+        Assert.assertTrue(response.getRecords().isEmpty());
+        Assert.assertEquals("Query syntax error", response.getDiagnostics().get(0));
+        try {
+            response.getFirstRecord();
+            Assert.fail("Expected SRUException");
+        } catch (SRUException e) {
+            Assert.assertFalse(e instanceof NoRecordsException);
+            Assert.assertEquals("Query syntax error", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testReadNoRecords() throws Exception {
+        String xml = "<searchRetrieveResponse xmlns=\"http://www.loc.gov/zing/srw/\"><version>1.2</version>"
+                + "<numberOfRecords>0</numberOfRecords><records/></searchRetrieveResponse>";
+        SRUResponse response = SRUResponseReader.read(new StringReader(xml));
+        Assert.assertEquals(0, response.getNumberOfRecords());
+        try {
+            response.getFirstRecord();
+            Assert.fail("Expected NoRecordsException");
+        } catch (NoRecordsException e) {
+            Assert.assertEquals("No records found", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testNoRecordsWithDiagnostic() throws Exception {
+        //zero hits because the system is unavailable say nothing about the record
+        String xml = "<searchRetrieveResponse xmlns=\"http://www.loc.gov/zing/srw/\"><version>1.2</version>"
+                + "<numberOfRecords>0</numberOfRecords><diagnostics><diag:diagnostic xmlns:diag=\"http://www.loc.gov/zing/srw/diagnostic/\">"
+                + "<diag:uri>info:srw/diagnostic/1/1</diag:uri><diag:message>System temporarily unavailable</diag:message>"
+                + "</diag:diagnostic></diagnostics></searchRetrieveResponse>";
+        SRUResponse response = SRUResponseReader.read(new StringReader(xml));
+        Assert.assertEquals(0, response.getNumberOfRecords());
+        try {
+            response.getFirstRecord();
+            Assert.fail("Expected SRUException");
+        } catch (SRUException e) {
+            Assert.assertFalse(e instanceof NoRecordsException);
+            Assert.assertEquals("System temporarily unavailable", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testUnparsableResponse() throws Exception {
+        SRUResponse response = SRUResponseReader.read(new StringReader("<html><body>Bad Gateway</body></html>"));
+        Assert.assertEquals(-1, response.getNumberOfRecords());
+        try {
+            response.getFirstRecord();
+            Assert.fail("Expected SRUException");
+        } catch (SRUException e) {
+            Assert.assertFalse(e instanceof NoRecordsException);
+        }
+    }
+
+}
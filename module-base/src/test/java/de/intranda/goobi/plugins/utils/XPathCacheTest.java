@@ -0,0 +1,53 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.jdom2.filter.Filters;
+import org.jdom2.xpath.XPathExpression;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class XPathCacheTest {
+
+    private static final Namespace MARC = Namespace.getNamespace("marc", "http://www.loc.gov/MARC21/slim");
+
+    @Test
+    public void testReuseExpression() {
+        XPathExpression<Element> expression = XPathCache.getExpression("/marc:record", Filters.element(), MARC);
+        Assert.assertSame(expression, XPathCache.getExpression("/marc:record", Filters.element(), MARC));
+        Assert.assertNotSame(expression, XPathCache.getExpression("/marc:record", Filters.element(), Namespace.getNamespace("marc", "urn:other")));
+        Assert.assertNotSame(expression, XPathCache.getExpression("/marc:record", Filters.element(), MARC, null, Namespace.getNamespace("slim", MARC.getURI())));
+    }
+
+    @Test
+    public void testEvaluate() {
+        Element record = new Element("record", MARC);
+        record.addContent(new Element("controlfield", MARC).setAttribute("tag", "001").setText("123"));
+        Document doc = new Document(record);
+
+        Assert.assertEquals("123", XPathCache.evaluateFirst("string(/marc:record/marc:controlfield[@tag='001'])", Filters.fstring(), doc, MARC));
+        Assert.assertEquals(1, XPathCache.evaluate("/marc:record/marc:controlfield", Filters.element(), doc, MARC).size());
+        Assert.assertNull(XPathCache.evaluateFirst("/marc:record/marc:datafield", Filters.element(), doc, MARC));
+    }
+
+    @Test
+    public void testExpressionPerThread() throws Exception {
+        XPathExpression<Element> shared = XPathCache.getExpression("/marc:record", Filters.element(), MARC);
+        XPathExpression<Element> own = XPathCache.getThreadExpression("/marc:record", Filters.element(), MARC);
+        Assert.assertNotSame(shared, own);
+        Assert.assertSame(own, XPathCache.getThreadExpression("/marc:record", Filters.element(), MARC));
+
+        AtomicReference<XPathExpression<Element>> other = new AtomicReference<>();
+        Thread thread = new Thread(() -> other.set(XPathCache.getThreadExpression("/marc:record", Filters.element(), MARC)));
+        thread.start();
+        thread.join();
+        Assert.assertNotNull(other.get());
+        Assert.assertNotSame(own, other.get());
+
+        XPathCache.clear();
+        Assert.assertNotSame(own, XPathCache.getThreadExpression("/marc:record", Filters.element(), MARC));
+    }
+}